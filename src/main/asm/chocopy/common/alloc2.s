@@ -4,7 +4,7 @@
   li a2, 4                                 # Word size in bytes
   mul a2, a1, a2                           # Calculate number of bytes to allocate
   add a2, gp, a2                           # Estimate where GP will move
-  bgeu a2, s11, alloc2_15                  # Go to OOM handler if too large
+  bgeu a2, s11, gc                         # Go to collector if too large
   lw t0, @.__obj_size__(a0)                # Get size of object in words
   mv t2, a0                                # Initialize src ptr
   mv t3, gp                                # Initialize dest ptr
@@ -20,8 +20,3 @@ alloc2_16:                                 # Copy-loop header
                                            # (same as requested size)
   mv gp, a2                                # Set next free slot in the heap
   jr ra                                    # Return to caller
-alloc2_15:                                 # OOM handler
-  li a0, @error_oom                        # Exit code for: Out of memory
-  la a1, STRING["Out of memory"]           # Load error message as str
-  addi a1, a1, @.__str__                   # Load address of attribute __str__
-  j abort                                  # Abort
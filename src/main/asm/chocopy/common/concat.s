@@ -24,6 +24,18 @@
 	lw s2, @.__len__(s1)              # $s2 = len(arr1)
         addi s1, s1, @.__elts__           # $s1 = arr1.elems
 	lw s4, 12(fp)                     # $s4 = conversion
+        la t0, noconv
+        bne s4, t0, concat_1              # copy as is unless converting
+        beqz s2, concat_2
+        slli t1, s2, 2
+        add t1, s1, t1                    # $t1 = end of arr1.elems
+concat_copy_1: # copy arr1 to the list, word by word
+        lw t0, 0(s1)
+        sw t0, 0(s3)
+        addi s1, s1, 4
+        addi s3, s3, 4
+        bne s1, t1, concat_copy_1
+        j concat_2
 concat_1: # append arr1 to the list
         beqz s2, concat_2
         lw a0, 0(s1)
@@ -38,6 +50,18 @@ concat_2:
         lw s2, @.__len__(s1)        # $s2 = arr2.length
         addi s1, s1, @.__elts__     # $s1 = arr.elems
 	lw s4, 8(fp)                # $s4 = conversion
+        la t0, noconv
+        bne s4, t0, concat_3        # copy as is unless converting
+        beqz s2, concat_4
+        slli t1, s2, 2
+        add t1, s1, t1              # $t1 = end of arr2.elems
+concat_copy_3: # copy arr2 to the list, word by word
+        lw t0, 0(s1)
+        sw t0, 0(s3)
+        addi s1, s1, 4
+        addi s3, s3, 4
+        bne s1, t1, concat_copy_3
+        j concat_4
 concat_3:
         beqz s2, concat_4
         lw a0, 0(s1)
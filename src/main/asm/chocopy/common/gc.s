@@ -0,0 +1,310 @@
+# Runtime support function: gc (allocation when the heap is full)
+# Prototype address is in a0.
+# Number of words to allocate is in a1.
+# Reuses a free chunk of the heap, collecting garbage first if none fits.
+#
+# The collector is a conservative mark-sweep: every word on the stack, in
+# the saved registers and in the global variables that points into
+# [s10, gp) is taken for a reference to the object it points into.
+# Objects never move. Right after s11 come two bitmaps of one bit per heap
+# word: where the objects start, then which ones are marked.
+# Sweeping merges the runs of dead objects into free chunks, linked from
+# gc.free through the word at offset 8 and tagged @gc_free_tag; a run
+# ending at gp gives its space back to the bump pointer instead.
+#
+# When less than half the heap is free after collecting, the heap grows
+# twice as large with sbrk, up to @heap_max bytes; while nothing fits, it
+# keeps doubling until the object fits or the heap can grow no more. The
+# new memory directly follows the bitmaps, which move to its end.
+  mv a2, zero                              # Not collected yet
+gc_1:                                      # Find the first free chunk that fits
+  la t1, gc.free                           # $t1 = address of the link to the chunk
+gc_2:
+  lw t2, 0(t1)                             # $t2 = chunk
+  beqz t2, gc_8                            # Collect if no chunk fits
+  lw t3, @.__obj_size__(t2)                # $t3 = size of chunk in words
+  sub t0, t3, a1                           # $t0 = words left over
+  bgez t0, gc_3                            # Take the chunk if large enough
+  addi t1, t2, 8                           # Follow the link in the chunk
+  j gc_2
+gc_3:
+  slti t3, t0, 3                           # A chunk needs at least a header
+  bnez t3, gc_4                            # Take the whole chunk if less is left
+  sw t0, @.__obj_size__(t2)                # Keep the head of the chunk free
+  slli t0, t0, 2
+  add a2, t2, t0                           # $a2 = new object, at the tail
+  mv t3, a1                                # $t3 = size of new object in words
+  j gc_5
+gc_4:
+  lw t0, 8(t2)                             # Unlink the chunk
+  sw t0, 0(t1)
+  mv a2, t2                                # $a2 = new object, the whole chunk
+  lw t3, @.__obj_size__(t2)                # $t3 = size of new object in words
+gc_5:                                      # Initialize object at $a2 of $t3 words
+  slli t0, t3, 2
+  add t0, a2, t0                           # $t0 = end of object
+  mv t1, a2
+gc_6:                                      # Clear the object
+  sw zero, 0(t1)
+  addi t1, t1, 4
+  bne t1, t0, gc_6
+  lw t0, @.__obj_size__(a0)                # Copy the prototype
+  mv t1, a0
+  mv t2, a2
+gc_7:
+  lw a0, 0(t1)
+  sw a0, 0(t2)
+  addi t1, t1, 4
+  addi t2, t2, 4
+  addi t0, t0, -1
+  bnez t0, gc_7
+  mv a0, a2                                # Return the new object
+  sw t3, @.__obj_size__(a0)                # Set size of new object in words
+  jr ra
+
+gc_8:                                      # No free chunk fits
+  bnez a2, gc_25                           # Grow the heap if collected already
+  addi sp, sp, -128                        # Save all registers, where they are
+  sw ra, 4(sp)                             # also scanned for references
+  sw gp, 12(sp)
+  sw tp, 16(sp)
+  sw t0, 20(sp)
+  sw t1, 24(sp)
+  sw t2, 28(sp)
+  sw fp, 32(sp)
+  sw s1, 36(sp)
+  sw a0, 40(sp)
+  sw a1, 44(sp)
+  sw a2, 48(sp)
+  sw a3, 52(sp)
+  sw a4, 56(sp)
+  sw a5, 60(sp)
+  sw a6, 64(sp)
+  sw a7, 68(sp)
+  sw s2, 72(sp)
+  sw s3, 76(sp)
+  sw s4, 80(sp)
+  sw s5, 84(sp)
+  sw s6, 88(sp)
+  sw s7, 92(sp)
+  sw s8, 96(sp)
+  sw s9, 100(sp)
+  sw t3, 112(sp)
+  sw t4, 116(sp)
+  sw t5, 120(sp)
+  sw t6, 124(sp)
+
+  sub s6, s11, s10                         # $s6 = size of a bitmap in bytes
+  srli s6, s6, 5
+  slli t1, s6, 1
+  add t1, s11, t1                          # $t1 = end of bitmaps
+  mv t0, s11
+gc_9:                                      # Clear the bitmaps
+  sw zero, 0(t0)
+  addi t0, t0, 4
+  bne t0, t1, gc_9
+  mv t0, s10
+gc_10:                                     # Note where the objects start
+  beq t0, gp, gc_11
+  sub t1, t0, s10
+  srli t1, t1, 2                           # $t1 = index of word in heap
+  srli t2, t1, 5
+  slli t2, t2, 2
+  add t2, s11, t2                          # $t2 = address of start bits
+  li t3, 1
+  sll t3, t3, t1
+  lw a0, 0(t2)
+  or a0, a0, t3
+  sw a0, 0(t2)
+  lw t1, @.__obj_size__(t0)                # Go to next object
+  slli t1, t1, 2
+  add t0, t0, t1
+  j gc_10
+gc_11:
+
+  mv s1, sp                                # $s1 = top of mark stack, below the registers
+  mv s2, sp                                # Mark from the stack
+  lw s3, gc.stack
+  jal s4, gc_13
+  la s2, gc.globals                        # Mark from the global variables
+  la s3, gc.stack
+  jal s4, gc_13
+gc_12:                                     # Mark from the objects on the mark stack
+  beq s1, sp, gc_17
+  lw t0, 0(s1)                             # Pop object
+  addi s1, s1, 4
+  lw t1, 0(t0)                             # Get type tag of object
+  li t2, @gc_free_tag
+  beq t1, t2, gc_12                        # Free chunks hold no references
+  addi t1, t1, -1
+  sltiu t1, t1, 3                          # Neither do int, bool and str
+  bnez t1, gc_12
+  addi s2, t0, 12                          # Scan the attributes or elements
+  lw t1, @.__obj_size__(t0)
+  slli t1, t1, 2
+  add s3, t0, t1
+  jal s4, gc_13
+  j gc_12
+
+gc_13:                                     # Push the unmarked objects [s2, s3) points into
+  bgeu s2, s3, gc_16
+  lw t0, 0(s2)                             # $t0 = word
+  addi s2, s2, 4
+  bltu t0, s10, gc_13                      # Skip words not pointing into the heap
+  bgeu t0, gp, gc_13
+  sub t1, t0, s10
+  srli t1, t1, 2                           # $t1 = index of word in heap
+gc_14:                                     # Find the object it is in
+  srli t2, t1, 5
+  slli t2, t2, 2
+  add t2, s11, t2                          # $t2 = address of start bits
+  lw t3, 0(t2)
+  srl t3, t3, t1
+  andi t3, t3, 1
+  bnez t3, gc_15
+  addi t1, t1, -1
+  j gc_14
+gc_15:
+  add t2, t2, s6                           # $t2 = address of mark bits
+  li t3, 1
+  sll t3, t3, t1                           # $t3 = mark bit
+  lw a0, 0(t2)
+  and a1, a0, t3
+  bnez a1, gc_13                           # Skip marked objects
+  or a0, a0, t3
+  sw a0, 0(t2)                             # Mark object
+  slli t1, t1, 2
+  add t0, s10, t1                          # $t0 = object
+  addi s1, s1, -4                          # Push object
+  sw t0, 0(s1)
+  j gc_13
+gc_16:
+  jr s4
+
+gc_17:                                     # Sweep the heap
+  mv s2, s10                               # $s2 = object
+  mv s3, zero                              # $s3 = start of the run of dead objects
+  mv s7, zero                              # $s7 = words in free chunks
+  la s5, gc.free                           # $s5 = address of the last link
+gc_18:
+  beq s2, gp, gc_21
+  lw t0, 0(s2)
+  li t1, @gc_free_tag
+  beq t0, t1, gc_19                        # Free chunks are dead
+  sub t1, s2, s10
+  srli t1, t1, 2                           # $t1 = index of word in heap
+  srli t2, t1, 5
+  slli t2, t2, 2
+  add t2, s11, t2
+  add t2, t2, s6                           # $t2 = address of mark bits
+  lw t2, 0(t2)
+  srl t2, t2, t1
+  andi t2, t2, 1
+  beqz t2, gc_19
+  beqz s3, gc_20                           # Live object: end the run of dead ones
+  li t0, @gc_free_tag
+  sw t0, 0(s3)
+  sub t0, s2, s3
+  srli t0, t0, 2
+  sw t0, @.__obj_size__(s3)
+  add s7, s7, t0
+  sw s3, 0(s5)                             # Link the free chunk
+  addi s5, s3, 8
+  mv s3, zero
+  j gc_20
+gc_19:                                     # Dead object
+  bnez s3, gc_20
+  mv s3, s2                                # Start a run of dead objects
+gc_20:
+  lw t0, @.__obj_size__(s2)                # Go to next object
+  slli t0, t0, 2
+  add s2, s2, t0
+  j gc_18
+gc_21:
+  sw zero, 0(s5)                           # End the free list
+  beqz s3, gc_22
+  mv gp, s3                                # Give a dead tail back to the bump pointer
+gc_22:
+  slli s7, s7, 2
+  sub t0, s11, gp
+  add s7, s7, t0                           # $s7 = free bytes
+  sub t0, s11, s10
+  srli t0, t0, 1
+  bgeu s7, t0, gc_23                       # Grow the heap if less than half is free
+  jal t3, gc_26
+gc_23:
+  lw ra, 4(sp)                             # Restore registers, but GP
+  lw tp, 16(sp)
+  lw t0, 20(sp)
+  lw t1, 24(sp)
+  lw t2, 28(sp)
+  lw fp, 32(sp)
+  lw s1, 36(sp)
+  lw a0, 40(sp)
+  lw a1, 44(sp)
+  lw a3, 52(sp)
+  lw a4, 56(sp)
+  lw a5, 60(sp)
+  lw a6, 64(sp)
+  lw a7, 68(sp)
+  lw s2, 72(sp)
+  lw s3, 76(sp)
+  lw s4, 80(sp)
+  lw s5, 84(sp)
+  lw s6, 88(sp)
+  lw s7, 92(sp)
+  lw s8, 96(sp)
+  lw s9, 100(sp)
+  lw t3, 112(sp)
+  lw t4, 116(sp)
+  lw t5, 120(sp)
+  lw t6, 124(sp)
+  addi sp, sp, 128
+  li a2, 1                                 # Collected
+gc_24:
+  slli t0, a1, 2                           # Retry at the bump pointer
+  add t0, gp, t0
+  bltu t0, s11, alloc2
+  j gc_1                                   # Else retry with the free chunks
+
+gc_25:                                     # Nothing fits after collecting
+  addi sp, sp, -4
+  sw s11, 0(sp)                            # Save end of heap
+  jal t3, gc_26
+  lw t0, 0(sp)
+  addi sp, sp, 4
+  beq t0, s11, gc_29                       # Out of memory if the heap did not grow
+  j gc_24                                  # Else retry in the larger heap
+
+gc_26:                                     # Grow the heap, up to @heap_max bytes
+  addi sp, sp, -8                          # (uses t0-t2, returns to t3)
+  sw a0, 0(sp)
+  sw a1, 4(sp)
+  sub t0, s11, s10                         # $t0 = size of heap
+  slli t1, t0, 1                           # $t1 = new size of heap, twice as large
+  li t2, @heap_max
+  bleu t1, t2, gc_27
+  mv t1, t2
+gc_27:
+  bleu t1, t0, gc_28                       # Done if the heap may not grow
+  srli t2, t0, 4
+  add t2, s11, t2                          # $t2 = end of memory, after the bitmaps
+  srli a1, t1, 4
+  add a1, t1, a1
+  add a1, s10, a1
+  sub a1, a1, t2                           # Request what the new bitmaps end past it
+  li a0, @sbrk                             # Code for ecall: sbrk
+  ecall
+  bne a0, t2, gc_28                        # Done unless the memory follows
+  add s11, s10, t1                         # Set end of heap; the old bitmaps are free
+gc_28:
+  lw a0, 0(sp)
+  lw a1, 4(sp)
+  addi sp, sp, 8
+  jr t3
+
+gc_29:                                     # OOM handler
+  li a0, @error_oom                        # Exit code for: Out of memory
+  la a1, STRING["Out of memory"]           # Load error message as str
+  addi a1, a1, @.__str__                   # Load address of attribute __str__
+  j abort                                  # Abort
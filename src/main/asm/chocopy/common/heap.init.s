@@ -1,5 +1,7 @@
 # Runtime support function: heap.init
-  mv a1, a0                                # Move requested size to A1
+  srli a1, a0, 4                           # Add room for the bitmaps of gc
+  add a1, a0, a1                           # Request A1 bytes
   li a0, @sbrk                             # Code for ecall: sbrk
   ecall                                    # Request A1 bytes
+  sw sp, gc.stack, t0                      # Remember where the stack starts
   jr ra                                    # Return to caller
@@ -0,0 +1,170 @@
+# Runtime support for ELF executables: linux.start and linux.ecall
+# Linked in by ElfBackend, which jumps to linux.ecall with its return
+# address in tp for every ecall of the program, the code generator never
+# using tp. linux.ecall carries out the Venus environment call whose code
+# is in a0 with Linux system calls, preserving all registers but a0 like
+# Venus does.
+.text
+linux.start:                               # Entry point of the executable
+  mv s11, zero                             # main expects s11 clear, as in Venus
+  j main
+
+linux.ecall:
+  addi sp, sp, -48                         # Save registers, and room for
+  sw a1, 0(sp)                             # 24 bytes of buffer at 24(sp)
+  sw a2, 4(sp)
+  sw a7, 8(sp)
+  sw t0, 12(sp)
+  sw t1, 16(sp)
+  sw t2, 20(sp)
+  li t0, @print_string
+  beq a0, t0, linux.ecall_1
+  li t0, @print_char
+  beq a0, t0, linux.ecall_3
+  li t0, @print_int
+  beq a0, t0, linux.ecall_4
+  li t0, @sbrk
+  beq a0, t0, linux.ecall_7
+  li t0, @fill_line_buffer
+  beq a0, t0, linux.ecall_10
+  li t0, @read_string
+  beq a0, t0, linux.ecall_13
+  li t0, @exit2
+  beq a0, t0, linux.ecall_16
+  li t0, @exit
+  mv a1, zero                              # exit: exit with code 0
+  beq a0, t0, linux.ecall_16
+  li a1, @error_nyi                        # Any other code is not supported
+  j linux.ecall_16
+
+linux.ecall_1:                             # print_string: the string at a1
+  mv t0, a1
+linux.ecall_2:
+  lbu t1, 0(t0)                            # Find the null byte
+  addi t0, t0, 1
+  bnez t1, linux.ecall_2
+  sub a2, t0, a1
+  addi a2, a2, -1                          # $a2 = length of string
+  j linux.ecall_17
+
+linux.ecall_3:                             # print_char: the character in a1
+  sb a1, 24(sp)
+  addi a1, sp, 24
+  li a2, 1
+  j linux.ecall_17
+
+linux.ecall_4:                             # print_int: the integer in a1
+  addi t0, sp, 48                          # $t0 = first digit, written backwards
+  mv t1, a1                                # $t1 = magnitude, as unsigned
+  bgez a1, linux.ecall_5
+  sub t1, zero, a1
+linux.ecall_5:
+  li t2, 10
+  remu a2, t1, t2
+  addi a2, a2, 48                          # Digit character
+  addi t0, t0, -1
+  sb a2, 0(t0)
+  divu t1, t1, t2
+  bnez t1, linux.ecall_5
+  bgez a1, linux.ecall_6
+  li a2, 45                                # Minus sign
+  addi t0, t0, -1
+  sb a2, 0(t0)
+linux.ecall_6:
+  mv a1, t0
+  addi a2, sp, 48
+  sub a2, a2, t0                           # $a2 = number of characters
+  j linux.ecall_17
+
+linux.ecall_7:                             # sbrk: a1 more bytes
+  lw t0, linux.brk                         # $t0 = break, 0 if unknown yet
+  bnez t0, linux.ecall_8
+  mv a0, zero                              # Get the initial break
+  li a7, 214                               # Linux system call: brk
+  ecall
+  addi t0, a0, 15                          # Align it to 16 bytes
+  andi t0, t0, -16
+linux.ecall_8:
+  add t1, t0, a1                           # $t1 = new break
+  mv a0, t1
+  li a7, 214                               # Linux system call: brk
+  ecall
+  bltu a0, t1, linux.ecall_9               # Fail if the break did not move
+  sw t1, linux.brk, t2
+  mv a0, t0                                # Return the old break
+  j linux.ecall_18
+linux.ecall_9:
+  li a0, -1
+  j linux.ecall_18
+
+linux.ecall_10:                            # fill_line_buffer: read a line
+  mv t1, zero                              # $t1 = length of line
+  mv t2, zero                              # $t2 = 1 once a byte is read
+linux.ecall_11:
+  mv a0, zero                              # Read a byte from stdin
+  addi a1, sp, 24
+  li a2, 1
+  li a7, 63                                # Linux system call: read
+  ecall
+  blez a0, linux.ecall_12                  # End of input
+  li t2, 1
+  lbu t0, 24(sp)
+  li a0, 10
+  beq t0, a0, linux.ecall_12               # End of line
+  li a0, @linux_line_max
+  bgeu t1, a0, linux.ecall_11              # Drop what does not fit
+  la a0, linux.line
+  add a0, a0, t1
+  sb t0, 0(a0)
+  addi t1, t1, 1
+  j linux.ecall_11
+linux.ecall_12:
+  sw t1, linux.line_len, t0
+  mv a0, t1                                # Return length of line
+  bnez t2, linux.ecall_18
+  li a0, -1                                # Or -1 at end of input
+  j linux.ecall_18
+
+linux.ecall_13:                            # read_string: up to a2 bytes to a1
+  lw t0, linux.line_len
+  bgeu a2, t0, linux.ecall_14
+  mv t0, a2
+linux.ecall_14:
+  mv a0, t0                                # Return number of bytes
+  la t1, linux.line
+linux.ecall_15:
+  beqz t0, linux.ecall_18
+  lbu t2, 0(t1)
+  sb t2, 0(a1)
+  addi t1, t1, 1
+  addi a1, a1, 1
+  addi t0, t0, -1
+  j linux.ecall_15
+
+linux.ecall_16:                            # exit2: exit with code a1
+  mv a0, a1
+  li a7, 93                                # Linux system call: exit
+  ecall
+
+linux.ecall_17:                            # Write a2 bytes at a1 to stdout
+  li a0, 1
+  li a7, 64                                # Linux system call: write
+  ecall
+linux.ecall_18:                            # Restore registers
+  lw a1, 0(sp)
+  lw a2, 4(sp)
+  lw a7, 8(sp)
+  lw t0, 12(sp)
+  lw t1, 16(sp)
+  lw t2, 20(sp)
+  addi sp, sp, 48
+  jr tp
+
+.data
+.align 2
+linux.brk:
+  .word 0                                  # Break, 0 until first sbrk
+linux.line_len:
+  .word 0                                  # Length of line in buffer
+linux.line:
+  .space @linux_line_max                   # Line buffer
@@ -0,0 +1,29 @@
+        # listappend: appends the element at 4(sp) to the list at 0(sp), in place
+        # A list has room for (size - @listHeaderWords) elements; a full one moves to
+        # a new list with room for twice as many. Returns the list.
+        lw a0, 0(sp)                     # $a0 := list
+        beqz a0, listappend_none
+        lw t0, @.__len__(a0)             # $t0 := length of list
+        lw t1, @.__obj_size__(a0)        # $t1 := size of list in words
+        addi t2, t0, @listHeaderWords    # $t2 := words in use
+        bge t2, t1, listappend_grow      # move the list if full
+listappend_1:
+        slli t1, t0, 2
+        add t1, a0, t1                   # $t1 := past the last element, less its offset
+        lw t2, 4(sp)                     # $t2 := element
+        sw t2, @.__elts__(t1)            # store it after the last element
+        addi t0, t0, 1
+        sw t0, @.__len__(a0)             # dump new length
+        jr ra
+listappend_grow:
+        addi sp, sp, -8
+        sw ra, 4(sp)
+        addi a1, t0, 1
+        slli a1, a1, 1                   # $a1 := room for twice the new length
+        jal listgrow
+        lw ra, 4(sp)
+        addi sp, sp, 8
+        lw t0, @.__len__(a0)             # $t0 := length of moved list
+        j listappend_1
+listappend_none:
+        j error.None
@@ -0,0 +1,47 @@
+        # listextend: appends the elements of the list at 4(sp) to the list at 0(sp),
+        # in place, moving it like listappend if it has no room for them.
+        # The lists may be the same. Returns the list.
+        lw a0, 0(sp)                     # $a0 := list
+        lw t2, 4(sp)                     # $t2 := list appended
+        beqz a0, listextend_none
+        beqz t2, listextend_none
+        lw t0, @.__len__(a0)
+        lw t1, @.__len__(t2)
+        add t0, t0, t1                   # $t0 := new length
+        lw t1, @.__obj_size__(a0)        # $t1 := size of list in words
+        addi t2, t0, @listHeaderWords    # $t2 := words needed
+        blt t1, t2, listextend_grow      # move the list if too short
+listextend_1:
+        lw t2, 4(sp)                     # $t2 := list appended
+        lw t1, @.__len__(t2)             # $t1 := number of elements appended
+        sub t3, t0, t1
+        sw t0, @.__len__(a0)             # dump new length
+        slli t3, t3, 2
+        add t3, a0, t3
+        addi t3, t3, @.__elts__          # $t3 := past the old last element
+        addi t2, t2, @.__elts__          # $t2 := elements appended
+        slli t1, t1, 2
+        add t1, t2, t1                   # $t1 := end of elements appended
+        beq t2, t1, listextend_3
+listextend_2:
+        lw t0, 0(t2)                     # copy the elements, word by word
+        sw t0, 0(t3)
+        addi t2, t2, 4
+        addi t3, t3, 4
+        bne t2, t1, listextend_2
+listextend_3:
+        jr ra
+listextend_grow:
+        addi sp, sp, -8
+        sw ra, 4(sp)
+        slli a1, t0, 1                   # $a1 := room for twice the new length
+        jal listgrow
+        lw ra, 4(sp)
+        addi sp, sp, 8
+        lw t0, @.__len__(a0)
+        lw t2, 4(sp)
+        lw t1, @.__len__(t2)
+        add t0, t0, t1                   # $t0 := new length
+        j listextend_1
+listextend_none:
+        j error.None
@@ -0,0 +1,33 @@
+        # listgrow: moves the list in a0 to a new list with room for a1 elements
+        # The room left is cleared, as the collector scans it. Returns the new list.
+        addi sp, sp, -8
+        sw ra, 4(sp)
+        sw a0, 0(sp)                     # keep the old list
+        addi a1, a1, @listHeaderWords    # compute required space (in words)
+        la a0, $.list$prototype
+        jal alloc2
+        lw t0, 0(sp)                     # $t0 := old list
+        lw t1, @.__len__(t0)
+        sw t1, @.__len__(a0)             # dump list length to the new list
+        addi t0, t0, @.__elts__          # $t0 := old elements
+        addi t2, a0, @.__elts__          # $t2 := new elements
+        slli t1, t1, 2
+        add t1, t0, t1                   # $t1 := end of old elements
+        beq t0, t1, listgrow_2
+listgrow_1:
+        lw t3, 0(t0)                     # copy the elements, word by word
+        sw t3, 0(t2)
+        addi t0, t0, 4
+        addi t2, t2, 4
+        bne t0, t1, listgrow_1
+listgrow_2:
+        lw t0, @.__obj_size__(a0)
+        slli t0, t0, 2
+        add t0, a0, t0                   # $t0 := end of new list
+listgrow_3:
+        sw zero, 0(t2)                   # clear the room left
+        addi t2, t2, 4
+        bne t2, t0, listgrow_3
+        lw ra, 4(sp)
+        addi sp, sp, 8
+        jr ra
@@ -0,0 +1,33 @@
+# Runtime support function: makeint
+# Boxes the int in a0, returning the int object in a0. The ints from
+# @int_cache_min on, @int_cache_size of them, are preallocated in allInts,
+# one object of 16 bytes after another, and returned from there without
+# allocating. Preserves all registers but a0.
+  addi sp, sp, -24
+  sw t0, 12(sp)
+  sw t1, 8(sp)
+  li t0, @int_cache_min
+  sub t0, a0, t0                           # $t0 = index of int in allInts
+  li t1, @int_cache_size
+  bgeu t0, t1, makeint_1                   # Allocate ints not in the table
+  slli t0, t0, 4
+  la a0, allInts
+  add a0, a0, t0                           # $a0 = preallocated int object
+  j makeint_2
+makeint_1:
+  sw ra, 20(sp)
+  sw a0, 16(sp)
+  sw t2, 4(sp)
+  sw t3, 0(sp)
+  la a0, $int$prototype
+  jal alloc
+  lw t0, 16(sp)
+  sw t0, @.__int__(a0)
+  lw ra, 20(sp)
+  lw t2, 4(sp)
+  lw t3, 0(sp)
+makeint_2:
+  lw t0, 12(sp)
+  lw t1, 8(sp)
+  addi sp, sp, 24
+  jr ra
@@ -0,0 +1,5 @@
+# Runtime support function: noconv
+# The conversion concat applies to the elements of lists that need none:
+# returns the element in a0 as it is. concat recognizes it by its address
+# and copies such lists word by word without calling it.
+  jr ra
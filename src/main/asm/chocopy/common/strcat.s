@@ -0,0 +1,55 @@
+# Runtime support function: strcat
+# Concatenates the strs at 4(sp) and 0(sp), the right operand on top, into a
+# new str returned in a0. Returns an operand itself if the other is empty.
+  addi sp, sp, -12
+  sw ra, 8(sp)
+  sw fp, 4(sp)
+  addi fp, sp, 12
+  lw t0, 4(fp)                             # $t0 = left operand
+  lw t1, 0(fp)                             # $t1 = right operand
+  lw t0, @.__len__(t0)
+  beqz t0, strcat_3                        # Left operand is empty
+  lw t1, @.__len__(t1)
+  beqz t1, strcat_4                        # Right operand is empty
+  add t1, t0, t1
+  sw t1, -12(fp)                           # Save length of new string
+  addi t1, t1, @.__str__                   # Header, chars and null byte,
+  addi t1, t1, 4                           # rounded up to words
+  srli a1, t1, 2
+  la a0, $str$prototype
+  jal alloc2                               # Allocate new string
+  lw t0, -12(fp)
+  sw t0, @.__len__(a0)                     # Set its length
+  addi t2, a0, @.__str__                   # $t2 = next byte of new string
+  lw t0, 4(fp)
+  lw t1, @.__len__(t0)
+  addi t0, t0, @.__str__
+  add t1, t0, t1                           # $t1 = end of left operand
+strcat_1:
+  lbu t3, 0(t0)                            # Copy left operand
+  sb t3, 0(t2)
+  addi t0, t0, 1
+  addi t2, t2, 1
+  bne t0, t1, strcat_1
+  lw t0, 0(fp)
+  lw t1, @.__len__(t0)
+  addi t0, t0, @.__str__
+  add t1, t0, t1                           # $t1 = end of right operand
+strcat_2:
+  lbu t3, 0(t0)                            # Copy right operand
+  sb t3, 0(t2)
+  addi t0, t0, 1
+  addi t2, t2, 1
+  bne t0, t1, strcat_2
+  sb zero, 0(t2)                           # Null byte
+  j strcat_5
+strcat_3:
+  lw a0, 0(fp)
+  j strcat_5
+strcat_4:
+  lw a0, 4(fp)
+strcat_5:
+  lw ra, -4(fp)
+  lw fp, -8(fp)
+  addi sp, sp, 12
+  jr ra
@@ -0,0 +1,66 @@
+# Runtime support function: streql
+# Compares the strs at 0(sp) and 4(sp), returning 1 in a0 if they are equal,
+# else 0. strneql enters at streql_1 with a6 = 1, for the opposite result.
+# Strings are told apart by identity, then length, then the hash in their
+# __hash__ attribute, computed here on first use (0 until then, as in the
+# prototype; constants come with theirs), and only then byte by byte.
+  mv a6, zero                              # $a6 = 1 to negate the result
+streql_1:
+  lw a1, 0(sp)
+  lw a2, 4(sp)
+  beq a1, a2, streql_5                     # Equal if the same object
+  lw a3, @.__len__(a1)
+  lw a4, @.__len__(a2)
+  bne a3, a4, streql_6                     # Unequal if lengths differ
+  lw a4, @.__hash__(a1)
+  bnez a4, streql_2
+  mv a0, a1
+  jal a7, streql_7                         # Compute hash of left string
+  mv a4, a0
+streql_2:
+  lw a5, @.__hash__(a2)
+  bnez a5, streql_3
+  mv a0, a2
+  jal a7, streql_7                         # Compute hash of right string
+  mv a5, a0
+streql_3:
+  bne a4, a5, streql_6                     # Unequal if hashes differ
+  addi a1, a1, @.__str__
+  addi a2, a2, @.__str__
+  add a3, a1, a3                           # $a3 = end of left string
+streql_4:
+  beq a1, a3, streql_5                     # Compare bytes
+  lbu a4, 0(a1)
+  lbu a5, 0(a2)
+  bne a4, a5, streql_6
+  addi a1, a1, 1
+  addi a2, a2, 1
+  j streql_4
+streql_5:
+  li a0, 1                                 # Equal
+  xor a0, a0, a6
+  jr ra
+streql_6:
+  mv a0, a6                                # Unequal
+  jr ra
+
+streql_7:                                  # Hash the string in a0 into a0
+  lw t0, @.__len__(a0)
+  addi t1, a0, @.__str__                   # $t1 = next byte
+  add t0, t1, t0                           # $t0 = end of string
+  mv t2, zero                              # $t2 = hash
+  j streql_9
+streql_8:
+  lbu t3, 0(t1)
+  slli t4, t2, 5
+  sub t2, t4, t2                           # hash = 31 * hash + byte
+  add t2, t2, t3
+  addi t1, t1, 1
+streql_9:
+  bne t1, t0, streql_8
+  bnez t2, streql_10
+  li t2, 1                                 # 0 stands for no hash yet
+streql_10:
+  sw t2, @.__hash__(a0)
+  mv a0, t2
+  jr a7
@@ -0,0 +1,5 @@
+# Runtime support function: strneql
+# Compares the strs at 0(sp) and 4(sp), returning 1 in a0 if they differ,
+# else 0, with the code of streql.
+  li a6, 1                                 # Negate the result of streql
+  j streql_1
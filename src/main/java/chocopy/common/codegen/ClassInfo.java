@@ -21,6 +21,8 @@ public class ClassInfo extends SymbolInfo {
     protected final Label prototypeLabel;
     /** Label of area containing method-dispatching table. */
     protected Label dispatchTableLabel;
+    /** Information about the superclass, or null for object. */
+    protected final ClassInfo superClassInfo;
 
     /**
      * A descriptor for a class named CLASSNAME identified by runtime tag TYPETAG, and having the
@@ -30,6 +32,7 @@ public class ClassInfo extends SymbolInfo {
     public ClassInfo(String className, int typeTag, ClassInfo superClassInfo) {
         this.className = className;
         this.typeTag = typeTag;
+        this.superClassInfo = superClassInfo;
         prototypeLabel = new Label(String.format("$%s$%s", className, "prototype"));
         dispatchTableLabel = new Label(String.format("$%s$%s", className, "dispatchTable"));
         attributes = new ArrayList<>();
@@ -59,6 +62,11 @@ public class ClassInfo extends SymbolInfo {
         }
     }
 
+    /** Returns the information about the superclass, or null for object. */
+    public ClassInfo getSuperClassInfo() {
+        return superClassInfo;
+    }
+
     /** Returns the type tag. */
     public int getTypeTag() {
         return typeTag;
@@ -9,6 +9,8 @@ import chocopy.common.astnodes.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -89,6 +91,18 @@ public abstract class CodeGenBase {
     /** Label for built-in routine: heap.init. */
     protected final Label heapInitLabel = new Label("heap.init");
 
+    /** Label of the global variables, scanned by gc. */
+    protected final Label gcGlobalsLabel = new Label("gc.globals");
+
+    /** Label of the top of the stack, scanned by gc. */
+    protected final Label gcStackLabel = new Label("gc.stack");
+
+    /** Label of the list of free chunks of the heap. */
+    protected final Label gcFreeLabel = new Label("gc.free");
+
+    /** Type tag of a free chunk of the heap. */
+    protected final int GC_FREE_TAG = -2;
+
     /** Error codes. */
     protected final int ERROR_ARG = 1,
             ERROR_DIV_ZERO = 2,
@@ -97,8 +111,20 @@ public abstract class CodeGenBase {
             ERROR_OOM = 5,
             ERROR_NYI = 6;
 
-    /** Size of heap memory. */
-    protected final int HEAP_SIZE_BYTES = 1024 * 1024 * 32;
+    /** Default initial size of heap memory, in bytes. */
+    public static final int DEFAULT_HEAP_SIZE_BYTES = 1024 * 1024;
+
+    /** Default size heap memory may grow to, in bytes. */
+    public static final int DEFAULT_HEAP_MAX_BYTES = 1024 * 1024 * 256;
+
+    /** Largest size heap memory may grow to, in bytes. */
+    public static final int HEAP_LIMIT_BYTES = 1024 * 1024 * 1024;
+
+    /** Initial size of heap memory, in bytes. */
+    protected int heapSizeBytes = DEFAULT_HEAP_SIZE_BYTES;
+
+    /** Size heap memory may grow to, in bytes. */
+    protected int heapMaxBytes = DEFAULT_HEAP_MAX_BYTES;
 
     /** Ecall numbers for intrinsic routines. */
     protected final int EXIT_ECALL = 10,
@@ -137,6 +163,19 @@ public abstract class CodeGenBase {
         initAsmConstants();
     }
 
+    /**
+     * Sets the heap to start at SIZE bytes and to grow, when full of live objects, up to MAX
+     * bytes. Both are rounded up to multiples of 4KB.
+     */
+    public void setHeapSize(int size, int max) {
+        if (size <= 0 || max < size || max > HEAP_LIMIT_BYTES) {
+            throw new IllegalArgumentException(
+                    String.format("Invalid heap size: %d bytes, up to %d bytes", size, max));
+        }
+        heapSizeBytes = (size + 4095) & ~4095;
+        heapMaxBytes = (max + 4095) & ~4095;
+    }
+
     /** Returns a fresh type tag. */
     protected int getNextTypeTag() {
         return nextTypeTag++;
@@ -169,6 +208,7 @@ public abstract class CodeGenBase {
      */
     public void generate(Program program) {
         analyzeProgram(program);
+        backend.defineSym("heap_max", heapMaxBytes);
 
         backend.startData();
 
@@ -180,6 +220,7 @@ public abstract class CodeGenBase {
             emitDispatchTable(classInfo);
         }
 
+        backend.emitGlobalLabel(gcGlobalsLabel);
         for (GlobalVarInfo global : this.globalVars) {
             backend.emitGlobalLabel(global.getLabel());
             emitConstant(
@@ -188,11 +229,16 @@ public abstract class CodeGenBase {
                     String.format("Initial value of global var: %s", global.getVarName()));
         }
 
+        backend.emitGlobalLabel(gcStackLabel);
+        backend.emitWordLiteral(0, "Top of the stack, scanned by gc");
+        backend.emitGlobalLabel(gcFreeLabel);
+        backend.emitWordLiteral(0, "First free chunk of the heap");
+
         backend.startCode();
 
         Label mainLabel = new Label("main");
         backend.emitGlobalLabel(mainLabel);
-        backend.emitLUI(A0, HEAP_SIZE_BYTES >> 12, "Initialize heap size (in multiples of 4KB)");
+        backend.emitLUI(A0, heapSizeBytes >> 12, "Initialize heap size (in multiples of 4KB)");
         backend.emitADD(S11, S11, A0, "Save heap size");
         backend.emitJAL(heapInitLabel, "Call heap.init routine");
         backend.emitMV(GP, A0, "Initialize heap pointer");
@@ -211,6 +257,7 @@ public abstract class CodeGenBase {
         emitStdFunc("alloc2");
         emitStdFunc("abort");
         emitStdFunc("heap.init");
+        emitStdFunc("gc");
 
         emitCustomCode();
 
@@ -249,6 +296,8 @@ public abstract class CodeGenBase {
         strClass = makeClassInfo("str", getNextTypeTag(), objectClass);
         strClass.addAttribute(
                 makeAttrInfo("__len__", Type.INT_TYPE, new IntegerLiteral(null, null, 0)));
+        strClass.addAttribute(
+                makeAttrInfo("__hash__", Type.INT_TYPE, new IntegerLiteral(null, null, 0)));
         strClass.addAttribute(makeAttrInfo("__str__", null, null));
         classes.add(strClass);
         globalSymbols.put(strClass.getClassName(), strClass);
@@ -287,6 +336,7 @@ public abstract class CodeGenBase {
      *   @print_string
      *   @print_char
      *   @print_int
+     *   @exit
      *   @exit2
      * Exit codes:
      *   @error_div_zero: Division by 0.
@@ -298,10 +348,14 @@ public abstract class CodeGenBase {
      * Data-structure byte offsets:
      *   @.__obj_size__: Offset of size of object.
      *   @.__len__: Offset of length in chars or words.
+     *   @.__hash__: Offset of hash of string, 0 until computed.
      *   @.__str__: Offset of string data.
      *   @.__elts__: Offset of first list item.
      *   @.__int__: Offset of integer value.
      *   @.__bool__: Offset of boolean (1/0) value.
+     * Heap:
+     *   @gc_free_tag: Type tag of a free chunk.
+     *   @heap_max: Size the heap may grow to, in bytes (defined by generate).
      */
 
     /** Define @-constants to be used in assembly code. */
@@ -310,6 +364,7 @@ public abstract class CodeGenBase {
         backend.defineSym("print_string", PRINT_STRING_ECALL);
         backend.defineSym("print_char", PRINT_CHAR_ECALL);
         backend.defineSym("print_int", PRINT_INT_ECALL);
+        backend.defineSym("exit", EXIT_ECALL);
         backend.defineSym("exit2", EXIT2_ECALL);
         backend.defineSym("read_string", READ_STRING_ECALL);
         backend.defineSym("fill_line_buffer", FILL_LINE_BUFFER__ECALL);
@@ -318,7 +373,8 @@ public abstract class CodeGenBase {
         backend.defineSym(".__len__", 12);
         backend.defineSym(".__int__", 12);
         backend.defineSym(".__bool__", 12);
-        backend.defineSym(".__str__", 16);
+        backend.defineSym(".__hash__", 16);
+        backend.defineSym(".__str__", 20);
         backend.defineSym(".__elts__", 16);
 
         backend.defineSym("error_div_zero", ERROR_DIV_ZERO);
@@ -332,6 +388,7 @@ public abstract class CodeGenBase {
         backend.defineSym("bool.False", "const_0");
 
         backend.defineSym("listHeaderWords", 4);
+        backend.defineSym("gc_free_tag", GC_FREE_TAG);
     }
 
     // =======================================
@@ -714,9 +771,10 @@ public abstract class CodeGenBase {
             int numWordsForCharacters = value.length() / wordSize + 1;
             backend.emitGlobalLabel(label);
             backend.emitWordLiteral(strClass.getTypeTag(), "Type tag for class: str");
-            backend.emitWordLiteral(3 + 1 + numWordsForCharacters, "Object size");
+            backend.emitWordLiteral(HEADER_SIZE + 2 + numWordsForCharacters, "Object size");
             backend.emitWordAddress(strClass.getDispatchTableLabel(), "Pointer to dispatch table");
             this.emitConstantInt(value.length(), "Constant value of attribute: __len__");
+            this.emitConstantInt(Constants.strHash(value), "Constant value of attribute: __hash__");
             backend.emitString(value, "Constant value of attribute: __str__");
             alignObject();
         }
@@ -807,13 +865,47 @@ public abstract class CodeGenBase {
     // Emitting predefined functions.
     // ==============================
 
+    /**
+     * The library routines read so far, by resource name. They do not depend on the program, so
+     * they are read once per process and shared by all compilations.
+     */
+    private static final ConcurrentMap<String, String> LIBRARY_CODE = new ConcurrentHashMap<>();
+
     /**
      * Returns RISC-V assembly code for function NAME from directory LIB, or null if it does not
      * exist. LIB must end in '/'.
      */
     protected String getStandardLibraryCode(String name, String lib) {
         String simpleName = name.replace("$", "") + ".s";
-        return getResourceFileAsString(lib + simpleName);
+        String resource = lib + simpleName;
+        String code = LIBRARY_CODE.get(resource);
+        if (code == null) {
+            code = getResourceFileAsString(resource);
+            if (code != null) {
+                LIBRARY_CODE.putIfAbsent(resource, code);
+            }
+        }
+        return code;
+    }
+
+    /**
+     * The text of the code emitted by emitRendered, by its key. Like the library routines, it is
+     * rendered once per process and shared by all compilations.
+     */
+    private static final ConcurrentMap<String, String> RENDERED_CODE = new ConcurrentHashMap<>();
+
+    /**
+     * Emits the code that EMITTER emits into a backend, which must depend on nothing but KEY. The
+     * first time, the code is rendered as text, which later calls with the same KEY emit verbatim.
+     */
+    protected void emitRendered(String key, Consumer<RiscVBackend> emitter) {
+        String code = RENDERED_CODE.computeIfAbsent(key, k -> {
+            RiscVBackend scratch = new RiscVBackend();
+            emitter.accept(scratch);
+            String text = scratch.toString();
+            return text.substring(0, text.length() - 1);
+        });
+        backend.emit(code);
     }
 
     /**
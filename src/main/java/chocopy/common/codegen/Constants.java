@@ -84,6 +84,12 @@ public class Constants {
      * @return the label for the string value
      */
     public int maxCharAscii = 0;
+
+    /** Notes that strings may hold any byte, as the ones read by input() do. */
+    public void allowAnyChar() {
+        maxCharAscii = 255;
+    }
+
     public Label getStrConstant(String value) {
         if (strConstants.containsKey(value)) {
             return strConstants.get(value);
@@ -100,6 +106,15 @@ public class Constants {
         }
     }
 
+    /**
+     * Returns the hash of the string VALUE, as streql computes it into attribute __hash__: h = 31 * h
+     * + c over the characters, with 0, which stands for a hash not computed yet, replaced by 1.
+     */
+    public static int strHash(String value) {
+        int hash = value.hashCode();
+        return hash != 0 ? hash : 1;
+    }
+
     /**
      * Converts a constant literal in the AST to a constant for code generation.
      *
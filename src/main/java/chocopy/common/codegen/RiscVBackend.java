@@ -1,15 +1,18 @@
 package chocopy.common.codegen;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
-
-/** RISC-V assembly-language generation utilities. */
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RISC-V assembly-language generation utilities.
+ *
+ * <p>The code emitted is kept as a list of lines, each instruction with its operation and operands
+ * apart, and only formatted as text when written out, so that subclasses may watch or rewrite it.
+ */
 public class RiscVBackend {
-    /** Accumulator for assembly code output. */
-    protected final StringWriter asmText = new StringWriter();
-
-    /** Allows print, println, and printf of assembly code. */
-    private final PrintWriter out = new PrintWriter(asmText);
+    /** The lines of assembly code emitted so far. */
+    protected final List<Line> lines = new ArrayList<>();
 
     /** The word size in bytes for RISC-V 32-bit. */
     protected static final int WORD_SIZE = 4;
@@ -51,12 +54,8 @@ public class RiscVBackend {
         /** The name of the register used in assembly. */
         protected final String name;
 
-        /** the value is not assigned at that time **/
-        public boolean isValueTrivial;
-
         /** This register's code representation is NAME. */
         Register(String name) {
-            isValueTrivial = false;
             this.name = name;
         }
 
@@ -66,11 +65,128 @@ public class RiscVBackend {
         }
     }
 
-    public static Register[] TempRegs = {Register.T0, Register.T1, Register.T2, Register.T3, Register.T4, Register.T5, Register.T6};
+    /** The number of instructions emitted so far that assign each register, by ordinal. */
+    private final int[] writes = new int[Register.values().length];
+
+    /** Returns the number of instructions emitted so far that assign REG. */
+    public int getWrites(Register reg) {
+        return writes[reg.ordinal()];
+    }
+
+    /**
+     * A line of assembly code: an instruction or directive, a local label, a one-line comment, or
+     * verbatim text.
+     */
+    public static class Line {
+        /** The local label placed, or null. */
+        public final Label label;
+        /** The operation of the instruction or directive, or null. */
+        public String op;
+        /** The operands of the instruction or directive, or null. */
+        public String[] operands;
+        /** The one-line comment, or null. */
+        public final String comment;
+        /** The verbatim text, or null. */
+        public final String text;
+
+        /** An instruction or directive OP OPERANDS, with one-line comment COMMENT (null if missing). */
+        public Line(String op, String[] operands, String comment) {
+            this(null, op, operands, comment, null);
+        }
+
+        private Line(Label label, String op, String[] operands, String comment, String text) {
+            this.label = label;
+            this.op = op;
+            this.operands = operands;
+            this.comment = comment;
+            this.text = text;
+        }
+
+        /** True if this line is an instruction or directive. */
+        public boolean isInsn() {
+            return op != null;
+        }
+
+        /** True if this line is a directive. */
+        public boolean isDirective() {
+            return op != null && op.startsWith(".");
+        }
+
+        /** Replaces the instruction with OP OPERANDS. */
+        public void set(String op, String... operands) {
+            this.op = op;
+            this.operands = operands;
+        }
+
+        /** Returns the instruction or directive, without its comment. */
+        public String getInsn() {
+            return operands.length == 0 ? op : op + " " + String.join(", ", operands);
+        }
+
+        /** Appends this line, followed by a newline, to OUT. */
+        void render(Appendable out) throws IOException {
+            if (text != null) {
+                out.append(text);
+            } else if (label != null) {
+                out.append(label.toString()).append(':');
+                if (comment != null) {
+                    pad(out, label.toString().length() + 1, 42);
+                    out.append(" # ").append(comment);
+                }
+            } else if (op != null) {
+                out.append("  ");
+                String insn = getInsn();
+                out.append(insn);
+                if (comment != null) {
+                    pad(out, insn.length(), 40);
+                    out.append(" # ").append(comment);
+                }
+            } else {
+                out.append("# ").append(comment);
+            }
+            out.append('\n');
+        }
+
+        /** Appends to OUT the spaces taking a text of LENGTH characters to WIDTH. */
+        private static void pad(Appendable out, int length, int width) throws IOException {
+            for (int i = length; i < width; i++) {
+                out.append(' ');
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            try {
+                render(text);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return text.substring(0, text.length() - 1);
+        }
+    }
 
     @Override
     public String toString() {
-        return asmText.toString();
+        StringBuilder text = new StringBuilder();
+        try {
+            writeTo(text);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return text.toString();
+    }
+
+    /** Writes the assembly code emitted to OUT, formatting it as text. */
+    public void writeTo(Appendable out) throws IOException {
+        for (Line line : getLines()) {
+            line.render(out);
+        }
+    }
+
+    /** Returns the lines of assembly code emitted, as they are written out. */
+    public List<Line> getLines() {
+        return lines;
     }
 
     /**
@@ -80,9 +196,9 @@ public class RiscVBackend {
      */
     public void defineSym(String name, String value) {
         if (name.startsWith("@")) {
-            emitInsn(String.format(".equiv %s, %s", name, value), null);
+            emitOp(".equiv", null, name, value);
         } else {
-            emitInsn(String.format(".equiv @%s, %s", name, value), null);
+            emitOp(".equiv", null, "@" + name, value);
         }
     }
 
@@ -106,7 +222,29 @@ public class RiscVBackend {
 
     /** Emits the text STR to the output stream verbatim. STR should have no trailing newline. */
     protected void emit(String str) {
-        out.println(str);
+        emitLine(new Line(null, null, null, null, str));
+    }
+
+    /** Adds LINE to the code emitted. Every line of code is emitted through this method. */
+    protected void emitLine(Line line) {
+        lines.add(line);
+    }
+
+    /**
+     * Emits instruction or directive OP with OPERANDS, along with COMMENT as a one-line comment, if
+     * non-null.
+     */
+    protected void emitOp(String op, String comment, Object... operands) {
+        String[] texts = new String[operands.length];
+        for (int i = 0; i < operands.length; i++) {
+            texts[i] = operands[i].toString();
+        }
+        emitLine(new Line(op, texts, comment));
+    }
+
+    /** Returns the memory operand at offset IMM from the address in RS. */
+    protected static String offset(Object imm, Register rs) {
+        return imm + "(" + rs + ")";
     }
 
     /**
@@ -114,7 +252,7 @@ public class RiscVBackend {
      */
     public void emitComment(String comment) {
         if (comment != null) {
-            emit(String.format("# %s", comment));
+            emitLine(new Line(null, null, null, comment, null));
         }
     }
 
@@ -123,16 +261,22 @@ public class RiscVBackend {
      * Emits instruction or directive INSN along with COMMENT as a one-line comment, if non-null.
      */
     public void emitInsn(String insn, String comment) {
-        if (comment != null) {
-            emit(String.format("  %-40s # %s", insn, comment));
+        String[] parts = insn.trim().split("\\s+", 2);
+        String[] operands;
+        if (parts.length == 1) {
+            operands = new String[0];
+        } else if (parts[0].startsWith(".")) {
+            // the operands of a directive may be strings containing commas
+            operands = new String[] {parts[1]};
         } else {
-            emitInsn(insn);
+            operands = parts[1].split(",\\s*");
         }
+        emitLine(new Line(parts[0], operands, comment));
     }
 
     /** Emits instruction or directive INSN without a comment. */
     protected void emitInsn(String insn) {
-        emit(String.format("  %s", insn));
+        emitInsn(insn, null);
     }
 
     /**
@@ -140,17 +284,13 @@ public class RiscVBackend {
      * only once per unique label.
      */
     public void emitLocalLabel(Label label, String comment) {
-        if (comment != null) {
-            emit(String.format("%-42s # %s", label + ":", comment));
-        } else {
-            emit(String.format("%s:", label + ":"));
-        }
+        emitLine(new Line(label, null, null, comment, null));
     }
 
     /** Emits a global label marker for LABEL. Invoke only once per unique label. */
     public void emitGlobalLabel(Label label) {
-        emit(String.format("\n.globl %s", label));
-        emit(String.format("%s:", label));
+        emit("\n.globl " + label);
+        emit(label + ":");
     }
 
     /**
@@ -158,7 +298,7 @@ public class RiscVBackend {
      * comment, if non-null.
      */
     public void emitWordLiteral(Integer value, String comment) {
-        emitInsn(String.format(".word %s", value), comment);
+        emitOp(".word", comment, value);
     }
 
     /**
@@ -169,7 +309,7 @@ public class RiscVBackend {
         if (addr == null) {
             emitWordLiteral(0, comment);
         } else {
-            emitInsn(String.format(".word %s", addr), comment);
+            emitOp(".word", comment, addr);
         }
     }
 
@@ -183,7 +323,7 @@ public class RiscVBackend {
                         .replace("\n", "\\n")
                         .replace("\t", "\\t")
                         .replace("\"", "\\\"");
-        emitInsn(String.format(".string \"%s\"", quoted), comment);
+        emitOp(".string", comment, "\"" + quoted + "\"");
     }
 
     /** Marks the start of a data section. */
@@ -198,12 +338,12 @@ public class RiscVBackend {
 
     /** Aligns the next instruction/word in memory to a multiple of 2**POW bytes. */
     public void alignNext(int pow) {
-        emitInsn(String.format(".align %d", pow));
+        emitOp(".align", null, pow);
     }
 
     /** Emits an ecall instruction, with one-line comment COMMENT, if non-null. */
     public void emitEcall(String comment) {
-        emitInsn("ecall", comment);
+        emitOp("ecall", comment);
     }
 
     /**
@@ -211,8 +351,8 @@ public class RiscVBackend {
      * one-line comment (null if missing).
      */
     public void emitLA(Register rd, Label label, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("la %s, %s", rd, label), comment);
+        writes[rd.ordinal()]++;
+        emitOp("la", comment, rd, label);
     }
 
     /**
@@ -220,8 +360,8 @@ public class RiscVBackend {
      * (null if missing).
      */
     public void emitLI(Register rd, Integer imm, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("li %s, %d", rd, imm), comment);
+        writes[rd.ordinal()]++;
+        emitOp("li", comment, rd, imm);
     }
 
     /**
@@ -229,8 +369,8 @@ public class RiscVBackend {
      * IMM < 2**20. COMMENT is an optional one-line comment (null if missing).
      */
     public void emitLUI(Register rd, Integer imm, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("lui %s, %d", rd, imm), comment);
+        writes[rd.ordinal()]++;
+        emitOp("lui", comment, rd, imm);
     }
 
     /**
@@ -238,8 +378,8 @@ public class RiscVBackend {
      * comment (null if missing).
      */
     public void emitMV(Register rd, Register rs, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("mv %s, %s", rd, rs), comment);
+        writes[rd.ordinal()]++;
+        emitOp("mv", comment, rd, rs);
     }
 
     /**
@@ -247,7 +387,7 @@ public class RiscVBackend {
      * optional one-line comment (null if missing).
      */
     public void emitJR(Register rs, String comment) {
-        emitInsn(String.format("jr %s", rs), comment);
+        emitOp("jr", comment, rs);
     }
 
     /**
@@ -255,7 +395,7 @@ public class RiscVBackend {
      * comment (null if missing).
      */
     public void emitJ(Label label, String comment) {
-        emitInsn(String.format("j %s", label), comment);
+        emitOp("j", comment, label);
     }
 
     /**
@@ -263,7 +403,7 @@ public class RiscVBackend {
      * missing).
      */
     public void emitJAL(Label label, String comment) {
-        emitInsn(String.format("jal %s", label), comment);
+        emitOp("jal", comment, label);
     }
 
     /**
@@ -271,7 +411,7 @@ public class RiscVBackend {
      * one-line comment (null if missing).
      */
     public void emitJALR(Register rs, String comment) {
-        emitInsn(String.format("jalr %s", rs), comment);
+        emitOp("jalr", comment, rs);
     }
 
     /**
@@ -279,8 +419,8 @@ public class RiscVBackend {
      * COMMENT is an optional one-line comment (null if missing).
      */
     public void emitADDI(Register rd, Register rs, Integer imm, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("addi %s, %s, %d", rd, rs, imm), comment);
+        writes[rd.ordinal()]++;
+        emitOp("addi", comment, rd, rs, imm);
     }
 
     /**
@@ -290,8 +430,8 @@ public class RiscVBackend {
      * if missing).
      */
     public void emitADDI(Register rd, Register rs, String imm, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("addi %s, %s, %s", rd, rs, imm), comment);
+        writes[rd.ordinal()]++;
+        emitOp("addi", comment, rd, rs, imm);
     }
 
     /**
@@ -299,8 +439,8 @@ public class RiscVBackend {
      * comment (null if missing).
      */
     public void emitADD(Register rd, Register rs1, Register rs2, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("add %s, %s, %s", rd, rs1, rs2), comment);
+        writes[rd.ordinal()]++;
+        emitOp("add", comment, rd, rs1, rs2);
     }
 
     /**
@@ -308,8 +448,8 @@ public class RiscVBackend {
      * one-line comment (null if missing).
      */
     public void emitSUB(Register rd, Register rs1, Register rs2, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("sub %s, %s, %s", rd, rs1, rs2), comment);
+        writes[rd.ordinal()]++;
+        emitOp("sub", comment, rd, rs1, rs2);
     }
 
     /**
@@ -317,8 +457,8 @@ public class RiscVBackend {
      * one-line comment (null if missing).
      */
     public void emitMUL(Register rd, Register rs1, Register rs2, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("mul %s, %s, %s", rd, rs1, rs2), comment);
+        writes[rd.ordinal()]++;
+        emitOp("mul", comment, rd, rs1, rs2);
     }
 
     /**
@@ -327,8 +467,8 @@ public class RiscVBackend {
      * -2**31. COMMENT is an optional one-line comment (null if missing).
      */
     public void emitDIV(Register rd, Register rs1, Register rs2, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("div %s, %s, %s", rd, rs1, rs2), comment);
+        writes[rd.ordinal()]++;
+        emitOp("div", comment, rd, rs1, rs2);
     }
 
     /**
@@ -337,8 +477,8 @@ public class RiscVBackend {
      * missing).
      */
     public void emitREM(Register rd, Register rs1, Register rs2, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("rem %s, %s, %s", rd, rs1, rs2), comment);
+        writes[rd.ordinal()]++;
+        emitOp("rem", comment, rd, rs1, rs2);
     }
 
     /**
@@ -346,8 +486,8 @@ public class RiscVBackend {
      * missing).
      */
     public void emitXOR(Register rd, Register rs1, Register rs2, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("xor %s, %s, %s", rd, rs1, rs2), comment);
+        writes[rd.ordinal()]++;
+        emitOp("xor", comment, rd, rs1, rs2);
     }
 
     /**
@@ -355,8 +495,8 @@ public class RiscVBackend {
      * optional one-line comment (null if missing).
      */
     public void emitXORI(Register rd, Register rs, Integer imm, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("xori %s, %s, %d", rd, rs, imm), comment);
+        writes[rd.ordinal()]++;
+        emitOp("xori", comment, rd, rs, imm);
     }
 
     /**
@@ -364,8 +504,8 @@ public class RiscVBackend {
      * (null if missing).
      */
     public void emitAND(Register rd, Register rs1, Register rs2, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("and %s, %s, %s", rd, rs1, rs2), comment);
+        writes[rd.ordinal()]++;
+        emitOp("and", comment, rd, rs1, rs2);
     }
 
     /**
@@ -373,8 +513,8 @@ public class RiscVBackend {
      * is an optional one-line comment (null if missing).
      */
     public void emitANDI(Register rd, Register rs, Integer imm, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("andi %s, %s, %d", rd, rs, imm), comment);
+        writes[rd.ordinal()]++;
+        emitOp("andi", comment, rd, rs, imm);
     }
 
     /**
@@ -382,8 +522,8 @@ public class RiscVBackend {
      * if missing).
      */
     public void emitOR(Register rd, Register rs1, Register rs2, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("or %s, %s, %s", rd, rs1, rs2), comment);
+        writes[rd.ordinal()]++;
+        emitOp("or", comment, rd, rs1, rs2);
     }
 
     /**
@@ -391,8 +531,8 @@ public class RiscVBackend {
      * is an optional one-line comment (null if missing).
      */
     public void emitORI(Register rd, Register rs, Integer imm, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("ori %s, %s, %d", rd, rs, imm), comment);
+        writes[rd.ordinal()]++;
+        emitOp("ori", comment, rd, rs, imm);
     }
 
     /**
@@ -400,8 +540,8 @@ public class RiscVBackend {
      * one-line comment (null if missing).
      */
     public void emitSLL(Register rd, Register rs1, Register rs2, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("sll %s, %s, %s", rd, rs1, rs2), comment);
+        writes[rd.ordinal()]++;
+        emitOp("sll", comment, rd, rs1, rs2);
     }
 
     /**
@@ -409,8 +549,8 @@ public class RiscVBackend {
      * one-line comment (null if missing).
      */
     public void emitSLLI(Register rd, Register rs, Integer imm, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("slli %s, %s, %d", rd, rs, imm), comment);
+        writes[rd.ordinal()]++;
+        emitOp("slli", comment, rd, rs, imm);
     }
 
     /**
@@ -418,8 +558,8 @@ public class RiscVBackend {
      * one-line comment (null if missing).
      */
     public void emitSRL(Register rd, Register rs1, Register rs2, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("srl %s, %s, %s", rd, rs1, rs2), comment);
+        writes[rd.ordinal()]++;
+        emitOp("srl", comment, rd, rs1, rs2);
     }
 
     /**
@@ -427,8 +567,8 @@ public class RiscVBackend {
      * one-line comment (null if missing).
      */
     public void emitSRLI(Register rd, Register rs, Integer imm, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("srli %s, %s, %d", rd, rs, imm), comment);
+        writes[rd.ordinal()]++;
+        emitOp("srli", comment, rd, rs, imm);
     }
 
     /**
@@ -436,8 +576,8 @@ public class RiscVBackend {
      * one-line comment (null if missing).
      */
     public void emitSRA(Register rd, Register rs1, Register rs2, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("sra %s, %s, %s", rd, rs1, rs2), comment);
+        writes[rd.ordinal()]++;
+        emitOp("sra", comment, rd, rs1, rs2);
     }
 
     /**
@@ -445,8 +585,8 @@ public class RiscVBackend {
      * one-line comment (null if missing).
      */
     public void emitSRAI(Register rd, Register rs, Integer imm, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("srai %s, %s, %d", rd, rs, imm), comment);
+        writes[rd.ordinal()]++;
+        emitOp("srai", comment, rd, rs, imm);
     }
 
     /**
@@ -454,8 +594,8 @@ public class RiscVBackend {
      * an optional one-line comment (null if missing).
      */
     public void emitLW(Register rd, Register rs, Integer imm, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("lw %s, %d(%s)", rd, imm, rs), comment);
+        writes[rd.ordinal()]++;
+        emitOp("lw", comment, rd, offset(imm, rs));
     }
 
     /**
@@ -464,8 +604,8 @@ public class RiscVBackend {
      * if missing).
      */
     public void emitLW(Register rd, Register rs, String imm, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("lw %s, %s(%s)", rd, imm, rs), comment);
+        writes[rd.ordinal()]++;
+        emitOp("lw", comment, rd, offset(imm, rs));
     }
 
     /**
@@ -474,8 +614,8 @@ public class RiscVBackend {
      * if missing).
      */
     public void emitLW(Register rd, Label label, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("lw %s, %s", rd, label), comment);
+        writes[rd.ordinal()]++;
+        emitOp("lw", comment, rd, label);
     }
 
     /**
@@ -483,7 +623,7 @@ public class RiscVBackend {
      * is an optional one-line comment (null if missing).
      */
     public void emitSW(Register rs2, Register rs1, Integer imm, String comment) {
-        emitInsn(String.format("sw %s, %d(%s)", rs2, imm, rs1), comment);
+        emitOp("sw", comment, rs2, offset(imm, rs1));
     }
 
     /**
@@ -492,7 +632,7 @@ public class RiscVBackend {
      * (null if missing).
      */
     public void emitSW(Register rs2, Register rs1, String imm, String comment) {
-        emitInsn(String.format("sw %s, %s(%s)", rs2, imm, rs1), comment);
+        emitOp("sw", comment, rs2, offset(imm, rs1));
     }
 
     /**
@@ -500,7 +640,7 @@ public class RiscVBackend {
      * register. COMMENT is an optional one-line comment (null if missing).
      */
     public void emitSW(Register rs, Label label, Register tmp, String comment) {
-        emitInsn(String.format("sw %s, %s, %s", rs, label, tmp), comment);
+        emitOp("sw", comment, rs, label, tmp);
     }
 
     /**
@@ -508,8 +648,8 @@ public class RiscVBackend {
      * extends the byte loaded. COMMENT is an optional one-line comment (null if missing).
      */
     public void emitLB(Register rd, Register rs, Integer imm, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("lb %s, %d(%s)", rd, imm, rs), comment);
+        writes[rd.ordinal()]++;
+        emitOp("lb", comment, rd, offset(imm, rs));
     }
 
     /**
@@ -517,13 +657,13 @@ public class RiscVBackend {
      * Zero-extends the byte loaded. COMMENT is an optional one-line comment (null if missing).
      */
     public void emitLBU(Register rd, Register rs, Integer imm, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("lbu %s, %d(%s)", rd, imm, rs), comment);
+        writes[rd.ordinal()]++;
+        emitOp("lbu", comment, rd, offset(imm, rs));
     }
 
     public void emitLBU(Register rd, Register rs, String offset, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("lbu %s, %s(%s)", rd, offset, rs), comment);
+        writes[rd.ordinal()]++;
+        emitOp("lbu", comment, rd, offset(offset, rs));
     }
 
     /**
@@ -532,7 +672,7 @@ public class RiscVBackend {
      * missing).
      */
     public void emitSB(Register rs2, Register rs1, Integer imm, String comment) {
-        emitInsn(String.format("sb %s, %d(%s)", rs2, imm, rs1), comment);
+        emitOp("sb", comment, rs2, offset(imm, rs1));
     }
 
     /**
@@ -540,7 +680,7 @@ public class RiscVBackend {
      * one-line comment (null if missing).
      */
     public void emitBEQ(Register rs1, Register rs2, Label label, String comment) {
-        emitInsn(String.format("beq %s, %s, %s", rs1, rs2, label), comment);
+        emitOp("beq", comment, rs1, rs2, label);
     }
 
     /**
@@ -548,7 +688,7 @@ public class RiscVBackend {
      * one-line comment (null if missing).
      */
     public void emitBNE(Register rs1, Register rs2, Label label, String comment) {
-        emitInsn(String.format("bne %s, %s, %s", rs1, rs2, label), comment);
+        emitOp("bne", comment, rs1, rs2, label);
     }
 
     /**
@@ -556,7 +696,7 @@ public class RiscVBackend {
      * an optional one-line comment (null if missing).
      */
     public void emitBGE(Register rs1, Register rs2, Label label, String comment) {
-        emitInsn(String.format("bge %s, %s, %s", rs1, rs2, label), comment);
+        emitOp("bge", comment, rs1, rs2, label);
     }
 
     /**
@@ -564,7 +704,7 @@ public class RiscVBackend {
      * is an optional one-line comment (null if missing).
      */
     public void emitBGEU(Register rs1, Register rs2, Label label, String comment) {
-        emitInsn(String.format("bgeu %s, %s, %s", rs1, rs2, label), comment);
+        emitOp("bgeu", comment, rs1, rs2, label);
     }
 
     /**
@@ -572,7 +712,7 @@ public class RiscVBackend {
      * optional one-line comment (null if missing).
      */
     public void emitBLT(Register rs1, Register rs2, Label label, String comment) {
-        emitInsn(String.format("blt %s, %s, %s", rs1, rs2, label), comment);
+        emitOp("blt", comment, rs1, rs2, label);
     }
 
     /**
@@ -580,7 +720,7 @@ public class RiscVBackend {
      * optional one-line comment (null if missing).
      */
     public void emitBLTU(Register rs1, Register rs2, Label label, String comment) {
-        emitInsn(String.format("bltu %s, %s, %s", rs1, rs2, label), comment);
+        emitOp("bltu", comment, rs1, rs2, label);
     }
 
     /**
@@ -588,7 +728,7 @@ public class RiscVBackend {
      * comment (null if missing).
      */
     public void emitBEQZ(Register rs, Label label, String comment) {
-        emitInsn(String.format("beqz %s, %s", rs, label), comment);
+        emitOp("beqz", comment, rs, label);
     }
 
     /**
@@ -596,7 +736,7 @@ public class RiscVBackend {
      * one-line comment (null if missing).
      */
     public void emitBNEZ(Register rs, Label label, String comment) {
-        emitInsn(String.format("bnez %s, %s", rs, label), comment);
+        emitOp("bnez", comment, rs, label);
     }
 
     /**
@@ -604,7 +744,7 @@ public class RiscVBackend {
      * one-line comment (null if missing).
      */
     public void emitBLTZ(Register rs, Label label, String comment) {
-        emitInsn(String.format("bltz %s, %s", rs, label), comment);
+        emitOp("bltz", comment, rs, label);
     }
 
     /**
@@ -612,7 +752,7 @@ public class RiscVBackend {
      * one-line comment (null if missing).
      */
     public void emitBGTZ(Register rs, Label label, String comment) {
-        emitInsn(String.format("bgtz %s, %s", rs, label), comment);
+        emitOp("bgtz", comment, rs, label);
     }
 
     /**
@@ -620,7 +760,7 @@ public class RiscVBackend {
      * optional one-line comment (null if missing).
      */
     public void emitBLEZ(Register rs, Label label, String comment) {
-        emitInsn(String.format("blez %s, %s", rs, label), comment);
+        emitOp("blez", comment, rs, label);
     }
 
     /**
@@ -628,7 +768,7 @@ public class RiscVBackend {
      * an optional one-line comment (null if missing).
      */
     public void emitBGEZ(Register rs, Label label, String comment) {
-        emitInsn(String.format("bgez %s, %s", rs, label), comment);
+        emitOp("bgez", comment, rs, label);
     }
 
     /**
@@ -636,8 +776,8 @@ public class RiscVBackend {
      * one-line comment (null if missing).
      */
     public void emitSLT(Register rd, Register rs1, Register rs2, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("slt %s, %s, %s", rd, rs1, rs2), comment);
+        writes[rd.ordinal()]++;
+        emitOp("slt", comment, rd, rs1, rs2);
     }
 
     /**
@@ -645,8 +785,8 @@ public class RiscVBackend {
      * comment (null if missing).
      */
     public void emitSEQZ(Register rd, Register rs, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("seqz %s, %s", rd, rs), comment);
+        writes[rd.ordinal()]++;
+        emitOp("seqz", comment, rd, rs);
     }
 
     /**
@@ -654,7 +794,7 @@ public class RiscVBackend {
      * one-line comment (null if missing).
      */
     public void emitSNEZ(Register rd, Register rs, String comment) {
-        rd.isValueTrivial = false;
-        emitInsn(String.format("snez %s, %s", rd, rs), comment);
+        writes[rd.ordinal()]++;
+        emitOp("snez", comment, rd, rs);
     }
 }
@@ -3,13 +3,53 @@ package chocopy.pa1;
 import chocopy.common.astnodes.Program;
 import java_cup.runtime.ComplexSymbolFactory;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /** Interface between driver and parser. */
 public class StudentParser {
+    /** Size in bytes of the buffer the streaming entry points read the source through. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
     /** Returns PROGRAM resulting from parsing INPUT. Turn on parser debugging iff DEBUG. */
     public static Program process(String input, boolean debug) {
-        ChocoPyLexer lexer = new ChocoPyLexer(new StringReader(input));
+        return process(new StringReader(input), debug);
+    }
+
+    /**
+     * Returns PROGRAM resulting from parsing the UTF-8 source file INPUT, read as the lexer goes
+     * rather than into a String first. Turn on parser debugging iff DEBUG.
+     */
+    public static Program process(Path input, boolean debug) throws IOException {
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            return process(channel, debug);
+        }
+    }
+
+    /**
+     * Returns PROGRAM resulting from parsing the UTF-8 source read from INPUT through a buffer of
+     * BUFFER_SIZE bytes, so that memory use does not grow with the source. Malformed input is
+     * decoded to U+FFFD, as when reading into a String. Turn on parser debugging iff DEBUG.
+     */
+    public static Program process(ReadableByteChannel input, boolean debug) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        return process(Channels.newReader(input, decoder, BUFFER_SIZE), debug);
+    }
+
+    /** Returns PROGRAM resulting from parsing the source read from INPUT. */
+    private static Program process(Reader input, boolean debug) {
+        ChocoPyLexer lexer = new ChocoPyLexer(input);
         ChocoPyParser parser = new ChocoPyParser(lexer, new ComplexSymbolFactory());
         return parser.parseProgram(debug);
     }
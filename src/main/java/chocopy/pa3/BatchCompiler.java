@@ -0,0 +1,227 @@
+package chocopy.pa3;
+
+import chocopy.common.astnodes.CompilerError;
+import chocopy.common.astnodes.Program;
+import chocopy.common.codegen.CodeGenBase;
+import chocopy.pa1.StudentParser;
+import chocopy.pa2.StudentAnalysis;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Compiles many ChocoPy source files to RISC-V assembly at once, each through StudentParser,
+ * StudentAnalysis and StudentCodeGen, on a pool of worker threads. Compilations share no mutable
+ * state, so the files are compiled concurrently; the results come back in the order of the files.
+ *
+ * <p>Usage: BatchCompiler [-j THREADS] [--stress ROUNDS] [--debug] OUTDIR FILE.py...
+ *
+ * <p>Writes OUTDIR/FILE.py.s for each file that compiles, and reports the errors of the others,
+ * exiting with 1 if there are any. With --stress, first compiles the files ROUNDS more times
+ * concurrently and checks that every output is byte-identical to that of a serial compilation.
+ */
+public class BatchCompiler {
+
+    /** The outcome of compiling one file. */
+    public static class Result {
+        /** The source file. */
+        public final Path input;
+        /** The assembly code, or null if compilation failed. */
+        public final String assembly;
+        /** The syntax or semantic errors of the program, if any. */
+        public final List<CompilerError> errors;
+        /** What else compilation failed with, or null. */
+        public final Throwable failure;
+        /** The time compilation took, in nanoseconds. */
+        public final long nanos;
+
+        Result(Path input, String assembly, List<CompilerError> errors, Throwable failure,
+               long nanos) {
+            this.input = input;
+            this.assembly = assembly;
+            this.errors = errors;
+            this.failure = failure;
+            this.nanos = nanos;
+        }
+
+        /** True if INPUT compiled to ASSEMBLY. */
+        public boolean succeeded() {
+            return assembly != null;
+        }
+
+        /**
+         * Returns one line per error, as INPUT:LINE:COL: MESSAGE, then INPUT: FAILURE if
+         * compilation failed otherwise.
+         */
+        public String getErrorReport() {
+            StringBuilder report = new StringBuilder();
+            for (CompilerError error : errors) {
+                int[] location = error.getLocation();
+                report.append(String.format("%s:%d:%d: %s%n",
+                        input, location[0], location[1], error.message));
+            }
+            if (failure != null) {
+                report.append(String.format("%s: %s%n", input, failure));
+            }
+            return report.toString();
+        }
+    }
+
+    /** Compiles INPUTS on THREADS worker threads, returning their results in order. */
+    public static List<Result> compile(List<Path> inputs, int threads) throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Callable<Result>> tasks = new ArrayList<>();
+            for (Path input : inputs) {
+                tasks.add(() -> compile(input));
+            }
+            return invokeAll(pool, tasks);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Runs the compilations TASKS on POOL, returning their results in order. */
+    static List<Result> invokeAll(ForkJoinPool pool, List<Callable<Result>> tasks)
+            throws InterruptedException {
+        try {
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> result : pool.invokeAll(tasks)) {
+                results.add(result.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            // the compile methods catch what compilation throws
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Compiles INPUTS on one thread, then ROUNDS more times on THREADS worker threads, with every
+     * round in flight at once. Returns the inputs whose output in some round differs from the
+     * serial one.
+     */
+    public static Set<Path> stress(List<Path> inputs, int threads, int rounds)
+            throws InterruptedException {
+        List<Result> serial = compile(inputs, 1);
+        List<Path> repeated = new ArrayList<>();
+        for (int round = 0; round < rounds; round++) {
+            repeated.addAll(inputs);
+        }
+        List<Result> results = compile(repeated, threads);
+        Set<Path> differing = new LinkedHashSet<>();
+        for (int i = 0; i < results.size(); i++) {
+            Result expected = serial.get(i % inputs.size());
+            if (!Objects.equals(results.get(i).assembly, expected.assembly)) {
+                differing.add(expected.input);
+            }
+        }
+        return differing;
+    }
+
+    /** Compiles INPUT with the default heap size. */
+    public static Result compile(Path input) {
+        long start = System.nanoTime();
+        try {
+            return generate(input, StudentParser.process(input, false), start);
+        } catch (IOException | RuntimeException | Error e) {
+            return new Result(input, null, Collections.emptyList(), e, System.nanoTime() - start);
+        }
+    }
+
+    /** Compiles SOURCE, the contents of INPUT, with the default heap size. */
+    public static Result compile(Path input, String source) {
+        long start = System.nanoTime();
+        try {
+            return generate(input, StudentParser.process(source, false), start);
+        } catch (RuntimeException | Error e) {
+            return new Result(input, null, Collections.emptyList(), e, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Analyzes PARSED, the program in INPUT, and generates its code, for a compilation begun at
+     * START, as given by System.nanoTime().
+     */
+    private static Result generate(Path input, Program parsed, long start) {
+        Program program = StudentAnalysis.process(parsed, false);
+        if (program.hasErrors()) {
+            return new Result(input, null, program.getErrorList(), null, System.nanoTime() - start);
+        }
+        PeepholeBackend backend = new PeepholeBackend();
+        StudentCodeGen.generate(program, backend,
+                CodeGenBase.DEFAULT_HEAP_SIZE_BYTES, CodeGenBase.DEFAULT_HEAP_MAX_BYTES);
+        return new Result(input, backend.toString(), Collections.emptyList(), null,
+                System.nanoTime() - start);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int rounds = 0;
+        boolean debug = false;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i++) {
+            if (args[i].equals("-j") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--stress") && i + 1 < args.length) {
+                rounds = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--debug")) {
+                debug = true;
+            } else {
+                break;
+            }
+        }
+        if (args.length - i < 2) {
+            System.err.println(
+                    "Usage: BatchCompiler [-j THREADS] [--stress ROUNDS] [--debug] OUTDIR FILE.py...");
+            System.exit(2);
+        }
+        Path outDir = Paths.get(args[i]);
+        List<Path> inputs = new ArrayList<>();
+        for (i++; i < args.length; i++) {
+            inputs.add(Paths.get(args[i]));
+        }
+
+        if (rounds > 0) {
+            Set<Path> differing = stress(inputs, threads, rounds);
+            for (Path input : differing) {
+                System.err.printf("%s: output differs between serial and concurrent compilation%n",
+                        input);
+            }
+            System.out.printf("Stress: %d of %d files compiled identically in %d rounds on %d "
+                    + "threads.%n", inputs.size() - differing.size(), inputs.size(), rounds, threads);
+            if (!differing.isEmpty()) {
+                System.exit(1);
+            }
+        }
+
+        int failed = 0;
+        for (Result result : compile(inputs, threads)) {
+            if (result.succeeded()) {
+                Path output = outDir.resolve(result.input.getFileName() + ".s");
+                Files.write(output, result.assembly.getBytes(StandardCharsets.UTF_8));
+                continue;
+            }
+            failed++;
+            System.err.print(result.getErrorReport());
+            if (debug && result.failure != null) {
+                result.failure.printStackTrace();
+            }
+        }
+        System.out.printf("Compiled %d of %d files.%n", inputs.size() - failed, inputs.size());
+        System.exit(failed > 0 ? 1 : 0);
+    }
+}
@@ -0,0 +1,51 @@
+package chocopy.pa3;
+
+import chocopy.common.codegen.ClassInfo;
+import chocopy.common.codegen.FuncInfo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class hierarchy analysis: finds the method calls that always dispatch to the same method.
+ *
+ * <p>A call of a method on an object of static class C goes to the method at the same index of the
+ * dispatch table of the dynamic class of the object, C or a subclass of C. If no subclass
+ * overrides the method C has there, every call goes to it, and can jump to it directly.
+ */
+public class ClassHierarchy {
+    /** The direct subclasses of each class. */
+    private final Map<ClassInfo, List<ClassInfo>> subclasses = new HashMap<>();
+
+    /** The hierarchy of CLASSES, which must include the superclasses of each. */
+    public ClassHierarchy(List<ClassInfo> classes) {
+        for (ClassInfo classInfo : classes) {
+            subclasses.computeIfAbsent(classInfo, c -> new ArrayList<>());
+            if (classInfo.getSuperClassInfo() != null) {
+                subclasses.computeIfAbsent(classInfo.getSuperClassInfo(), c -> new ArrayList<>()).add(classInfo);
+            }
+        }
+    }
+
+    /**
+     * Returns the method every call of method NAME on an object of static class CLASSINFO
+     * dispatches to, or null if a subclass overrides it.
+     */
+    public FuncInfo getTarget(ClassInfo classInfo, String name) {
+        int index = classInfo.getMethodIndex(name);
+        FuncInfo method = classInfo.methods.get(index);
+        return isInherited(classInfo, index, method) ? method : null;
+    }
+
+    /** True if all the subclasses of CLASSINFO have METHOD at INDEX of their dispatch tables. */
+    private boolean isInherited(ClassInfo classInfo, int index, FuncInfo method) {
+        for (ClassInfo subclass : subclasses.getOrDefault(classInfo, new ArrayList<>())) {
+            if (subclass.methods.get(index) != method || !isInherited(subclass, index, method)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -5,10 +5,22 @@ import chocopy.common.analysis.SymbolTable;
 import chocopy.common.astnodes.*;
 import chocopy.common.codegen.*;
 import chocopy.common.analysis.types.*;
+import chocopy.pa3.ir.CheckElimination;
+import chocopy.pa3.ir.ConstantPropagation;
+import chocopy.pa3.ir.IrEmitter;
+import chocopy.pa3.ir.IrFunction;
+import chocopy.pa3.ir.IrLowering;
+import chocopy.pa3.ir.Ssa;
 
 import static chocopy.common.Utils.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
 import static chocopy.common.codegen.RiscVBackend.Register.*;
@@ -44,27 +56,138 @@ public class CodeGenImpl extends CodeGenBase {
     public final Label makeint = new Label("makeint");
     /** construct list */
     public final Label conslist = new Label("conslist");
-    /** initialize one-char strings */
-    public final Label initchars = new Label("initchars");
-    /** interning one-char string for all chars (ascii 0-255) */
+    /** concatenate lists */
+    public final Label concat = new Label("concat");
+    /** identity conversion of list elements */
+    public final Label noconv = new Label("noconv");
+    /** append to a list in place */
+    public final Label listappend = new Label("listappend");
+    /** extend a list in place */
+    public final Label listextend = new Label("listextend");
+    /** interning one-char string for all chars (ascii 0 to maxCharAscii) */
     public final Label allChars = new Label("allChars");
+    /** preallocated ints (INT_CACHE_MIN to INT_CACHE_MAX), returned by makeint */
+    public final Label allInts = new Label("allInts");
+    /** the smallest int boxed without allocating */
+    public static final int INT_CACHE_MIN = -128;
+    /** the largest int boxed without allocating */
+    public static final int INT_CACHE_MAX = 1023;
     /** string concatenation **/
     public final Label strcat = new Label("strcat");
     /** string `==` **/
     public final Label streql = new Label("streql");
     /** string `!=` **/
     public final Label strneql = new Label("strneql");
+    /** the routines returning a new object, never None **/
+    public final Set<Label> nonNullRoutines = new HashSet<>(Arrays.asList(
+            makebool, makeint, conslist, concat, strcat, listappend, listextend));
+
+    /** the assignments growing a list in place **/
+    private Set<AssignStmt> inPlaceGrowths = new HashSet<>();
+
+    /** the class hierarchy, to call methods never overridden directly **/
+    private ClassHierarchy hierarchy;
 
     /** the branch label used for indexExpr **/
     public int indexlabelCnt = 0;
 
-    /** when there is not index to string, avoid interning to save cost **/
+    /** when there is not index to string, omit the interning table to save space **/
     public boolean requireInitChar = false;
 
     public Constants getConstants(){
         return constants;
     }
 
+    /** Returns the class hierarchy of the program. */
+    public ClassHierarchy getClassHierarchy() {
+        return hierarchy;
+    }
+
+    /** Returns the symbol table of the global scope. */
+    public SymbolTable<SymbolInfo> getGlobalSymbols() {
+        return globalSymbols;
+    }
+
+    /**
+     * Returns the routine concat converts the elements of a list of static type FROM with, for a
+     * list of static type TO: ints and bools are boxed into lists of objects, and only there.
+     */
+    public Label listConversion(Type from, Type to) {
+        if (!(from instanceof ListValueType) || !(to instanceof ListValueType)
+                || !Type.OBJECT_TYPE.equals(((ListValueType) to).elementType)) {
+            return noconv;
+        }
+        Type element = ((ListValueType) from).elementType;
+        if (Type.INT_TYPE.equals(element)) {
+            return makeint;
+        } else if (Type.BOOL_TYPE.equals(element)) {
+            return makebool;
+        }
+        return noconv;
+    }
+
+    /**
+     * True if STMT, of the form `x = x + [e]` or `x = x + y`, may grow the list in `x` in place, as
+     * found by UnaliasedLists.
+     */
+    public boolean growsInPlace(AssignStmt stmt) {
+        return inPlaceGrowths.contains(stmt);
+    }
+
+    /**
+     * Emits to BACKEND the boxing of the int in SRC into A0, without calling makeint unless the heap is full:
+     * ints from INT_CACHE_MIN to INT_CACHE_MAX are taken from allInts, and others are allocated by
+     * bumping GP. Uses A1 and A2, so SRC must not be one of A0-A2. Callers save their registers
+     * as around a call, for the slow path.
+     */
+    public void emitBoxInt(RiscVBackend backend, RiscVBackend.Register src, String comment) {
+        Label allocate = generateLocalLabel();
+        Label slowPath = generateLocalLabel();
+        Label done = generateLocalLabel();
+        backend.emitADDI(A1, src, -INT_CACHE_MIN, comment);
+        backend.emitLI(A2, INT_CACHE_MAX - INT_CACHE_MIN + 1, "Number of preallocated ints");
+        backend.emitBGEU(A1, A2, allocate, "Allocate ints not preallocated");
+        backend.emitSLLI(A1, A1, 4, "Offset of the int in allInts");
+        backend.emitLA(A0, allInts, "Address of the first preallocated int");
+        backend.emitADD(A0, A0, A1, "Address of the preallocated int");
+        backend.emitJ(done, null);
+        backend.emitLocalLabel(allocate, null);
+        int size = (intClass.attributes.size() + HEADER_SIZE) * wordSize;
+        backend.emitADDI(A1, GP, size, "Estimate where GP will move");
+        backend.emitBGEU(A1, S11, slowPath, "Let makeint collect if the heap is full");
+        backend.emitMV(A0, GP, "The new int");
+        backend.emitLI(A2, intClass.getTypeTag(), "Type tag for class: int");
+        backend.emitSW(A2, A0, 0, null);
+        backend.emitLI(A2, intClass.attributes.size() + HEADER_SIZE, "Object size");
+        backend.emitSW(A2, A0, "@.__obj_size__", null);
+        backend.emitLA(A2, intClass.getDispatchTableLabel(), "Pointer to dispatch table");
+        backend.emitSW(A2, A0, 2 * wordSize, null);
+        backend.emitSW(src, A0, "@.__int__", "Set attribute: __int__");
+        backend.emitMV(GP, A1, "Set next free slot in the heap");
+        backend.emitJ(done, null);
+        backend.emitLocalLabel(slowPath, null);
+        backend.emitMV(A0, src, "Move to $a0 for boxing");
+        backend.emitJAL(makeint, "Box integer");
+        backend.emitLocalLabel(done, "Boxed integer in $a0");
+    }
+
+    /**
+     * Emits to BACKEND the boxing of the bool in SRC into DST, one of the two preallocated bools,
+     * using TMP.
+     */
+    public void emitBoxBool(RiscVBackend backend, RiscVBackend.Register dst,
+                            RiscVBackend.Register src, RiscVBackend.Register tmp, String comment) {
+        backend.emitSLLI(tmp, src, 4, comment);
+        backend.emitLA(dst, constants.getBoolConstant(false), "Address of False");
+        backend.emitADD(dst, dst, tmp, "Address of the bool");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Label generateLocalLabel() {
+        return super.generateLocalLabel();
+    }
+
 
     /**
      * Emits the top level of the program.
@@ -77,18 +200,16 @@ public class CodeGenImpl extends CodeGenBase {
      * @param statements top level statements
      */
     protected void emitTopLevel(List<Stmt> statements) {
-        StmtAnalyzer stmtAnalyzer = new StmtAnalyzer(this, null);
+        hierarchy = new ClassHierarchy(classes);
+        inPlaceGrowths = UnaliasedLists.find(this, statements, functions);
+        RegisterAllocator regAlloc = planRegisters(null, statements);
+        StmtAnalyzer stmtAnalyzer = new StmtAnalyzer(this, null, backend, regAlloc);
         backend.emitADDI(
                 SP, SP, -2 * backend.getWordSize(), "Saved FP and saved RA (unused at top level).");
         backend.emitSW(ZERO, SP, 0, "Top saved FP is 0.");
         backend.emitSW(ZERO, SP, backend.getWordSize(), "Top saved RA is 0.");
         backend.emitADDI(FP, SP, 2 * backend.getWordSize(), "Set FP to previous SP.");
 
-        backend.emitInsn(String.format("li %s, %s", T0, "@requireInitChar"), "Check whether we need interning");
-        backend.emitBEQZ(T0, new Label("noinitchar"), "If no indexExpr of string, omit");
-        backend.emitJAL(initchars, "Initialize one-character strings.");
-        backend.emitLocalLabel(new Label("noinitchar"), "Jump here if no initchars");
-
         for (Stmt stmt : statements) {
             stmt.dispatch(stmtAnalyzer);
         }
@@ -97,6 +218,31 @@ public class CodeGenImpl extends CodeGenBase {
         backend.emitEcall(null);
     }
 
+    /**
+     * Returns the register assignment for the temporaries of STATEMENTS, the body of FUNCINFO
+     * (null for the top level).
+     *
+     * <p>The body is generated once into a scratch backend, only to record the live intervals of
+     * its temporaries, which are then assigned registers by linear scan.
+     */
+    private RegisterAllocator planRegisters(FuncInfo funcInfo, List<Stmt> statements) {
+        RegisterAllocator regAlloc = new RegisterAllocator();
+        StmtAnalyzer planner = new StmtAnalyzer(this, funcInfo, regAlloc.getPlanningBackend(), regAlloc);
+        for (Stmt stmt : statements) {
+            stmt.dispatch(planner);
+        }
+        regAlloc.allocate();
+        return regAlloc;
+    }
+
+    /**
+     * Returns the size in words of the frame of FUNCINFO below its FP: the saved RA and FP, the
+     * locals and the callee-saved registers used by REGALLOC.
+     */
+    private int getFrameSize(FuncInfo funcInfo, RegisterAllocator regAlloc) {
+        return 2 + funcInfo.getLocals().size() + regAlloc.getCalleeSaved().size();
+    }
+
     /**
      * Emits the code for a function described by FUNCINFO.
      *
@@ -104,8 +250,28 @@ public class CodeGenImpl extends CodeGenBase {
      * stage, nested functions are emitted as separate functions of their own. So if function `bar`
      * is nested within function `foo`, you only emit `foo`'s code for `foo` and only emit `bar`'s
      * code for `bar`.
+     *
+     * <p>Bodies the IR covers are lowered to it, optimized in SSA form and emitted from it; the
+     * others are generated from the AST directly.
      */
     protected void emitUserDefinedFunction(FuncInfo funcInfo) {
+        IrFunction ir = IrLowering.lower(this, funcInfo);
+        if (ir != null) {
+            Ssa ssa = new Ssa(ir);
+            ssa.construct();
+            ConstantPropagation.run(ir);
+            CheckElimination.run(ir, nonNullRoutines);
+            ssa.destruct();
+            ir.bypassEmptyBlocks();
+            ir.removeDeadCode();
+            new IrEmitter(this, backend, ir).emit();
+            return;
+        }
+
+        RegisterAllocator regAlloc = planRegisters(funcInfo, funcInfo.getStatements());
+        List<RiscVBackend.Register> calleeSaved = regAlloc.getCalleeSaved();
+        int savedRegOffset = -(3 + funcInfo.getLocals().size()) * backend.getWordSize();
+
         backend.emitGlobalLabel(funcInfo.getCodeLabel());
         // store the states before we start analyzing the body of the function
         backend.emitADDI(
@@ -115,7 +281,8 @@ public class CodeGenImpl extends CodeGenBase {
         backend.emitADDI(FP, SP, 2 * backend.getWordSize(), "Set FP to previous SP.");
 
         backend.emitADDI(
-                SP, SP, -funcInfo.getLocals().size() * backend.getWordSize(), "Move $sp for locals.");
+                SP, SP, -(getFrameSize(funcInfo, regAlloc) - 2) * backend.getWordSize(),
+                "Move $sp for locals and saved registers.");
 
         // Initialize local variables in memory
         for (StackVarInfo svi : funcInfo.getLocals()) {
@@ -135,7 +302,13 @@ public class CodeGenImpl extends CodeGenBase {
             }
             backend.emitSW(A0, FP, -(funcInfo.getVarIndex(svi.getVarName()) + 1) * backend.getWordSize(), "local variable");
         }
-        StmtAnalyzer stmtAnalyzer = new StmtAnalyzer(this, funcInfo);
+
+        // Save the callee-saved registers holding temporaries, below the locals
+        for (int i = 0; i < calleeSaved.size(); i++) {
+            backend.emitSW(calleeSaved.get(i), FP, savedRegOffset - i * backend.getWordSize(),
+                    "Save " + calleeSaved.get(i));
+        }
+        StmtAnalyzer stmtAnalyzer = new StmtAnalyzer(this, funcInfo, backend, regAlloc);
 
         backend.emitGlobalLabel(funcInfo.getCodeStartLabel());
         for (Stmt stmt : funcInfo.getStatements()) {
@@ -146,14 +319,14 @@ public class CodeGenImpl extends CodeGenBase {
 
         backend.emitLocalLabel(stmtAnalyzer.epilogue, "Epilogue");
         // Implement epilogue
+        for (int i = 0; i < calleeSaved.size(); i++) {
+            backend.emitLW(calleeSaved.get(i), FP, savedRegOffset - i * backend.getWordSize(),
+                    "Restore " + calleeSaved.get(i));
+        }
         backend.emitLW(RA, FP, -2 * backend.getWordSize(), "Get return address");
-        backend.emitLW(FP, FP, -1 * backend.getWordSize(), "Use control link to restore caller's fp");
-        backend.emitADDI(
-                        SP, SP, 
-                        2 * backend.getWordSize() + 
-                        funcInfo.getLocals().size() * backend.getWordSize(), 
-                        "Recover SP."
-        );
+        // SP is recovered from FP, so a return may leave temporaries on the stack
+        backend.emitMV(SP, FP, "Recover SP.");
+        backend.emitLW(FP, SP, -1 * backend.getWordSize(), "Use control link to restore caller's fp");
         backend.emitJR(RA, "Return to caller");
     }
 
@@ -204,15 +377,38 @@ public class CodeGenImpl extends CodeGenBase {
         /** Trivial in normal function */
         public boolean isSelfConstant;
 
-        private int nextFreeTempReg = 0;
-        private int usedRegNum = 0;
+        /** The backend to emit to: the program's backend, or a scratch one while planning. */
+        private final RiscVBackend backend;
+
+        /** Register assignment for the temporaries of this body. */
+        private final RegisterAllocator regAlloc;
+
+        /** Temporaries currently in use, innermost on top. */
+        private final Stack<RegisterAllocator.Interval> liveRegs = new Stack<>();
+
+        /** For each live temporary that displaced an older one, whether it was trivial (not pushed). */
+        private final Stack<Boolean> regTrivialStk = new Stack<>();
 
-        Stack<Boolean> regTrivialStk = new Stack<Boolean>();
+        /** The registers pushed by each SaveBusyReg not yet matched by a LoadBusyReg. */
+        private final Stack<List<RiscVBackend.Register>> savedRegStk = new Stack<>();
 
-        /** An analyzer for the function described by FUNCINFO0, which is null for the top level. */
-        StmtAnalyzer(CodeGenImpl codegen0, FuncInfo funcInfo0) {
+        /**
+         * For each register handed out by getFreeReg, the backend's count of writes to it at that
+         * point: the register still holds a trivial value while the count has not moved.
+         */
+        private final Map<RiscVBackend.Register, Integer> trivialSince =
+                new EnumMap<>(RiscVBackend.Register.class);
+
+        /**
+         * An analyzer for the function described by FUNCINFO0, which is null for the top level,
+         * emitting to BACKEND0. While REGALLOC0 is planning, temporaries are only recorded.
+         */
+        StmtAnalyzer(CodeGenImpl codegen0, FuncInfo funcInfo0,
+                     RiscVBackend backend0, RegisterAllocator regAlloc0) {
             codegen = codegen0;
             funcInfo = funcInfo0;
+            backend = backend0;
+            regAlloc = regAlloc0;
             isSelfConstant = true;
             if (funcInfo == null) {
                 sym = globalSymbols;
@@ -223,116 +419,149 @@ public class CodeGenImpl extends CodeGenBase {
         }
 
         public RiscVBackend.Register getFreeReg() {
-            int retRegIdx = nextFreeTempReg;
-            usedRegNum += 1;
-            nextFreeTempReg = (nextFreeTempReg + 1) % 7; // 7 temp reg. in all
-
-            // if register used up, pick LRU register in a ring buffer policy
-            if (usedRegNum > 7) {
-                // push returned reg on stack (because it has been occupied)
-                if (!backend.TempRegs[retRegIdx].isValueTrivial)
+            RegisterAllocator.Interval interval = regAlloc.open();
+            RiscVBackend.Register reg = interval.getRegister();
+            liveRegs.push(interval);
+            if (regAlloc.isPlanning()) {
+                return reg;
+            }
+
+            // the register still holds the value of an older temporary: push it on stack
+            if (interval.getDisplaced() != null) {
+                boolean isTrivial = isValueTrivial(reg);
+                if (!isTrivial)
                 {
                     backend.emitADDI(
                             SP, SP, -1 * backend.getWordSize(), "Push one argument (move $sp first).");
-                    backend.emitSW(backend.TempRegs[retRegIdx], SP, 0, 
-                        "Push argument (getfreereg): " + backend.TempRegs[retRegIdx]);
+                    backend.emitSW(reg, SP, 0, "Push argument (getfreereg): " + reg);
                 }
-
-
-                // regisiter value is trivial initially
-                regTrivialStk.push(backend.TempRegs[retRegIdx].isValueTrivial);
-
-                backend.TempRegs[retRegIdx].isValueTrivial = true;
-                return backend.TempRegs[retRegIdx];
+                regTrivialStk.push(isTrivial);
             }
 
+            // regisiter value is trivial initially
+            trivialSince.put(reg, backend.getWrites(reg));
+            return reg;
+        }
 
-            backend.TempRegs[retRegIdx].isValueTrivial = true;
-            return backend.TempRegs[retRegIdx];
+        /** True if no code assigning REG was emitted since getFreeReg last handed it out. */
+        private boolean isValueTrivial(RiscVBackend.Register reg) {
+            Integer writes = trivialSince.get(reg);
+            return writes != null && writes == backend.getWrites(reg);
         }
 
         public RiscVBackend.Register getReturnReg(Expr expr) {
             // Top-level statement does not have return register
-            if (usedRegNum == 0 || expr.noreturn)
+            if (liveRegs.isEmpty() || expr.noreturn)
             {
-                // System.out.println("[StmtAnalyzer] Fail to get return register!");
                 return ZERO;
             }
-            int retRegIdx = nextFreeTempReg - 1;
-            if (retRegIdx < 0)
-            {
-                retRegIdx = 6;
-            }
 
-            return backend.TempRegs[retRegIdx];
+            return liveRegs.peek().getRegister();
         }
 
         public Void SaveBusyReg() {
-            if (nextFreeTempReg == 0)
+            if (regAlloc.isPlanning()) {
+                regAlloc.call();
+                return null;
+            }
+
+            // S1-S9 are preserved by the callee, and values dead after the call need no saving
+            List<RiscVBackend.Register> busy = new ArrayList<>();
+            for (int i = liveRegs.size() - 1; i >= 0; i--) {
+                RegisterAllocator.Interval interval = liveRegs.get(i);
+                RiscVBackend.Register reg = interval.getRegister();
+                if (interval.crossesCall() && !RegisterAllocator.isCalleeSaved(reg)
+                        && !busy.contains(reg) && !isDisplaced(i)) {
+                    busy.add(reg);
+                }
+            }
+            savedRegStk.push(busy);
+            if (busy.isEmpty())
             {
                 return null;
             }
             backend.emitADDI(
-                        SP, SP, -nextFreeTempReg * backend.getWordSize(), "Push registers before function call.");
+                        SP, SP, -busy.size() * backend.getWordSize(), "Push registers before function call.");
 
-            for (int i = 0; i < nextFreeTempReg; i++)
+            for (int i = 0; i < busy.size(); i++)
             {
-                backend.emitSW(backend.TempRegs[i], SP, i * backend.getWordSize(), "Save " + backend.TempRegs[i]);
+                backend.emitSW(busy.get(i), SP, i * backend.getWordSize(), "Save " + busy.get(i));
             }
 
             return null;
         }
 
         public Void LoadBusyReg() {
-            if (nextFreeTempReg == 0)
+            if (regAlloc.isPlanning()) {
+                return null;
+            }
+
+            List<RiscVBackend.Register> busy = savedRegStk.pop();
+            if (busy.isEmpty())
             {
                 return null;
             }
-            for (int i = 0; i < nextFreeTempReg; i++)
+            for (int i = 0; i < busy.size(); i++)
             {
-                backend.emitLW(backend.TempRegs[i], SP, i * backend.getWordSize(), "Load " + backend.TempRegs[i]);
+                backend.emitLW(busy.get(i), SP, i * backend.getWordSize(), "Load " + busy.get(i));
             }
             backend.emitADDI(
-                        SP, SP, nextFreeTempReg * backend.getWordSize(), "Pop registers after function call.");
-            
+                        SP, SP, busy.size() * backend.getWordSize(), "Pop registers after function call.");
+
             return null;
         }
 
-        public Void FreeReg(int cnt) {
-            if (usedRegNum == 0) {
-                System.out.println("[StmtAnalyzer] Illegal free reg. No reg. in used!");
-                return null;
+        /** True if the register of the I-th live temporary has been taken over by a later one. */
+        private boolean isDisplaced(int i) {
+            for (int j = i + 1; j < liveRegs.size(); j++) {
+                if (liveRegs.get(j).getDisplaced() == liveRegs.get(i)) {
+                    return true;
+                }
             }
+            return false;
+        }
+
+        /** True if some live temporary is spilled to the stack. */
+        private boolean hasSpilledRegs() {
+            for (RegisterAllocator.Interval interval : liveRegs) {
+                if (interval.getDisplaced() != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public Void FreeReg(int cnt) {
             for (int i = 0; i < cnt; i++)
             {
-                nextFreeTempReg = nextFreeTempReg - 1;
-                if (nextFreeTempReg < 0)
-                {
-                    nextFreeTempReg = 6;
+                if (liveRegs.isEmpty()) {
+                    System.out.println("[StmtAnalyzer] Illegal free reg. No reg. in used!");
+                    return null;
+                }
+                RegisterAllocator.Interval interval = liveRegs.pop();
+                if (regAlloc.isPlanning()) {
+                    regAlloc.close();
+                    continue;
                 }
-                usedRegNum -= 1;
-                if (usedRegNum > 6) {
+                if (interval.getDisplaced() != null) {
                     boolean isTrivial = regTrivialStk.pop();
                     if (!isTrivial)
                     {
-                        backend.emitLW(backend.TempRegs[nextFreeTempReg], SP, 0, "Pop one argument(free reg.).");
+                        backend.emitLW(interval.getRegister(), SP, 0, "Pop one argument(free reg.).");
                         backend.emitADDI(
                                 SP, SP, 1 * backend.getWordSize(), "Pop one argument (move $sp).");
                     }
-
                 }
             }
             return null;
         }
 
-        public Void ForceFreeAllReg()
-        {
-            if (usedRegNum > 0)
-            {
-                backend.emitADDI(
-                            SP, SP, usedRegNum * backend.getWordSize(), "Pop all register.");
+        /** Drops the spilled temporaries of enclosing loops before jumping back to the start of the body. */
+        private void emitPopSpilledRegs() {
+            if (hasSpilledRegs()) {
+                backend.emitADDI(SP, FP, -getFrameSize(funcInfo, regAlloc) * backend.getWordSize(),
+                        "Pop spilled registers.");
             }
-            return null;
         }
 
         @Override
@@ -382,24 +611,30 @@ public class CodeGenImpl extends CodeGenBase {
 
             backend.emitLocalLabel(notNoneLabel, "Not None");
 
-            RiscVBackend.Register funcReg = getFreeReg();
             int methodIndex = objClassInfo.getMethodIndex(expr.method.member.name);
             String funcName = expr.method.member.name;
 
-            // follow the dispatch table
-            backend.emitLW(funcReg, objReg, 8, "Get dispatch table of " + objType);
-            backend.emitLW(funcReg, funcReg,
-                    methodIndex * backend.getWordSize(),
-                    "Get class method: " + objType + "." + funcName
-            );
-            // Remark: 8 bytes is the offset for the dispatch table
-
-            SaveBusyReg(); // save for function call
+            // optimization: a method no subclass overrides is called directly
+            FuncInfo directTarget = hierarchy.getTarget(objClassInfo, funcName);
+            RiscVBackend.Register funcReg = null;
+            if (directTarget == null)
+            {
+                funcReg = getFreeReg();
+                // follow the dispatch table
+                backend.emitLW(funcReg, objReg, 8, "Get dispatch table of " + objType);
+                backend.emitLW(funcReg, funcReg,
+                        methodIndex * backend.getWordSize(),
+                        "Get class method: " + objType + "." + funcName
+                );
+                // Remark: 8 bytes is the offset for the dispatch table
+            }
 
             FuncInfo callfuncInfo = (FuncInfo) objClassInfo.methods.get(methodIndex);
 
             RiscVBackend.Register valReg = getFreeReg();
 
+            SaveBusyReg(); // save for function call
+
             if (callfuncInfo == null)
             {
                 System.out.println(objType.className() + "." + funcName);
@@ -462,16 +697,20 @@ public class CodeGenImpl extends CodeGenBase {
                 backend.emitSW(valReg, SP, idx * backend.getWordSize(), String.format("Push argument %s from last", idx));
             }
 
-            FreeReg(1); // free valReg
-
             // Move SP to the last argument
-            backend.emitJALR(funcReg, "Invoke function: "+funcName);
+            if (directTarget == null)
+            {
+                backend.emitJALR(funcReg, "Invoke function: "+funcName);
+            } else {
+                backend.emitJAL(directTarget.getCodeLabel(), "Invoke method: " + directTarget.getFuncName());
+            }
             backend.emitADDI(SP, SP, stackSize * backend.getWordSize(), "Pop arguments for func.");
             LoadBusyReg();
+            FreeReg(1); // free valReg
 
             backend.emitMV(retReg, A0, "Move returned value.");
 
-            FreeReg(2); // free objReg, valReg
+            FreeReg(directTarget == null ? 2 : 1); // free objReg, funcReg
 
             return null;
         }
@@ -483,7 +722,9 @@ public class CodeGenImpl extends CodeGenBase {
             RiscVBackend.Register initReg = getFreeReg();
 
             backend.emitLA(A0, clsinfo.getPrototypeLabel(), "Load pointer to prototype of: " + clsinfo.getClassName());
+            SaveBusyReg();
             backend.emitJAL(new Label("alloc"), "Allocate new object in A0");
+            LoadBusyReg();
             backend.emitMV(retReg, A0, "Move returned value to target register");
 
             backend.emitLW(A1, A0, 8, "Load address of object's dispatch table");
@@ -492,6 +733,8 @@ public class CodeGenImpl extends CodeGenBase {
             
             int stackSize = expr.args.size() + 1; // stack size in words
 
+            RiscVBackend.Register valReg = getFreeReg();
+
             // push registers before pushing arguments
             SaveBusyReg();
 
@@ -502,21 +745,18 @@ public class CodeGenImpl extends CodeGenBase {
             backend.emitSW(A0, SP, 0, String.format("Push argument self from last"));
 
             // push arguments
-            RiscVBackend.Register valReg = getFreeReg();
             for (Expr arg: expr.args){
                 arg.dispatch(this);
                 int idx =  expr.args.indexOf(arg) + 1;
 
                 backend.emitSW(valReg, SP, idx * backend.getWordSize(), String.format("Push argument %s", idx));
             }
-            FreeReg(1); // free ValReg
-
             // Call the method
             backend.emitJALR(initReg, "Invoke method: "  + clsinfo.getClassName() + ".__init__");
             backend.emitADDI(SP, SP, stackSize * backend.getWordSize(), "Pop arguments for func.");
             
             LoadBusyReg();
-            FreeReg(1); // free initReg
+            FreeReg(2); // free valReg, initReg
             
             return null;
         }
@@ -656,7 +896,7 @@ public class CodeGenImpl extends CodeGenBase {
                 backend.emitLW(indexReg, indexReg, 0, "Get list element");
                 backend.emitMV(retReg, indexReg, "Move returned value to " + retReg);
             } else if (expr.list.getInferredType().equals(Type.STR_TYPE)){
-                requireInitChar = true; // require interning initialization when indexing to str
+                requireInitChar = true; // require the interning table when indexing to str
 
                 // check whether index is in bound
                 backend.emitLW(tmpReg, listReg, "@.__len__","Load attribute: __len__");
@@ -664,14 +904,14 @@ public class CodeGenImpl extends CodeGenBase {
                 backend.emitJ(errorOob, "Go to error handler");
                 backend.emitLocalLabel(oobCheckLabel, "If listindex is not OOB, go ahead");
 
-                backend.emitADDI(indexReg, indexReg, "@.__elts__", "Convert index to offset to char in bytes");
+                backend.emitADDI(indexReg, indexReg, "@.__str__", "Convert index to offset to char in bytes");
                 backend.emitADD(indexReg, listReg, indexReg, "Get pointer to char");
                 backend.emitLBU(indexReg, indexReg, 0, "Load character");
 
                 backend.emitComment(
                     "Get one-char string from the interning table(allChars), compute the offset"
                 );
-                backend.emitLI(tmpReg, 20, "size of string, 5 words");
+                backend.emitLI(tmpReg, 24, "size of string, 6 words");
                 backend.emitMUL(indexReg, indexReg, tmpReg, "Multiply by size of string object");
                 backend.emitLA(retReg, allChars, "Index into first string in single-char table");
                 backend.emitADD(retReg, retReg, indexReg, "Offset to our char");
@@ -730,8 +970,8 @@ public class CodeGenImpl extends CodeGenBase {
         public Void analyzeFunctionCall(CallExpr expr){
             FuncInfo callfuncInfo = (FuncInfo) sym.get(expr.function.name);
             String funcName = expr.function.name;
-            SaveBusyReg();
             RiscVBackend.Register valReg = getFreeReg();
+            SaveBusyReg();
 
             if (callfuncInfo == null)
             {
@@ -791,12 +1031,11 @@ public class CodeGenImpl extends CodeGenBase {
                 backend.emitSW(valReg, SP, idx * backend.getWordSize(), String.format("Push argument %s from last", idx));
             }
 
-            FreeReg(1); // Free ValReg
-
             // Move SP to the last argument
             backend.emitJAL(callfuncInfo.getCodeLabel(), "Invoke function: "+funcName);
             backend.emitADDI(SP, SP, stackSize * backend.getWordSize(), "Pop arguments for func.");
             LoadBusyReg();
+            FreeReg(1); // Free ValReg
 
             backend.emitMV(getReturnReg(expr), A0, "Move returned value.");
 
@@ -806,6 +1045,10 @@ public class CodeGenImpl extends CodeGenBase {
         @Override
         public Void analyze(AssignStmt stmt)
         {
+            if (growsInPlace(stmt)) {
+                return analyzeGrowInPlace(stmt);
+            }
+
             Type assignValueType = stmt.value.getInferredType();
             RiscVBackend.Register valReg = getFreeReg();
             stmt.value.dispatch(this);
@@ -860,16 +1103,16 @@ public class CodeGenImpl extends CodeGenBase {
                     if (assignValueType.equals(Type.INT_TYPE))
                     {
                         // box int before assigned to object
-                        backend.emitMV(A0, valReg, "Move to $a0 for boxing");
-                        backend.emitJAL(makeint, "Box integer");
+                        SaveBusyReg();
+                        emitBoxInt(backend, valReg, "Box integer");
+                        LoadBusyReg();
                         backend.emitSW(
                             A0, tgtAddrReg, 0,
                             commentAssign
                         );
                     } else if (assignValueType.equals(Type.BOOL_TYPE)) {
                         // box bool before assigned to object
-                        backend.emitMV(A0, valReg, "Move to $a0 for boxing");
-                        backend.emitJAL(makebool, "Box bool");
+                        emitBoxBool(backend, A0, valReg, A1, "Box bool");
                         backend.emitSW(
                             A0, tgtAddrReg, 0,
                             commentAssign
@@ -893,6 +1136,56 @@ public class CodeGenImpl extends CodeGenBase {
             return null;
         }
 
+        /**
+         * Emits `x = x + [e]` or `x = x + y` growing the list in `x` in place, with listappend or
+         * listextend, which return the list, moved when it had no room left.
+         */
+        public Void analyzeGrowInPlace(AssignStmt stmt)
+        {
+            BinaryExpr value = (BinaryExpr) stmt.value;
+            Expr target = stmt.targets.get(0);
+            Type elemType = ((ListValueType) target.getInferredType()).elementType;
+            boolean isAppend = value.right instanceof ListExpr
+                && ((ListExpr) value.right).elements.size() == 1;
+            Expr added = isAppend ? ((ListExpr) value.right).elements.get(0) : value.right;
+
+            RiscVBackend.Register listReg = getFreeReg();
+            value.left.dispatch(this);
+            RiscVBackend.Register addedReg = getFreeReg();
+            added.dispatch(this);
+
+            SaveBusyReg();
+            backend.emitADDI(SP, SP, -2 * backend.getWordSize(), "Push args. for list growth.");
+            backend.emitSW(listReg, SP, 0, "Push list.");
+            if (isAppend && elemType.equals(Type.OBJECT_TYPE)
+                && (added.getInferredType().equals(Type.INT_TYPE) || added.getInferredType().equals(Type.BOOL_TYPE))) {
+                // box ints and bools appended to a list of objects
+                if (added.getInferredType().equals(Type.INT_TYPE)) {
+                    emitBoxInt(backend, addedReg, "Box integer");
+                } else {
+                    emitBoxBool(backend, A0, addedReg, A1, "Box bool");
+                }
+                backend.emitSW(A0, SP, backend.getWordSize(), "Push element.");
+            } else {
+                backend.emitSW(addedReg, SP, backend.getWordSize(), isAppend ? "Push element." : "Push list appended.");
+            }
+            backend.emitJAL(isAppend ? listappend : listextend, "Grow list in place.");
+            backend.emitADDI(SP, SP, 2 * backend.getWordSize(), "Pop args. for list growth.");
+            LoadBusyReg();
+            backend.emitMV(listReg, A0, "Move grown list to " + listReg);
+
+            RiscVBackend.Register tgtAddrReg = getFreeReg();
+            if (target instanceof Identifier) {
+                analyzeIDAddr((Identifier) target);
+            } else {
+                analyzeMemberExprAddr((MemberExpr) target);
+            }
+            backend.emitSW(listReg, tgtAddrReg, 0, "Assign grown list");
+
+            FreeReg(3);
+            return null;
+        }
+
         @Override
         public Void analyze(ListExpr listexpr)
         {
@@ -906,12 +1199,26 @@ public class CodeGenImpl extends CodeGenBase {
                 "Push list elements"
             );
 
+            // `[]` has no elements to box
+            Type elemType = listexpr.getInferredType() instanceof ListValueType
+                ? ((ListValueType) listexpr.getInferredType()).elementType : Type.EMPTY_TYPE;
             for (Expr e: listexpr.elements)
             {
                 idx++;
                 e.dispatch(this);
+                RiscVBackend.Register elemReg = retReg;
+                if (elemType.equals(Type.OBJECT_TYPE)) {
+                    // box ints and bools of a list of objects
+                    if (e.getInferredType().equals(Type.INT_TYPE)) {
+                        emitBoxInt(backend, retReg, "Box integer");
+                        elemReg = A0;
+                    } else if (e.getInferredType().equals(Type.BOOL_TYPE)) {
+                        emitBoxBool(backend, A0, retReg, A1, "Box bool");
+                        elemReg = A0;
+                    }
+                }
                 backend.emitSW(
-                    retReg, SP, idx * backend.getWordSize(),
+                    elemReg, SP, idx * backend.getWordSize(),
                     String.format("Push list element %d", idx)
                 );
             }
@@ -1149,11 +1456,9 @@ public class CodeGenImpl extends CodeGenBase {
                 backend.emitSW(A0, targetAddrReg, 0, String.format("Assign: ", forStmt.identifier.name));
                 FreeReg(1);
 
-                SaveBusyReg();
                 for (Stmt stmt: forStmt.body){
                     stmt.dispatch(this);
                 }
-                LoadBusyReg();
                 backend.emitJ(forLoopHeader, "Loop back to header");
                 backend.emitLocalLabel(forLoopFooter, "for-loop footer");
                 FreeReg(2);
@@ -1173,10 +1478,10 @@ public class CodeGenImpl extends CodeGenBase {
                 backend.emitMV(A1, str, "Load str address");
                 RiscVBackend.Register tmp = getFreeReg();
                 backend.emitADDI(tmp, idx, 1, "Increment index for next iteration");
-                backend.emitADDI(idx, idx, "@.__elts__", "Convert index to offset to char in bytes");
+                backend.emitADDI(idx, idx, "@.__str__", "Convert index to offset to char in bytes");
                 backend.emitADD(idx, A1, idx, "Get pointer to char");
                 backend.emitLBU(idx, idx, 0, "Load character");
-                backend.emitLI(A0, 20, "");
+                backend.emitLI(A0, 24, "");
                 backend.emitMUL(idx, idx, A0, "Multiply by size of string object");
                 backend.emitLA(A0, allChars, "Index into single-char table");
                 backend.emitADD(A0, A0, idx, "");
@@ -1186,11 +1491,9 @@ public class CodeGenImpl extends CodeGenBase {
                 backend.emitSW(A0, targetAddrReg, 0, String.format("Assign: ", forStmt.identifier.name));
                 backend.emitMV(idx, tmp, "Move back to idx");
                 FreeReg(2);
-                SaveBusyReg();
                 for (Stmt stmt: forStmt.body){
                     stmt.dispatch(this);
                 }
-                LoadBusyReg();
                 backend.emitJ(forLoopHeader, "Loop back to header");
                 backend.emitLocalLabel(forLoopFooter, "for-loop footer");
                 FreeReg(2);
@@ -1310,6 +1613,7 @@ public class CodeGenImpl extends CodeGenBase {
                     if (el.getInferredType() instanceof ListValueType)
                     {
                         // concatenate two lists
+                        SaveBusyReg();
                         backend.emitADDI(
                             SP, SP, -4 * backend.getWordSize(),
                             "Push args. for concat."
@@ -1318,18 +1622,21 @@ public class CodeGenImpl extends CodeGenBase {
                         backend.emitSW(erreg, SP, 0, "Push right list.");
 
                         // conversion for left list
-                        backend.emitLA(A0, new Label("noconv"), "Identity conversion");
+                        backend.emitLA(A0, listConversion(el.getInferredType(), expr.getInferredType()),
+                            "Left conversion");
                         backend.emitSW(A0, SP, 3 * backend.getWordSize(), "Push left conversion.");
 
                         // conversion for right list
-                        backend.emitLA(A0, new Label("noconv"), "Identity conversion");
+                        backend.emitLA(A0, listConversion(er.getInferredType(), expr.getInferredType()),
+                            "Right conversion");
                         backend.emitSW(A0, SP, 2 * backend.getWordSize(), "Push right conversion.");
 
-                        backend.emitJAL(new Label("concat"), "Call runtime concatenation routine.");
+                        backend.emitJAL(concat, "Call runtime concatenation routine.");
                         backend.emitADDI(
                             SP, SP, 4 * backend.getWordSize(),
                             "Pop args. for concat."
                         );
+                        LoadBusyReg();
 
                         backend.emitMV(retreg, A0, "Move concat list to returned reg.");
                     } else if (el.getInferredType().equals(Type.STR_TYPE)) {
@@ -1398,12 +1705,14 @@ public class CodeGenImpl extends CodeGenBase {
                 case "==":
                     if (el.getInferredType().equals(Type.STR_TYPE))
                     {
+                        SaveBusyReg();
                         backend.emitADDI(SP, SP, -2 * backend.getWordSize(), "Push arguments streql");
                         backend.emitSW(elreg, SP, 0, "Push LHS string");
                         backend.emitSW(erreg, SP, backend.getWordSize(), "Push RHS string");
                         backend.emitJAL(streql, "Call string == function");
-                        backend.emitMV(retreg, A0, "Move returned value back");
                         backend.emitADDI(SP, SP, 2 * backend.getWordSize(), "Pop arguments streql");
+                        LoadBusyReg();
+                        backend.emitMV(retreg, A0, "Move returned value back");
 
 
                     } else {
@@ -1415,12 +1724,14 @@ public class CodeGenImpl extends CodeGenBase {
                 case "!=":
                     if (el.getInferredType().equals(Type.STR_TYPE))
                     {
+                        SaveBusyReg();
                         backend.emitADDI(SP, SP, -2 * backend.getWordSize(), "Push arguments strneql");
                         backend.emitSW(elreg, SP, 0, "Push LHS string");
                         backend.emitSW(erreg, SP, backend.getWordSize(), "Push RHS string");
                         backend.emitJAL(strneql, "Call string != function");
-                        backend.emitMV(retreg, A0, "Move returned value back");
                         backend.emitADDI(SP, SP, 2* backend.getWordSize(), "Pop arguments strneql");
+                        LoadBusyReg();
+                        backend.emitMV(retreg, A0, "Move returned value back");
                     } else {
                         backend.emitXOR(erreg, elreg, erreg, "Operator !=");
                         backend.emitSNEZ(retreg, erreg, "Operator != (..contd)");
@@ -1569,7 +1880,6 @@ public class CodeGenImpl extends CodeGenBase {
             if (stmt.value == null) 
             {
                 FreeReg(1);
-                ForceFreeAllReg();
                 backend.emitJ(epilogue, "Jump to function epilogue");
                 return null;
             }
@@ -1610,7 +1920,7 @@ public class CodeGenImpl extends CodeGenBase {
                     }
 
                     FreeReg(1);
-                    ForceFreeAllReg();
+                    emitPopSpilledRegs();
 
                     backend.emitJ(funcInfo.getCodeStartLabel(), "Tail cail invoke self");
                     return null;
@@ -1624,11 +1934,10 @@ public class CodeGenImpl extends CodeGenBase {
                 String funcname = callexpr.method.member.name;
                 ClassValueType objType = (ClassValueType) callexpr.method.object.getInferredType();
                 ClassInfo objClassInfo = (ClassInfo) sym.get(objType.className());
-                int methodIndex = objClassInfo.getMethodIndex(funcname);
-                FuncInfo callfuncInfo = (FuncInfo) objClassInfo.methods.get(methodIndex);
+                FuncInfo callfuncInfo = hierarchy.getTarget(objClassInfo, funcname);
 
-                // is tail recursive call
-                if (callfuncInfo.getFuncName().equals(funcInfo.getFuncName()))
+                // is tail recursive call, which no subclass overrides
+                if (callfuncInfo == funcInfo)
                 {
                     // set obj
                     callexpr.method.object.dispatch(this);
@@ -1661,7 +1970,7 @@ public class CodeGenImpl extends CodeGenBase {
                     }
 
                     FreeReg(1);
-                    ForceFreeAllReg();
+                    emitPopSpilledRegs();
 
                     backend.emitJ(funcInfo.getCodeStartLabel(), "Tail cail invoke self");
                     return null;
@@ -1672,7 +1981,6 @@ public class CodeGenImpl extends CodeGenBase {
             stmt.value.dispatch(this);
             backend.emitMV(A0, valReg, "Load return value");
             FreeReg(1);
-            ForceFreeAllReg();
             backend.emitJ(epilogue, "Jump to function epilogue");
             return null;
         }
@@ -1696,15 +2004,17 @@ public class CodeGenImpl extends CodeGenBase {
      * to out-of-bounds error and abort");
      */
     protected void emitCustomCode() {
-        backend.defineSym("requireInitChar", requireInitChar ? 1 : 0);
-        backend.defineSym("maxCharAscii", constants.maxCharAscii);
+        backend.defineSym("int_cache_min", INT_CACHE_MIN);
+        backend.defineSym("int_cache_size", INT_CACHE_MAX - INT_CACHE_MIN + 1);
 
         emitStdFunc("makeint");
         emitStdFunc("makebool");
         emitStdFunc("conslist");
         emitStdFunc("concat");
         emitStdFunc("noconv");
-        emitStdFunc("initchars");
+        emitStdFunc("listappend");
+        emitStdFunc("listextend");
+        emitStdFunc("listgrow");
         emitStdFunc("strcat");
         emitStdFunc("streql");
         emitStdFunc("strneql");
@@ -1715,6 +2025,41 @@ public class CodeGenImpl extends CodeGenBase {
         emitErrorFunc(errorOob, "Index out of bounds", ERROR_OOB);
     }
 
+    /**
+     * {@inheritDoc} Then the preallocated ints of makeint, from INT_CACHE_MIN to INT_CACHE_MAX, and
+     * if strings are indexed, the one-character strings of allChars up to maxCharAscii.
+     */
+    @Override
+    protected void emitConstants() {
+        super.emitConstants();
+        // The tables are the same for every program, so they are rendered once per process.
+        if (requireInitChar) {
+            int maxChar = constants.maxCharAscii;
+            backend.emitGlobalLabel(allChars);
+            emitRendered(String.format("allChars %d %d", strClass.getTypeTag(), maxChar), table -> {
+                for (int ch = 0; ch <= maxChar; ch++) {
+                    table.emitWordLiteral(strClass.getTypeTag(), "Type tag for class: str");
+                    table.emitWordLiteral(HEADER_SIZE + 3, "Object size");
+                    table.emitWordAddress(strClass.getDispatchTableLabel(), "Pointer to dispatch table");
+                    table.emitWordLiteral(1, "Constant value of attribute: __len__");
+                    table.emitWordLiteral(
+                            Constants.strHash(String.valueOf((char) ch)), "Constant value of attribute: __hash__");
+                    table.emitWordLiteral(ch, "Constant value of attribute: __str__");
+                }
+            });
+        }
+        backend.emitGlobalLabel(allInts);
+        emitRendered(String.format("allInts %d", intClass.getTypeTag()), table -> {
+            for (int value = INT_CACHE_MIN; value <= INT_CACHE_MAX; value++) {
+                table.emitWordLiteral(intClass.getTypeTag(), "Type tag for class: int");
+                table.emitWordLiteral(intClass.attributes.size() + HEADER_SIZE, "Object size");
+                table.emitWordAddress(intClass.getDispatchTableLabel(), "Pointer to dispatch table");
+                table.emitWordLiteral(value, "Constant value of attribute: __int__");
+            }
+        });
+        alignObject();
+    }
+
     /** Emits an error routine labeled ERRLABEL that aborts with message MSG. */
     private void emitErrorFunc(Label errLabel, String msg, int errorCode) {
         backend.emitGlobalLabel(errLabel);
@@ -24,9 +24,11 @@ public class CodeGenStdFunc {
             backend.emitMV(A0, valReg, "Load arg");
             backend.emitJ(base.errorArg, "Go to error handler");
         } else if (etype.equals(Type.STR_TYPE) || etype instanceof ListValueType){
-            backend.emitMV(A0, valReg, "Load argument");
             analyzer.SaveBusyReg();
+            backend.emitADDI(SP, SP, -1 * backend.getWordSize(), "Push one argument (move $sp first).");
+            backend.emitSW(valReg, SP, 0, "Push argument 0.");
             backend.emitJAL(new Label("$len"), "Invoke function: len");
+            backend.emitADDI(SP, SP, 1 * backend.getWordSize(), "Pop one argument");
             analyzer.LoadBusyReg();
             backend.emitMV(r, A0, "Move result to the return register");
         } else {
@@ -39,12 +41,12 @@ public class CodeGenStdFunc {
 	    Expr e = expr.args.get(0);
 	    RiscVBackend.Register valReg = analyzer.getFreeReg();
 	    e.dispatch(analyzer);
+	    analyzer.SaveBusyReg();
 	    if (e.getInferredType().equals(Type.NONE_TYPE)){
 	        backend.emitMV(A0, valReg, "Load arg");
 	        backend.emitJ(base.errorArg, "Go to error handler");
 	    } else if (e.getInferredType().equals(Type.INT_TYPE)) {
-	        backend.emitMV(A0, valReg, "Move to $a0 for boxing");
-	        backend.emitJAL(base.makeint, "Box integer");
+	        base.emitBoxInt(backend, valReg, "Box integer");
 	        
 	        backend.emitADDI(
 	                SP, SP, -1 * backend.getWordSize(), "Push one argument (move $sp first).");
@@ -58,8 +60,7 @@ public class CodeGenStdFunc {
 	        backend.emitJAL(new Label("$print"), "Invoke function: print");
 			backend.emitADDI(SP, SP, 1 * backend.getWordSize(), "Pop one argument");
 		} else if (e.getInferredType().equals(Type.BOOL_TYPE)){
-	        backend.emitMV(A0, valReg, "Move to $a0 for boxing");
-	        backend.emitJAL(base.makebool, "Box boolean");
+	        base.emitBoxBool(backend, A0, valReg, A1, "Box boolean");
 	        backend.emitADDI(SP, SP, -1 * backend.getWordSize(), "Push one argument");
 	        backend.emitSW(A0, SP, 0, "Push argument 0");
 	        backend.emitJAL(new Label("$print"), "Invoke function: print");
@@ -74,13 +75,16 @@ public class CodeGenStdFunc {
 	        System.out.println("[CallExpr] `print` not support " + e.getInferredType());
 	    }
 
-	    
+	    analyzer.LoadBusyReg();
 	    analyzer.FreeReg(1);
 	}
 
 	public static void analyzeInput(RiscVBackend backend, CodeGenImpl base, CodeGenImpl.StmtAnalyzer analyzer, CallExpr expr) {
         RiscVBackend.Register retReg = analyzer.getReturnReg(expr);
+        base.getConstants().allowAnyChar();
+        analyzer.SaveBusyReg();
         backend.emitJAL(new Label("$input"), "Invoke function: input");
+        analyzer.LoadBusyReg();
         backend.emitMV(retReg, A0, "Move returned value to " + retReg);
     }
 
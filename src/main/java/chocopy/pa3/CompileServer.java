@@ -0,0 +1,266 @@
+package chocopy.pa3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A long-running compiler that reads batches of ChocoPy sources on standard input and answers
+ * with their assembly or errors on standard output, so that the JVM, its loaded classes and
+ * the JIT stay warm across requests. The sources of a batch are compiled concurrently, like
+ * those of BatchCompiler.
+ *
+ * <p>Usage: CompileServer [-j THREADS] [--warmup ROUNDS] [--max-source BYTES] [--debug]
+ *
+ * <p>Every frame is a header line, ended by LF, which may be followed by a payload of the number
+ * of UTF-8 bytes the header gives. A batch of requests is
+ *
+ * <pre>
+ *   compile COUNT
+ *   NAME LENGTH        then LENGTH bytes of source, COUNT times
+ * </pre>
+ *
+ * and its response is, for each source in order,
+ *
+ * <pre>
+ *   ok NAME MICROS LENGTH       then LENGTH bytes of assembly, or
+ *   error NAME MICROS LENGTH    then LENGTH bytes of errors, one per line
+ * </pre>
+ *
+ * followed by "done COUNT MICROS". MICROS is the time taken to compile the source or, for
+ * "done", the whole batch. NAME, which may contain spaces, is reported as the file name of
+ * errors. A "quit" line or the end of the input stops the server. A malformed frame is answered
+ * with "invalid MESSAGE", after which the server exits, since it has lost its place in the input.
+ * So is a source longer than --max-source bytes, 4 MiB by default, before it is read.
+ *
+ * <p>With --warmup, a built-in program is compiled ROUNDS times before the first request is read.
+ *
+ * <p>Only the protocol is written to standard output: whatever else the compiler prints there
+ * goes to standard error instead.
+ */
+public class CompileServer {
+
+    /** A small program exercising most of the compiler, compiled to warm up the JIT. */
+    private static final String WARMUP_SOURCE =
+            "class Counter(object):\n"
+            + "    n: int = 0\n"
+            + "    def inc(self: \"Counter\", by: int) -> int:\n"
+            + "        self.n = self.n + by\n"
+            + "        return self.n\n"
+            + "\n"
+            + "def total(xs: [int]) -> int:\n"
+            + "    t: int = 0\n"
+            + "    x: int = 0\n"
+            + "    for x in xs:\n"
+            + "        t = t + x\n"
+            + "    return t\n"
+            + "\n"
+            + "c: Counter = None\n"
+            + "s: str = \"warm\"\n"
+            + "c = Counter()\n"
+            + "while c.inc(1) < 10:\n"
+            + "    if c.n % 2 == 0 and not (s == \"\"):\n"
+            + "        s = s + s[0]\n"
+            + "print(total([1, 2, c.n]) + len(s))\n";
+
+    /** The default of --max-source. */
+    public static final int DEFAULT_MAX_SOURCE_BYTES = 4 << 20;
+
+    /** The pool compiling the sources of each batch. */
+    private final ForkJoinPool pool;
+    /** The length in bytes of the longest source accepted. */
+    private final int maxSourceBytes;
+    /** Print the stack trace of failed compilations iff true. */
+    private final boolean debug;
+
+    /**
+     * A server compiling on THREADS worker threads sources of at most MAXSOURCEBYTES bytes, with
+     * stack traces of failures iff DEBUG.
+     */
+    public CompileServer(int threads, int maxSourceBytes, boolean debug) {
+        this.pool = new ForkJoinPool(threads);
+        this.maxSourceBytes = maxSourceBytes;
+        this.debug = debug;
+    }
+
+    /** Compiles the built-in program ROUNDS times on the worker threads. */
+    public void warmUp(int rounds) throws InterruptedException {
+        Path name = Paths.get("warmup.py");
+        List<Callable<BatchCompiler.Result>> tasks = new ArrayList<>();
+        for (int i = 0; i < rounds; i++) {
+            tasks.add(() -> BatchCompiler.compile(name, WARMUP_SOURCE));
+        }
+        for (BatchCompiler.Result result : BatchCompiler.invokeAll(pool, tasks)) {
+            if (!result.succeeded()) {
+                System.err.print(result.getErrorReport());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Answers the batches read from IN on OUT, until "quit" or the end of IN. Throws
+     * IOException on a malformed frame, after answering it.
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException, InterruptedException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(in));
+        OutputStream output = new BufferedOutputStream(out);
+        try {
+            String header;
+            while ((header = readLine(input)) != null && !header.equals("quit")) {
+                if (header.isEmpty()) {
+                    continue;
+                }
+                if (!header.startsWith("compile ")) {
+                    throw new IOException("expected compile COUNT, got: " + header);
+                }
+                List<Callable<BatchCompiler.Result>> tasks = new ArrayList<>();
+                int count = parseCount(header.substring("compile ".length()));
+                for (int i = 0; i < count; i++) {
+                    tasks.add(readSource(input));
+                }
+
+                long start = System.nanoTime();
+                List<BatchCompiler.Result> results = BatchCompiler.invokeAll(pool, tasks);
+                long micros = (System.nanoTime() - start) / 1000;
+                for (BatchCompiler.Result result : results) {
+                    writeResult(output, result);
+                }
+                writeLine(output, String.format("done %d %d", count, micros));
+                output.flush();
+            }
+        } catch (IOException e) {
+            writeLine(output, "invalid " + e.getMessage());
+            throw e;
+        } finally {
+            output.flush();
+        }
+    }
+
+    /** Reads the header and source of one request from INPUT, returning its compilation. */
+    private Callable<BatchCompiler.Result> readSource(DataInputStream input) throws IOException {
+        String header = readLine(input);
+        if (header == null) {
+            throw new EOFException("end of input before source header");
+        }
+        int space = header.lastIndexOf(' ');
+        if (space <= 0) {
+            throw new IOException("expected NAME LENGTH, got: " + header);
+        }
+        Path name;
+        try {
+            name = Paths.get(header.substring(0, space));
+        } catch (InvalidPathException e) {
+            throw new IOException("bad source name: " + e.getMessage());
+        }
+        int length = parseCount(header.substring(space + 1));
+        if (length > maxSourceBytes) {
+            throw new IOException(String.format(
+                    "source %s has %d bytes, more than %d", name, length, maxSourceBytes));
+        }
+        byte[] bytes = new byte[length];
+        try {
+            input.readFully(bytes);
+        } catch (EOFException e) {
+            throw new EOFException("end of input in source " + name);
+        }
+        String source = new String(bytes, StandardCharsets.UTF_8);
+        return () -> BatchCompiler.compile(name, source);
+    }
+
+    /** Writes the response to the compilation RESULT to OUTPUT. */
+    private void writeResult(OutputStream output, BatchCompiler.Result result) throws IOException {
+        String kind = result.succeeded() ? "ok" : "error";
+        String payload = result.succeeded() ? result.assembly : result.getErrorReport();
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        writeLine(output, String.format("%s %s %d %d",
+                kind, result.input, result.nanos / 1000, bytes.length));
+        output.write(bytes);
+        if (debug && result.failure != null) {
+            result.failure.printStackTrace();
+        }
+    }
+
+    /** Returns the non-negative count TEXT, or throws IOException. */
+    private static int parseCount(String text) throws IOException {
+        try {
+            int count = Integer.parseInt(text);
+            if (count >= 0) {
+                return count;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IOException("bad count: " + text);
+    }
+
+    /** Returns the next line of INPUT, without its LF, or null at the end of INPUT. */
+    private static String readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c = input.read();
+        if (c < 0) {
+            return null;
+        }
+        while (c >= 0 && c != '\n') {
+            line.write(c);
+            c = input.read();
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Writes TEXT and an LF to OUTPUT. */
+    private static void writeLine(OutputStream output, String text) throws IOException {
+        output.write(text.getBytes(StandardCharsets.UTF_8));
+        output.write('\n');
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int warmup = 0;
+        int maxSourceBytes = DEFAULT_MAX_SOURCE_BYTES;
+        boolean debug = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-j") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--warmup") && i + 1 < args.length) {
+                warmup = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--max-source") && i + 1 < args.length) {
+                maxSourceBytes = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--debug")) {
+                debug = true;
+            } else {
+                System.err.println("Usage: CompileServer [-j THREADS] [--warmup ROUNDS]"
+                        + " [--max-source BYTES] [--debug]");
+                System.exit(2);
+            }
+        }
+
+        // The code generator prints diagnostics with System.out, which would corrupt the frames.
+        PrintStream protocol = System.out;
+        System.setOut(System.err);
+
+        CompileServer server = new CompileServer(threads, maxSourceBytes, debug);
+        server.warmUp(warmup);
+        try {
+            server.serve(System.in, protocol);
+        } catch (IOException e) {
+            System.err.println("CompileServer: " + e.getMessage());
+            System.exit(2);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,475 @@
+package chocopy.pa3;
+
+import chocopy.common.analysis.AbstractNodeAnalyzer;
+import chocopy.common.astnodes.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Folds the constant parts of the expressions of a typed program, before code generation.
+ *
+ * <p>Operators applied to literals are evaluated with ChocoPy semantics: 32-bit integers, and `//`
+ * and `%` rounding towards negative infinity (a literal divisor of 0 is left for the runtime to
+ * report). Identities such as `x * 1`, `x + 0` and `not not b` are simplified, references to
+ * constant globals replaced by their values, and `if` and `while` statements with a literal
+ * condition replaced by the branch taken.
+ *
+ * <p>AST nodes are immutable, so each node with a folded child is rebuilt with the location and
+ * inferred type of the original. Statement lists are updated in place.
+ */
+public class ConstantFolder extends AbstractNodeAnalyzer<Node> {
+    /** The values of the constant globals, by name. */
+    private final Map<String, Literal> constants = new HashMap<>();
+    /** The names declared by each enclosing function, innermost last, hiding the globals. */
+    private final Deque<Set<String>> scopes = new ArrayDeque<>();
+
+    /** Folds the constant expressions of PROGRAM in place. */
+    public static void fold(Program program) {
+        program.dispatch(new ConstantFolder());
+    }
+
+    /** Returns NODE, given the location and inferred type of ORIGINAL. */
+    private static <T extends Expr> T like(T node, Expr original) {
+        node.setLocation(original.getLocation());
+        node.setInferredType(original.getInferredType());
+        return node;
+    }
+
+    /** Returns the folded EXPR. */
+    private Expr fold(Expr expr) {
+        return (Expr) expr.dispatch(this);
+    }
+
+    /** Returns the folded EXPRS, or EXPRS itself if none changed. */
+    private List<Expr> fold(List<Expr> exprs) {
+        List<Expr> folded = new ArrayList<>();
+        boolean changed = false;
+        for (Expr expr : exprs) {
+            Expr result = fold(expr);
+            changed |= result != expr;
+            folded.add(result);
+        }
+        return changed ? folded : exprs;
+    }
+
+    /**
+     * Folds STMTS in place, splicing in the branch taken by `if` statements with literal
+     * conditions and dropping `while False` loops.
+     */
+    private void foldStmts(List<Stmt> stmts) {
+        List<Stmt> folded = new ArrayList<>();
+        for (Stmt stmt : stmts) {
+            Stmt result = (Stmt) stmt.dispatch(this);
+            if (result instanceof IfStmt && ((IfStmt) result).condition instanceof BooleanLiteral) {
+                IfStmt ifStmt = (IfStmt) result;
+                folded.addAll(((BooleanLiteral) ifStmt.condition).value ? ifStmt.thenBody : ifStmt.elseBody);
+            } else if (result instanceof WhileStmt && ((WhileStmt) result).condition instanceof BooleanLiteral
+                    && !((BooleanLiteral) ((WhileStmt) result).condition).value) {
+                continue;
+            } else {
+                folded.add(result);
+            }
+        }
+        stmts.clear();
+        stmts.addAll(folded);
+    }
+
+    /** True if NAME is declared by an enclosing function, hiding any global of that name. */
+    private boolean isHidden(String name) {
+        for (Set<String> scope : scopes) {
+            if (scope.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Node defaultAction(Node node) {
+        return node;
+    }
+
+    @Override
+    public Node analyze(Program program) {
+        for (Declaration decl : program.declarations) {
+            if (decl instanceof ConstVarDef) {
+                ConstVarDef constDef = (ConstVarDef) decl;
+                constants.put(constDef.getIdentifier().name, constDef.value);
+            }
+        }
+        for (Declaration decl : program.declarations) {
+            decl.dispatch(this);
+        }
+        foldStmts(program.statements);
+        return program;
+    }
+
+    @Override
+    public Node analyze(ClassDef classDef) {
+        for (Declaration decl : classDef.declarations) {
+            decl.dispatch(this);
+        }
+        return classDef;
+    }
+
+    @Override
+    public Node analyze(FuncDef funcDef) {
+        Set<String> names = new HashSet<>();
+        for (TypedVar param : funcDef.params) {
+            names.add(param.identifier.name);
+        }
+        for (Declaration decl : funcDef.declarations) {
+            if (!(decl instanceof GlobalDecl)) {
+                names.add(decl.getIdentifier().name);
+            }
+        }
+        scopes.addLast(names);
+        for (Declaration decl : funcDef.declarations) {
+            decl.dispatch(this);
+        }
+        foldStmts(funcDef.statements);
+        scopes.removeLast();
+        return funcDef;
+    }
+
+    // =====================
+    // Statements.
+    // =====================
+
+    @Override
+    public Node analyze(ExprStmt stmt) {
+        Expr expr = fold(stmt.expr);
+        if (expr == stmt.expr) {
+            return stmt;
+        }
+        ExprStmt result = new ExprStmt(null, null, expr);
+        result.setLocation(stmt.getLocation());
+        return result;
+    }
+
+    @Override
+    public Node analyze(AssignStmt stmt) {
+        List<Expr> targets = new ArrayList<>();
+        boolean changed = false;
+        for (Expr target : stmt.targets) {
+            // a variable target is not a use: only fold the parts of index and member targets
+            Expr result = target instanceof Identifier ? target : fold(target);
+            changed |= result != target;
+            targets.add(result);
+        }
+        Expr value = fold(stmt.value);
+        if (!changed && value == stmt.value) {
+            return stmt;
+        }
+        AssignStmt result = new AssignStmt(null, null, targets, value);
+        result.setLocation(stmt.getLocation());
+        return result;
+    }
+
+    @Override
+    public Node analyze(ReturnStmt stmt) {
+        if (stmt.value == null) {
+            return stmt;
+        }
+        Expr value = fold(stmt.value);
+        if (value == stmt.value) {
+            return stmt;
+        }
+        ReturnStmt result = new ReturnStmt(null, null, value);
+        result.setLocation(stmt.getLocation());
+        return result;
+    }
+
+    @Override
+    public Node analyze(IfStmt stmt) {
+        Expr condition = fold(stmt.condition);
+        foldStmts(stmt.thenBody);
+        foldStmts(stmt.elseBody);
+        if (condition == stmt.condition) {
+            return stmt;
+        }
+        IfStmt result = new IfStmt(null, null, condition, stmt.thenBody, stmt.elseBody);
+        result.setLocation(stmt.getLocation());
+        return result;
+    }
+
+    @Override
+    public Node analyze(WhileStmt stmt) {
+        Expr condition = fold(stmt.condition);
+        foldStmts(stmt.body);
+        if (condition == stmt.condition) {
+            return stmt;
+        }
+        WhileStmt result = new WhileStmt(null, null, condition, stmt.body);
+        result.setLocation(stmt.getLocation());
+        return result;
+    }
+
+    @Override
+    public Node analyze(ForStmt stmt) {
+        Expr iterable = fold(stmt.iterable);
+        foldStmts(stmt.body);
+        if (iterable == stmt.iterable) {
+            return stmt;
+        }
+        ForStmt result = new ForStmt(null, null, stmt.identifier, iterable, stmt.body);
+        result.setLocation(stmt.getLocation());
+        return result;
+    }
+
+    // =====================
+    // Expressions.
+    // =====================
+
+    @Override
+    public Node analyze(Identifier id) {
+        Literal value = constants.get(id.name);
+        if (value == null || isHidden(id.name)) {
+            return id;
+        }
+        if (value instanceof IntegerLiteral) {
+            return like(new IntegerLiteral(null, null, ((IntegerLiteral) value).value), id);
+        } else if (value instanceof BooleanLiteral) {
+            return like(new BooleanLiteral(null, null, ((BooleanLiteral) value).value), id);
+        } else if (value instanceof StringLiteral) {
+            return like(new StringLiteral(null, null, ((StringLiteral) value).value), id);
+        }
+        return id;
+    }
+
+    @Override
+    public Node analyze(UnaryExpr expr) {
+        Expr operand = fold(expr.operand);
+        switch (expr.operator) {
+            case "-":
+                if (operand instanceof IntegerLiteral) {
+                    return like(new IntegerLiteral(null, null, -((IntegerLiteral) operand).value), expr);
+                }
+                if (operand instanceof UnaryExpr && ((UnaryExpr) operand).operator.equals("-")) {
+                    return ((UnaryExpr) operand).operand;
+                }
+                break;
+            case "not":
+                if (operand instanceof BooleanLiteral) {
+                    return like(new BooleanLiteral(null, null, !((BooleanLiteral) operand).value), expr);
+                }
+                if (operand instanceof UnaryExpr && ((UnaryExpr) operand).operator.equals("not")) {
+                    return ((UnaryExpr) operand).operand;
+                }
+                break;
+            default:
+                break;
+        }
+        if (operand == expr.operand) {
+            return expr;
+        }
+        return like(new UnaryExpr(null, null, expr.operator, operand), expr);
+    }
+
+    @Override
+    public Node analyze(BinaryExpr expr) {
+        Expr left = fold(expr.left);
+        Expr right = fold(expr.right);
+
+        // `and` and `or` only evaluate their right operand if the left one does not decide
+        if (left instanceof BooleanLiteral && (expr.operator.equals("and") || expr.operator.equals("or"))) {
+            boolean value = ((BooleanLiteral) left).value;
+            return value == expr.operator.equals("and") ? right : left;
+        }
+        if (left instanceof IntegerLiteral && right instanceof IntegerLiteral) {
+            Expr folded = foldInt(expr, ((IntegerLiteral) left).value, ((IntegerLiteral) right).value);
+            if (folded != null) {
+                return folded;
+            }
+        }
+        if (left instanceof BooleanLiteral && right instanceof BooleanLiteral) {
+            boolean l = ((BooleanLiteral) left).value;
+            boolean r = ((BooleanLiteral) right).value;
+            switch (expr.operator) {
+                case "==":
+                    return like(new BooleanLiteral(null, null, l == r), expr);
+                case "!=":
+                    return like(new BooleanLiteral(null, null, l != r), expr);
+                default:
+                    break;
+            }
+        }
+        if (left instanceof StringLiteral && right instanceof StringLiteral) {
+            String l = ((StringLiteral) left).value;
+            String r = ((StringLiteral) right).value;
+            switch (expr.operator) {
+                case "+":
+                    return like(new StringLiteral(null, null, l + r), expr);
+                case "==":
+                    return like(new BooleanLiteral(null, null, l.equals(r)), expr);
+                case "!=":
+                    return like(new BooleanLiteral(null, null, !l.equals(r)), expr);
+                default:
+                    break;
+            }
+        }
+        if (left instanceof NoneLiteral && right instanceof NoneLiteral && expr.operator.equals("is")) {
+            return like(new BooleanLiteral(null, null, true), expr);
+        }
+        Expr simplified = simplifyInt(expr.operator, left, right);
+        if (simplified != null) {
+            return simplified;
+        }
+
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+        return like(new BinaryExpr(null, null, left, expr.operator, right), expr);
+    }
+
+    /**
+     * Returns L // R, for a non-zero R, as the code generators compute it: rounded towards negative
+     * infinity, except that 0 // R is -1 for a negative R, as in the reference implementation.
+     */
+    public static int intDiv(int l, int r) {
+        return l == 0 && r < 0 ? -1 : Math.floorDiv(l, r);
+    }
+
+    /** Returns the literal value of the integer operation EXPR on L and R, or null if invalid. */
+    private static Expr foldInt(BinaryExpr expr, int l, int r) {
+        switch (expr.operator) {
+            case "+":
+                return like(new IntegerLiteral(null, null, l + r), expr);
+            case "-":
+                return like(new IntegerLiteral(null, null, l - r), expr);
+            case "*":
+                return like(new IntegerLiteral(null, null, l * r), expr);
+            case "//":
+                return r == 0 ? null : like(new IntegerLiteral(null, null, intDiv(l, r)), expr);
+            case "%":
+                return r == 0 ? null : like(new IntegerLiteral(null, null, Math.floorMod(l, r)), expr);
+            case "==":
+                return like(new BooleanLiteral(null, null, l == r), expr);
+            case "!=":
+                return like(new BooleanLiteral(null, null, l != r), expr);
+            case "<":
+                return like(new BooleanLiteral(null, null, l < r), expr);
+            case "<=":
+                return like(new BooleanLiteral(null, null, l <= r), expr);
+            case ">":
+                return like(new BooleanLiteral(null, null, l > r), expr);
+            case ">=":
+                return like(new BooleanLiteral(null, null, l >= r), expr);
+            default:
+                return null;
+        }
+    }
+
+    /** True if EXPR is the integer literal VALUE. */
+    private static boolean isInt(Expr expr, int value) {
+        return expr instanceof IntegerLiteral && ((IntegerLiteral) expr).value == value;
+    }
+
+    /**
+     * Returns the simplification of the integer operation LEFT OP RIGHT by an identity that drops
+     * a literal operand, or null if none applies.
+     */
+    private static Expr simplifyInt(String op, Expr left, Expr right) {
+        switch (op) {
+            case "+":
+                if (isInt(left, 0)) {
+                    return right;
+                }
+                return isInt(right, 0) ? left : null;
+            case "-":
+                return isInt(right, 0) ? left : null;
+            case "*":
+                if (isInt(left, 1)) {
+                    return right;
+                }
+                return isInt(right, 1) ? left : null;
+            case "//":
+                return isInt(right, 1) ? left : null;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Node analyze(IfExpr expr) {
+        Expr condition = fold(expr.condition);
+        if (condition instanceof BooleanLiteral) {
+            return fold(((BooleanLiteral) condition).value ? expr.thenExpr : expr.elseExpr);
+        }
+        Expr thenExpr = fold(expr.thenExpr);
+        Expr elseExpr = fold(expr.elseExpr);
+        if (condition == expr.condition && thenExpr == expr.thenExpr && elseExpr == expr.elseExpr) {
+            return expr;
+        }
+        return like(new IfExpr(null, null, condition, thenExpr, elseExpr), expr);
+    }
+
+    @Override
+    public Node analyze(CallExpr expr) {
+        List<Expr> args = fold(expr.args);
+        if (args == expr.args) {
+            return expr;
+        }
+        return like(new CallExpr(null, null, expr.function, args), expr);
+    }
+
+    @Override
+    public Node analyze(MethodCallExpr expr) {
+        MemberExpr method = (MemberExpr) fold(expr.method);
+        List<Expr> args = fold(expr.args);
+        if (method == expr.method && args == expr.args) {
+            return expr;
+        }
+        return like(new MethodCallExpr(null, null, method, args), expr);
+    }
+
+    @Override
+    public Node analyze(MemberExpr expr) {
+        Expr object = fold(expr.object);
+        if (object == expr.object) {
+            return expr;
+        }
+        return like(new MemberExpr(null, null, object, expr.member), expr);
+    }
+
+    @Override
+    public Node analyze(IndexExpr expr) {
+        Expr list = fold(expr.list);
+        Expr index = fold(expr.index);
+        if (list == expr.list && index == expr.index) {
+            return expr;
+        }
+        return like(new IndexExpr(null, null, list, index), expr);
+    }
+
+    @Override
+    public Node analyze(ListExpr expr) {
+        List<Expr> elements = fold(expr.elements);
+        if (elements == expr.elements) {
+            return expr;
+        }
+        return like(new ListExpr(null, null, elements), expr);
+    }
+
+    @Override
+    public Node analyze(ForListExpr expr) {
+        Expr iterable = fold(expr.iterable);
+        // the comprehension variable hides any global of the same name in the element
+        Set<String> names = new HashSet<>();
+        names.add(expr.identifier.name);
+        scopes.addLast(names);
+        Expr element = fold(expr.element);
+        scopes.removeLast();
+        if (iterable == expr.iterable && element == expr.element) {
+            return expr;
+        }
+        return like(new ForListExpr(null, null, element, expr.identifier, iterable), expr);
+    }
+}
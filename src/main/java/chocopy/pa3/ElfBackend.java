@@ -0,0 +1,785 @@
+package chocopy.pa3;
+
+import chocopy.common.Utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A backend that also assembles its code into a static RV32IM ELF executable.
+ *
+ * <p>The code emitted, including the runtime routines given as text, is laid out in two sections,
+ * .text at TEXT_BASE and .data at DATA_BASE as in Venus, and encoded by the backend itself, which
+ * resolves the labels and the @-symbols of defineSym. The pseudo-instructions expand as in Venus:
+ * li, la, and lw and sw of a label take two instructions where they need to. A branch whose target
+ * is out of its reach becomes the opposite branch over a jump to the target.
+ *
+ * <p>Linux has no counterpart to the environment calls of Venus. Each ecall of the program jumps
+ * to linux.ecall instead (see linux.ecall.s, linked in after the program), which carries it out
+ * with Linux system calls, so the executable runs under qemu-riscv32 or any other emulation of
+ * Linux on RV32IM. The entry point, linux.start, sets up the registers as Venus does and jumps to
+ * main.
+ */
+public class ElfBackend extends PeepholeBackend {
+
+    /** The address of the code. */
+    public static final int TEXT_BASE = 0x00010000;
+    /** The address of the data. */
+    public static final int DATA_BASE = 0x10000000;
+    /** The alignment of the segments in the file and in memory. */
+    private static final int PAGE_SIZE = 0x1000;
+    /** The runtime support of the executable, linked in after the program. */
+    private static final String LINUX_SUPPORT = "chocopy/common/linux.ecall.s";
+    /** The size of the line buffer of linux.ecall. */
+    private static final int LINE_MAX = 4096;
+
+    /** The registers by name. */
+    private static final Map<String, Integer> REGISTERS = new HashMap<>();
+    /** The register-register operations: funct7 and funct3. */
+    private static final Map<String, int[]> R_TYPE = new HashMap<>();
+    /** The register-immediate operations: funct3, and funct7 for shifts. */
+    private static final Map<String, int[]> I_TYPE = new HashMap<>();
+    /** The loads: funct3. */
+    private static final Map<String, Integer> LOADS = new HashMap<>();
+    /** The stores: funct3. */
+    private static final Map<String, Integer> STORES = new HashMap<>();
+    /** The branches: funct3. */
+    private static final Map<String, Integer> BRANCHES = new HashMap<>();
+    /** The branches comparing with zero: the branch and whether zero is its first operand. */
+    private static final Map<String, Object[]> ZERO_BRANCHES = new HashMap<>();
+    /** The branches with swapped operands: the branch. */
+    private static final Map<String, String> SWAPPED_BRANCHES = new HashMap<>();
+    /** The branch taken exactly when each branch is not. */
+    private static final Map<String, String> INVERSE = new HashMap<>();
+
+    static {
+        String[] abiNames = {
+            "zero", "ra", "sp", "gp", "tp", "t0", "t1", "t2", "fp", "s1", "a0", "a1", "a2", "a3", "a4",
+            "a5", "a6", "a7", "s2", "s3", "s4", "s5", "s6", "s7", "s8", "s9", "s10", "s11", "t3", "t4",
+            "t5", "t6"
+        };
+        for (int i = 0; i < abiNames.length; i++) {
+            REGISTERS.put(abiNames[i], i);
+            REGISTERS.put("x" + i, i);
+        }
+        REGISTERS.put("s0", 8);
+
+        String[] rOps = {"add", "sll", "slt", "sltu", "xor", "srl", "or", "and"};
+        String[] mOps = {"mul", "mulh", "mulhsu", "mulhu", "div", "divu", "rem", "remu"};
+        for (int i = 0; i < 8; i++) {
+            R_TYPE.put(rOps[i], new int[] {0, i});
+            R_TYPE.put(mOps[i], new int[] {1, i});
+        }
+        R_TYPE.put("sub", new int[] {0x20, 0});
+        R_TYPE.put("sra", new int[] {0x20, 5});
+
+        I_TYPE.put("addi", new int[] {0, 0});
+        I_TYPE.put("slti", new int[] {2, 0});
+        I_TYPE.put("sltiu", new int[] {3, 0});
+        I_TYPE.put("xori", new int[] {4, 0});
+        I_TYPE.put("ori", new int[] {6, 0});
+        I_TYPE.put("andi", new int[] {7, 0});
+        I_TYPE.put("slli", new int[] {1, 0});
+        I_TYPE.put("srli", new int[] {5, 0});
+        I_TYPE.put("srai", new int[] {5, 0x20});
+
+        LOADS.put("lb", 0);
+        LOADS.put("lh", 1);
+        LOADS.put("lw", 2);
+        LOADS.put("lbu", 4);
+        LOADS.put("lhu", 5);
+        STORES.put("sb", 0);
+        STORES.put("sh", 1);
+        STORES.put("sw", 2);
+
+        BRANCHES.put("beq", 0);
+        BRANCHES.put("bne", 1);
+        BRANCHES.put("blt", 4);
+        BRANCHES.put("bge", 5);
+        BRANCHES.put("bltu", 6);
+        BRANCHES.put("bgeu", 7);
+        ZERO_BRANCHES.put("beqz", new Object[] {"beq", false});
+        ZERO_BRANCHES.put("bnez", new Object[] {"bne", false});
+        ZERO_BRANCHES.put("bltz", new Object[] {"blt", false});
+        ZERO_BRANCHES.put("bgez", new Object[] {"bge", false});
+        ZERO_BRANCHES.put("blez", new Object[] {"bge", true});
+        ZERO_BRANCHES.put("bgtz", new Object[] {"blt", true});
+        SWAPPED_BRANCHES.put("bgt", "blt");
+        SWAPPED_BRANCHES.put("ble", "bge");
+        SWAPPED_BRANCHES.put("bgtu", "bltu");
+        SWAPPED_BRANCHES.put("bleu", "bgeu");
+        String[][] pairs = {{"beq", "bne"}, {"blt", "bge"}, {"bltu", "bgeu"}};
+        for (String[] pair : pairs) {
+            INVERSE.put(pair[0], pair[1]);
+            INVERSE.put(pair[1], pair[0]);
+        }
+    }
+
+    /** A memory operand: an offset and a base register. */
+    private static final Pattern MEMORY = Pattern.compile("(.*)\\((\\w+)\\)");
+    /** A label at the start of a line of text. */
+    private static final Pattern LABEL = Pattern.compile("([^\\s:\"#]+):(.*)");
+    /** A signed term of an expression. A sign not before a digit or @ is part of a label. */
+    private static final Pattern TERM = Pattern.compile("([+-]?)([^+-](?:[^+-]|[+-](?![\\d@]))*)");
+
+    /** A label, instruction or directive, placed in a section. */
+    private static class Item {
+        /** The label placed, or null. */
+        final String label;
+        /** The instruction or directive, or null. */
+        final Line line;
+        /** True if in the data section. */
+        final boolean data;
+        /** True if in the runtime support, whose ecalls are Linux system calls. */
+        final boolean system;
+        /** The address. */
+        int address;
+        /** The size in bytes. */
+        int size;
+        /** True if a branch to a target out of its reach. */
+        boolean far;
+
+        Item(String label, Line line, boolean data, boolean system) {
+            this.label = label;
+            this.line = line;
+            this.data = data;
+            this.system = system;
+        }
+    }
+
+    /** The labels, instructions and directives, in order. */
+    private final List<Item> items = new ArrayList<>();
+    /** The values of the @-symbols, as expressions. */
+    private final Map<String, String> symbols = new HashMap<>();
+    /** The addresses of the labels. */
+    private final Map<String, Integer> labels = new HashMap<>();
+    /** The global labels. */
+    private final Set<String> globals = new LinkedHashSet<>();
+    /** True while adding the data section. */
+    private boolean inData;
+
+    /** Writes the code emitted to OUT, as an ELF executable. */
+    public void writeElf(OutputStream out) throws IOException {
+        out.write(toElf());
+    }
+
+    /** Returns the code emitted, as an ELF executable. */
+    public byte[] toElf() {
+        items.clear();
+        symbols.clear();
+        labels.clear();
+        globals.clear();
+        inData = false;
+        for (Line line : getLines()) {
+            if (line.text != null) {
+                addText(line.text, false);
+            } else {
+                add(line, false);
+            }
+        }
+        String support = Utils.getResourceFileAsString(LINUX_SUPPORT);
+        if (support == null) {
+            throw new IllegalStateException("Code for linux.ecall is missing.");
+        }
+        symbols.put("@linux_line_max", Integer.toString(LINE_MAX));
+        addText(support, true);
+
+        layout();
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (Item item : items) {
+            if (item.line != null) {
+                encode(item, item.data ? data : text);
+            }
+        }
+        return link(text.toByteArray(), data.toByteArray(), value("linux.start"));
+    }
+
+    // =====================
+    // Reading the code.
+    // =====================
+
+    /** Adds the lines of assembly code TEXT, from the runtime support if SYSTEM. */
+    private void addText(String text, boolean system) {
+        for (String raw : text.split("\r?\n")) {
+            String line = stripComment(raw).trim();
+            Matcher m = LABEL.matcher(line);
+            while (m.matches()) {
+                items.add(new Item(m.group(1), null, inData, system));
+                line = m.group(2).trim();
+                m = LABEL.matcher(line);
+            }
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] parts = line.split("\\s+", 2);
+            String[] operands;
+            if (parts.length == 1) {
+                operands = new String[0];
+            } else if (parts[0].startsWith(".") && !parts[0].equals(".equiv")) {
+                operands = new String[] {parts[1].trim()};
+            } else {
+                operands = parts[1].trim().split("\\s*,\\s*");
+            }
+            add(new Line(parts[0], operands, null), system);
+        }
+    }
+
+    /** Returns LINE without its comment, if any. */
+    private static String stripComment(String line) {
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && quoted) {
+                i++;
+            } else if (c == '"') {
+                quoted = !quoted;
+            } else if (c == '#' && !quoted) {
+                return line.substring(0, i);
+            }
+        }
+        return line;
+    }
+
+    /** Adds LINE, a label, instruction or directive, from the runtime support if SYSTEM. */
+    private void add(Line line, boolean system) {
+        if (line.label != null) {
+            items.add(new Item(line.label.toString(), null, inData, system));
+            return;
+        }
+        if (!line.isInsn()) {
+            return;
+        }
+        switch (line.op) {
+            case ".text":
+                inData = false;
+                break;
+            case ".data":
+                inData = true;
+                break;
+            case ".globl":
+                globals.add(line.operands[0]);
+                break;
+            case ".equiv":
+                symbols.put(line.operands[0], line.operands[1]);
+                break;
+            default:
+                items.add(new Item(null, line, inData, system));
+                break;
+        }
+    }
+
+    // =====================
+    // Layout.
+    // =====================
+
+    /**
+     * Assigns addresses to the items, making far the branches out of reach until all targets are
+     * within reach.
+     */
+    private void layout() {
+        boolean changed = true;
+        while (changed) {
+            int text = TEXT_BASE;
+            int data = DATA_BASE;
+            for (Item item : items) {
+                item.address = item.data ? data : text;
+                if (item.label != null) {
+                    labels.put(item.label, item.address);
+                    continue;
+                }
+                item.size = sizeOf(item);
+                if (item.data) {
+                    data += item.size;
+                } else {
+                    text += item.size;
+                }
+            }
+
+            changed = false;
+            for (Item item : items) {
+                if (item.line != null && !item.far && isBranch(item.line.op)) {
+                    String[] operands = item.line.operands;
+                    int offset = value(operands[operands.length - 1]) - item.address;
+                    if (offset < -4096 || offset >= 4096) {
+                        item.far = true;
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /** True if OP is a conditional branch. */
+    private static boolean isBranch(String op) {
+        return BRANCHES.containsKey(op) || ZERO_BRANCHES.containsKey(op) || SWAPPED_BRANCHES.containsKey(op);
+    }
+
+    /** Returns the size in bytes of ITEM, an instruction or directive at its address. */
+    private int sizeOf(Item item) {
+        Line line = item.line;
+        String[] operands = line.operands;
+        switch (line.op) {
+            case ".word":
+                return 4;
+            case ".string":
+                return unquote(operands[0]).length + 1;
+            case ".space":
+                return value(operands[0]);
+            case ".align": {
+                int alignment = 1 << value(operands[0]);
+                return -item.address & (alignment - 1);
+            }
+            case "li": {
+                Integer imm = constant(operands[1]);
+                return imm != null && fits12(imm) ? 4 : 8;
+            }
+            case "la":
+                return 8;
+            default:
+                if (line.isDirective()) {
+                    throw new IllegalArgumentException("Unknown directive: " + line.op);
+                }
+                if ((LOADS.containsKey(line.op) || STORES.containsKey(line.op)) && memory(operands[1]) == null) {
+                    return 8;
+                }
+                return item.far ? 8 : 4;
+        }
+    }
+
+    // =====================
+    // Expressions.
+    // =====================
+
+    /** Returns the value of EXPR: a sum of numbers, @-symbols and labels. */
+    private int value(String expr) {
+        Integer value = evaluate(expr, true);
+        if (value == null) {
+            throw new IllegalArgumentException("Unknown label in: " + expr);
+        }
+        return value;
+    }
+
+    /** Returns the value of EXPR if it involves no label, else null. */
+    private Integer constant(String expr) {
+        return evaluate(expr, false);
+    }
+
+    /** Returns the value of EXPR, or null if it involves a label and not LABELSALLOWED. */
+    private Integer evaluate(String expr, boolean labelsAllowed) {
+        int sum = 0;
+        Matcher m = TERM.matcher(expr.replaceAll("\\s+", ""));
+        while (m.find()) {
+            String term = m.group(2);
+            Integer value;
+            if (Character.isDigit(term.charAt(0))) {
+                // decimals wrap like hex ones, so that -2147483648 negates 2147483648
+                value = term.startsWith("0x")
+                        ? Integer.parseUnsignedInt(term.substring(2), 16) : (int) Long.parseLong(term);
+            } else if (term.startsWith("@")) {
+                if (!symbols.containsKey(term)) {
+                    throw new IllegalArgumentException("Unknown symbol: " + term);
+                }
+                value = evaluate(symbols.get(term), labelsAllowed);
+            } else {
+                value = labelsAllowed ? labels.get(term) : null;
+            }
+            if (value == null) {
+                return null;
+            }
+            sum += m.group(1).equals("-") ? -value : value;
+        }
+        return sum;
+    }
+
+    /** True if VALUE fits in a 12-bit signed immediate. */
+    private static boolean fits12(int value) {
+        return value >= -2048 && value < 2048;
+    }
+
+    /** Returns the matcher of OPERAND if it is a memory operand, else null. */
+    private static Matcher memory(String operand) {
+        Matcher m = MEMORY.matcher(operand);
+        return m.matches() ? m : null;
+    }
+
+    /** Returns the number of register NAME. */
+    private static int reg(String name) {
+        Integer number = REGISTERS.get(name);
+        if (number == null) {
+            throw new IllegalArgumentException("Unknown register: " + name);
+        }
+        return number;
+    }
+
+    /** Returns the bytes of the string literal QUOTED, in quotes with escapes. */
+    private static byte[] unquote(String quoted) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 1; i < quoted.length() - 1; i++) {
+            char c = quoted.charAt(i);
+            if (c == '\\') {
+                c = quoted.charAt(++i);
+                switch (c) {
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case '0':
+                        c = '\0';
+                        break;
+                    default:
+                        break;
+                }
+            }
+            bytes.write(c);
+        }
+        return bytes.toByteArray();
+    }
+
+    // =====================
+    // Encoding.
+    // =====================
+
+    /** Writes the encoding of ITEM, an instruction or directive, to OUT. */
+    private void encode(Item item, ByteArrayOutputStream out) {
+        Line line = item.line;
+        String op = line.op;
+        String[] a = line.operands;
+        int pc = item.address;
+        switch (op) {
+            case ".word":
+                word(out, value(a[0]));
+                return;
+            case ".string":
+                byte[] bytes = unquote(a[0]);
+                out.write(bytes, 0, bytes.length);
+                out.write(0);
+                return;
+            case ".space":
+            case ".align":
+                for (int i = 0; i < item.size; i++) {
+                    out.write(0);
+                }
+                return;
+            case "lui":
+                word(out, value(a[1]) << 12 | reg(a[0]) << 7 | 0x37);
+                return;
+            case "auipc":
+                word(out, value(a[1]) << 12 | reg(a[0]) << 7 | 0x17);
+                return;
+            case "li": {
+                int imm = value(a[1]);
+                if (item.size == 4) {
+                    word(out, iType(imm, 0, 0, reg(a[0]), 0x13));
+                } else {
+                    int low = imm << 20 >> 20;
+                    word(out, (imm - low) | reg(a[0]) << 7 | 0x37);
+                    word(out, iType(low, reg(a[0]), 0, reg(a[0]), 0x13));
+                }
+                return;
+            }
+            case "la": {
+                int offset = value(a[1]) - pc;
+                int low = offset << 20 >> 20;
+                word(out, (offset - low) | reg(a[0]) << 7 | 0x17);
+                word(out, iType(low, reg(a[0]), 0, reg(a[0]), 0x13));
+                return;
+            }
+            case "mv":
+                word(out, iType(0, reg(a[1]), 0, reg(a[0]), 0x13));
+                return;
+            case "not":
+                word(out, iType(-1, reg(a[1]), 4, reg(a[0]), 0x13));
+                return;
+            case "neg":
+                word(out, rType(0x20, reg(a[1]), 0, 0, reg(a[0])));
+                return;
+            case "seqz":
+                word(out, iType(1, reg(a[1]), 3, reg(a[0]), 0x13));
+                return;
+            case "snez":
+                word(out, rType(0, reg(a[1]), 0, 3, reg(a[0])));
+                return;
+            case "nop":
+                word(out, iType(0, 0, 0, 0, 0x13));
+                return;
+            case "j":
+                word(out, jType(value(a[0]) - pc, 0));
+                return;
+            case "jal":
+                if (a.length == 1) {
+                    word(out, jType(value(a[0]) - pc, 1));
+                } else {
+                    word(out, jType(value(a[1]) - pc, reg(a[0])));
+                }
+                return;
+            case "jr":
+                word(out, iType(0, reg(a[0]), 0, 0, 0x67));
+                return;
+            case "ret":
+                word(out, iType(0, 1, 0, 0, 0x67));
+                return;
+            case "jalr": {
+                if (a.length == 1) {
+                    word(out, iType(0, reg(a[0]), 0, 1, 0x67));
+                } else if (a.length == 2) {
+                    Matcher m = memory(a[1]);
+                    word(out, iType(offset(m), reg(m.group(2)), 0, reg(a[0]), 0x67));
+                } else {
+                    word(out, iType(value(a[2]), reg(a[1]), 0, reg(a[0]), 0x67));
+                }
+                return;
+            }
+            case "ecall":
+                if (item.system) {
+                    word(out, 0x73);
+                } else {
+                    word(out, jType(value("linux.ecall") - pc, reg("tp")));
+                }
+                return;
+            default:
+                break;
+        }
+
+        if (R_TYPE.containsKey(op)) {
+            int[] funct = R_TYPE.get(op);
+            word(out, rType(funct[0], reg(a[2]), reg(a[1]), funct[1], reg(a[0])));
+        } else if (I_TYPE.containsKey(op)) {
+            int[] funct = I_TYPE.get(op);
+            int imm = value(a[2]);
+            if (funct[0] == 1 || funct[0] == 5) {
+                imm = (imm & 0x1f) | funct[1] << 5;
+            } else if (!fits12(imm)) {
+                throw new IllegalArgumentException("Immediate out of range: " + line.getInsn());
+            }
+            word(out, iType(imm, reg(a[1]), funct[0], reg(a[0]), 0x13));
+        } else if (LOADS.containsKey(op)) {
+            Matcher m = memory(a[1]);
+            if (m != null) {
+                word(out, iType(offset(m), reg(m.group(2)), LOADS.get(op), reg(a[0]), 0x03));
+            } else {
+                int offset = value(a[1]) - pc;
+                int low = offset << 20 >> 20;
+                word(out, (offset - low) | reg(a[0]) << 7 | 0x17);
+                word(out, iType(low, reg(a[0]), LOADS.get(op), reg(a[0]), 0x03));
+            }
+        } else if (STORES.containsKey(op)) {
+            Matcher m = memory(a[1]);
+            if (m != null) {
+                word(out, sType(offset(m), reg(m.group(2)), reg(a[0]), STORES.get(op)));
+            } else {
+                int offset = value(a[1]) - pc;
+                int low = offset << 20 >> 20;
+                word(out, (offset - low) | reg(a[2]) << 7 | 0x17);
+                word(out, sType(low, reg(a[2]), reg(a[0]), STORES.get(op)));
+            }
+        } else if (isBranch(op)) {
+            String branch = op;
+            int rs1;
+            int rs2;
+            if (ZERO_BRANCHES.containsKey(op)) {
+                Object[] form = ZERO_BRANCHES.get(op);
+                branch = (String) form[0];
+                rs1 = (Boolean) form[1] ? 0 : reg(a[0]);
+                rs2 = (Boolean) form[1] ? reg(a[0]) : 0;
+            } else if (SWAPPED_BRANCHES.containsKey(op)) {
+                branch = SWAPPED_BRANCHES.get(op);
+                rs1 = reg(a[1]);
+                rs2 = reg(a[0]);
+            } else {
+                rs1 = reg(a[0]);
+                rs2 = reg(a[1]);
+            }
+            int target = value(a[a.length - 1]);
+            if (item.far) {
+                word(out, bType(8, rs2, rs1, BRANCHES.get(INVERSE.get(branch))));
+                word(out, jType(target - pc - 4, 0));
+            } else {
+                word(out, bType(target - pc, rs2, rs1, BRANCHES.get(branch)));
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown instruction: " + line.getInsn());
+        }
+    }
+
+    /** Returns the offset of memory operand M, which must fit in 12 bits. */
+    private int offset(Matcher m) {
+        int offset = m.group(1).isEmpty() ? 0 : value(m.group(1));
+        if (!fits12(offset)) {
+            throw new IllegalArgumentException("Offset out of range: " + m.group());
+        }
+        return offset;
+    }
+
+    /** Writes WORD to OUT, little-endian. */
+    private static void word(ByteArrayOutputStream out, int word) {
+        out.write(word);
+        out.write(word >> 8);
+        out.write(word >> 16);
+        out.write(word >> 24);
+    }
+
+    /** Returns the encoding of an R-type operation. */
+    private static int rType(int funct7, int rs2, int rs1, int funct3, int rd) {
+        return funct7 << 25 | rs2 << 20 | rs1 << 15 | funct3 << 12 | rd << 7 | 0x33;
+    }
+
+    /** Returns the encoding of an I-type instruction. */
+    private static int iType(int imm, int rs1, int funct3, int rd, int opcode) {
+        return (imm & 0xfff) << 20 | rs1 << 15 | funct3 << 12 | rd << 7 | opcode;
+    }
+
+    /** Returns the encoding of a store. */
+    private static int sType(int imm, int rs1, int rs2, int funct3) {
+        return (imm >> 5 & 0x7f) << 25 | rs2 << 20 | rs1 << 15 | funct3 << 12 | (imm & 0x1f) << 7 | 0x23;
+    }
+
+    /** Returns the encoding of a branch by OFFSET. */
+    private static int bType(int offset, int rs2, int rs1, int funct3) {
+        return (offset >> 12 & 1) << 31 | (offset >> 5 & 0x3f) << 25 | rs2 << 20 | rs1 << 15 | funct3 << 12
+                | (offset >> 1 & 0xf) << 8 | (offset >> 11 & 1) << 7 | 0x63;
+    }
+
+    /** Returns the encoding of a jump by OFFSET, linking in RD. */
+    private static int jType(int offset, int rd) {
+        return (offset >> 20 & 1) << 31 | (offset >> 1 & 0x3ff) << 21 | (offset >> 11 & 1) << 20
+                | (offset >> 12 & 0xff) << 12 | rd << 7 | 0x6f;
+    }
+
+    // =====================
+    // ELF.
+    // =====================
+
+    /** Returns the ELF executable of code TEXT and data DATA, starting at ENTRY. */
+    private byte[] link(byte[] text, byte[] data, int entry) {
+        // symbols: the local labels, then the global ones
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        names.write(0);
+        List<Item> symbolItems = new ArrayList<>();
+        for (boolean global : new boolean[] {false, true}) {
+            for (Item item : items) {
+                if (item.label != null && globals.contains(item.label) == global) {
+                    symbolItems.add(item);
+                }
+            }
+        }
+        ByteBuffer symtab = buffer(16 * (symbolItems.size() + 1));
+        symtab.position(16);
+        int firstGlobal = 1;
+        for (Item item : symbolItems) {
+            boolean global = globals.contains(item.label);
+            if (!global) {
+                firstGlobal++;
+            }
+            symtab.putInt(names.size());
+            byte[] name = item.label.getBytes(StandardCharsets.UTF_8);
+            names.write(name, 0, name.length);
+            names.write(0);
+            symtab.putInt(item.address);
+            symtab.putInt(0);
+            symtab.put((byte) ((global ? 1 : 0) << 4 | (item.data ? 1 : 2)));
+            symtab.put((byte) 0);
+            symtab.putShort((short) (item.data ? 2 : 1));
+        }
+        byte[] strtab = names.toByteArray();
+        byte[] shstrtab = "\0.text\0.data\0.symtab\0.strtab\0.shstrtab\0".getBytes(StandardCharsets.US_ASCII);
+
+        int textOffset = PAGE_SIZE;
+        int dataOffset = align(textOffset + text.length, PAGE_SIZE);
+        int symtabOffset = align(dataOffset + data.length, 4);
+        int strtabOffset = symtabOffset + symtab.capacity();
+        int shstrtabOffset = strtabOffset + strtab.length;
+        int sectionsOffset = align(shstrtabOffset + shstrtab.length, 4);
+        ByteBuffer elf = buffer(sectionsOffset + 6 * 40);
+
+        // ELF header
+        elf.put(new byte[] {0x7f, 'E', 'L', 'F', 1, 1, 1, 0});
+        elf.position(16);
+        elf.putShort((short) 2);                  // executable
+        elf.putShort((short) 243);                // RISC-V
+        elf.putInt(1);
+        elf.putInt(entry);
+        elf.putInt(52);                           // program headers
+        elf.putInt(sectionsOffset);               // section headers
+        elf.putInt(0);                            // soft-float ABI
+        elf.putShort((short) 52);
+        elf.putShort((short) 32);
+        elf.putShort((short) 2);
+        elf.putShort((short) 40);
+        elf.putShort((short) 6);
+        elf.putShort((short) 5);                  // .shstrtab
+
+        // program headers: the code, readable and executable, and the data, readable and writable
+        segment(elf, textOffset, TEXT_BASE, text.length, 5);
+        segment(elf, dataOffset, DATA_BASE, data.length, 6);
+
+        elf.position(textOffset);
+        elf.put(text);
+        elf.position(dataOffset);
+        elf.put(data);
+        elf.position(symtabOffset);
+        elf.put(symtab.array());
+        elf.put(strtab);
+        elf.put(shstrtab);
+
+        // section headers
+        elf.position(sectionsOffset + 40);
+        section(elf, 1, 1, 6, TEXT_BASE, textOffset, text.length, 0, 0, 4, 0);
+        section(elf, 7, 1, 3, DATA_BASE, dataOffset, data.length, 0, 0, 4, 0);
+        section(elf, 13, 2, 0, 0, symtabOffset, symtab.capacity(), 4, firstGlobal, 4, 16);
+        section(elf, 21, 3, 0, 0, strtabOffset, strtab.length, 0, 0, 1, 0);
+        section(elf, 29, 3, 0, 0, shstrtabOffset, shstrtab.length, 0, 0, 1, 0);
+        return elf.array();
+    }
+
+    /** Returns a little-endian buffer of SIZE bytes. */
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Returns VALUE rounded up to a multiple of ALIGNMENT. */
+    private static int align(int value, int alignment) {
+        return (value + alignment - 1) / alignment * alignment;
+    }
+
+    /** Puts a program header loading SIZE bytes at OFFSET in the file to ADDRESS, with FLAGS. */
+    private static void segment(ByteBuffer elf, int offset, int address, int size, int flags) {
+        elf.putInt(1);
+        elf.putInt(offset);
+        elf.putInt(address);
+        elf.putInt(address);
+        elf.putInt(size);
+        elf.putInt(size);
+        elf.putInt(flags);
+        elf.putInt(PAGE_SIZE);
+    }
+
+    /** Puts a section header. */
+    private static void section(ByteBuffer elf, int name, int type, int flags, int address, int offset,
+                                int size, int link, int info, int alignment, int entrySize) {
+        elf.putInt(name);
+        elf.putInt(type);
+        elf.putInt(flags);
+        elf.putInt(address);
+        elf.putInt(offset);
+        elf.putInt(size);
+        elf.putInt(link);
+        elf.putInt(info);
+        elf.putInt(alignment);
+        elf.putInt(entrySize);
+    }
+}
@@ -0,0 +1,35 @@
+package chocopy.pa3;
+
+import chocopy.common.astnodes.Node;
+import chocopy.common.astnodes.Program;
+import chocopy.common.codegen.CodeGenBase;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Compiles a typed AST, as output by semantic analysis (e.g. --pass=rr --out), to an ELF
+ * executable.
+ *
+ * <p>Usage: ElfCompiler INPUT.ast.typed OUTPUT [--debug]
+ */
+public class ElfCompiler {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ElfCompiler INPUT.ast.typed OUTPUT [--debug]");
+            System.exit(2);
+        }
+        boolean debug = args.length > 2 && args[2].equals("--debug");
+        String json = new String(Files.readAllBytes(Paths.get(args[0])), StandardCharsets.UTF_8);
+        Program program = (Program) Node.fromJSON(json);
+        byte[] elf = StudentCodeGen.processToElf(program, debug,
+                CodeGenBase.DEFAULT_HEAP_SIZE_BYTES, CodeGenBase.DEFAULT_HEAP_MAX_BYTES);
+        if (elf == null) {
+            System.exit(1);
+        }
+        Files.write(Paths.get(args[1]), elf);
+        Paths.get(args[1]).toFile().setExecutable(true);
+    }
+}
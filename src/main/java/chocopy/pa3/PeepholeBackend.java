@@ -0,0 +1,460 @@
+package chocopy.pa3;
+
+import chocopy.common.codegen.RiscVBackend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A backend improving the code of each function with a peephole pass before writing it out.
+ *
+ * <p>The pass runs once, when the code is written out, over each run of the instructions and local
+ * labels kept between global labels, directives and runtime routines (which are left as they are);
+ * one-line comments in a run are skipped over. It rewrites the run until nothing changes:
+ * <ul>
+ *   <li>jumps and branches to a jump go to its target, jumps and branches to the next line are
+ *       removed, and a branch over a jump is inverted to go where the jump does;
+ *   <li>within each basic block, the copies made by mv, and by li of 0 (a copy of zero), are
+ *       propagated to the instructions reading them; a load from the slot a register was stored to
+ *       becomes a copy of it; a multiplication by a power of 2 loaded with li becomes a shift; and
+ *       adjustments of SP with no use of SP in between merge;
+ *   <li>the instructions only writing a register that is written again later in the block, before
+ *       being read, are removed.
+ * </ul>
+ * Labels start blocks, and jumps, branches, calls and ecalls end them: at those points, any
+ * register may be read and any memory written. Other instructions the pass does not know are
+ * taken for such points as well.
+ */
+public class PeepholeBackend extends RiscVBackend {
+
+    /** The branches comparing two registers. */
+    private static final Set<String> BRANCHES = new HashSet<>(Arrays.asList(
+            "beq", "bne", "blt", "bge", "bltu", "bgeu", "beqz", "bnez", "bltz", "bgez", "blez", "bgtz"));
+    /** The instructions only writing their first operand, from the registers or constants after it. */
+    private static final Set<String> PURE = new HashSet<>(Arrays.asList(
+            "mv", "li", "la", "lui", "add", "addi", "sub", "mul", "div", "rem", "xor", "xori", "and",
+            "andi", "or", "ori", "sll", "slli", "srl", "srli", "sra", "srai", "slt", "slti", "sltu",
+            "sltiu", "seqz", "snez", "neg", "not"));
+    /** The loads, writing their first operand. */
+    private static final Set<String> LOADS = new HashSet<>(Arrays.asList("lw", "lb", "lbu"));
+    /** The stores. */
+    private static final Set<String> STORES = new HashSet<>(Arrays.asList("sw", "sb"));
+    /** The registers whose writes are never removed. */
+    private static final Set<String> RESERVED = new HashSet<>(Arrays.asList(
+            "zero", "sp", "fp", "gp", "tp", "ra", "s10", "s11"));
+    /** The branch taken exactly when each branch is not. */
+    private static final Map<String, String> INVERSE = new HashMap<>();
+    /** The names of the registers. */
+    private static final Set<String> REGISTERS = new HashSet<>();
+
+    static {
+        String[][] pairs = {
+            {"beq", "bne"}, {"blt", "bge"}, {"bltu", "bgeu"}, {"beqz", "bnez"}, {"bltz", "bgez"},
+            {"blez", "bgtz"}
+        };
+        for (String[] pair : pairs) {
+            INVERSE.put(pair[0], pair[1]);
+            INVERSE.put(pair[1], pair[0]);
+        }
+        for (Register reg : Register.values()) {
+            REGISTERS.add(reg.toString());
+        }
+    }
+
+    /** A memory operand: an offset and a base register. */
+    private static final Pattern MEMORY = Pattern.compile("(.*)\\((\\w+)\\)");
+
+    /** True once the code has been optimized. */
+    private boolean optimized;
+
+    @Override
+    public List<Line> getLines() {
+        if (!optimized) {
+            optimize();
+            optimized = true;
+        }
+        return lines;
+    }
+
+    /** Optimizes each run of instructions and local labels of the code emitted. */
+    private void optimize() {
+        List<Line> kept = new ArrayList<>();
+        List<Line> run = new ArrayList<>();
+        List<Line> code = new ArrayList<>();
+        for (Line line : lines) {
+            if (line.text != null || line.isDirective()) {
+                kept.addAll(optimize(run, code));
+                run.clear();
+                code.clear();
+                kept.add(line);
+                continue;
+            }
+            run.add(line);
+            if (line.label != null || line.isInsn()) {
+                code.add(line);
+            }
+        }
+        kept.addAll(optimize(run, code));
+        lines.clear();
+        lines.addAll(kept);
+    }
+
+    /**
+     * Optimizes CODE, the instructions and local labels of RUN, and returns the lines of RUN left.
+     */
+    private static List<Line> optimize(List<Line> run, List<Line> code) {
+        if (code.isEmpty()) {
+            return run;
+        }
+        Set<Line> original = new HashSet<>(code);
+        boolean changed = true;
+        for (int round = 0; changed && round < 8; round++) {
+            changed = threadJumps(code);
+            changed |= removeJumps(code);
+            changed |= propagate(code);
+            changed |= removeDeadWrites(code);
+        }
+        Set<Line> left = new HashSet<>(code);
+        List<Line> result = new ArrayList<>();
+        for (Line line : run) {
+            if (left.contains(line) || !original.contains(line)) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    // =====================
+    // Reads and writes.
+    // =====================
+
+    /** True if LINE is a jump or branch, ending its block. */
+    private static boolean isJump(Line line) {
+        return BRANCHES.contains(line.op) || line.op.equals("j") || line.op.equals("jr");
+    }
+
+    /** True if LINE may read any register and write any memory: a call, an ecall or unknown. */
+    private static boolean isBarrier(Line line) {
+        return !isJump(line) && !PURE.contains(line.op) && !LOADS.contains(line.op) && !STORES.contains(line.op);
+    }
+
+    /** Returns the matcher of OPERAND if it is a memory operand, else null. */
+    private static Matcher memory(String operand) {
+        Matcher m = MEMORY.matcher(operand);
+        return m.matches() ? m : null;
+    }
+
+    /** Returns the indices of the operands of LINE that are registers it reads. */
+    private static List<Integer> readOperands(Line line) {
+        List<Integer> reads = new ArrayList<>();
+        int first = STORES.contains(line.op) || isJump(line) ? 0 : 1;
+        int last = BRANCHES.contains(line.op) || line.op.equals("j") ? line.operands.length - 1 : line.operands.length;
+        if (STORES.contains(line.op) && line.operands.length > 2) {
+            // sw rs, label, tmp: the temporary is written
+            last = 1;
+        }
+        for (int i = first; i < last; i++) {
+            if (REGISTERS.contains(line.operands[i])) {
+                reads.add(i);
+            }
+        }
+        return reads;
+    }
+
+    /** Returns the registers LINE reads, but not a barrier. */
+    private static List<String> reads(Line line) {
+        List<String> regs = new ArrayList<>();
+        for (int i : readOperands(line)) {
+            regs.add(line.operands[i]);
+        }
+        for (String operand : line.operands) {
+            Matcher m = memory(operand);
+            if (m != null) {
+                regs.add(m.group(2));
+            }
+        }
+        return regs;
+    }
+
+    /** Returns the register LINE writes, but not a barrier, or null. */
+    private static String write(Line line) {
+        if (PURE.contains(line.op) || LOADS.contains(line.op)) {
+            return line.operands[0];
+        }
+        if (STORES.contains(line.op) && line.operands.length > 2) {
+            return line.operands[2];
+        }
+        return null;
+    }
+
+    /** True if LINE is addi sp, sp, IMM with a numeric IMM. */
+    private static boolean isSpAdjustment(Line line) {
+        return line.op.equals("addi") && line.operands[0].equals("sp") && line.operands[1].equals("sp")
+                && line.operands[2].matches("-?\\d+");
+    }
+
+    // =====================
+    // Jumps.
+    // =====================
+
+    /** Returns the index of the first instruction after label TARGET in CODE, or -1. */
+    private static int indexAfter(List<Line> code, String target) {
+        for (int i = 0; i < code.size(); i++) {
+            if (code.get(i).label != null && code.get(i).label.toString().equals(target)) {
+                while (i < code.size() && (code.get(i).label != null || code.get(i).op == null)) {
+                    i++;
+                }
+                return i < code.size() ? i : -1;
+            }
+        }
+        return -1;
+    }
+
+    /** Makes the jumps and branches of CODE to a jump go to its target. Returns true if any did. */
+    private static boolean threadJumps(List<Line> code) {
+        boolean changed = false;
+        for (Line line : code) {
+            if (line.label != null || line.op == null || !(BRANCHES.contains(line.op) || line.op.equals("j"))) {
+                continue;
+            }
+            int last = line.operands.length - 1;
+            String target = line.operands[last];
+            for (int hops = 0; hops < 8; hops++) {
+                int next = indexAfter(code, target);
+                if (next < 0 || !code.get(next).op.equals("j") || code.get(next).operands[0].equals(target)) {
+                    break;
+                }
+                target = code.get(next).operands[0];
+            }
+            if (!target.equals(line.operands[last])) {
+                line.operands[last] = target;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /** True if label TARGET is placed right after line I of CODE. */
+    private static boolean isNext(List<Line> code, int i, String target) {
+        for (int j = i + 1; j < code.size() && (code.get(j).label != null || code.get(j).op == null); j++) {
+            if (code.get(j).label != null && code.get(j).label.toString().equals(target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the jumps and branches of CODE to the next line, and inverts the branches over a jump.
+     * Returns true if any was.
+     */
+    private static boolean removeJumps(List<Line> code) {
+        boolean changed = false;
+        for (int i = 0; i < code.size(); i++) {
+            Line line = code.get(i);
+            if (line.label != null || line.op == null || !(BRANCHES.contains(line.op) || line.op.equals("j"))) {
+                continue;
+            }
+            int last = line.operands.length - 1;
+            if (isNext(code, i, line.operands[last])) {
+                line.op = null;
+                changed = true;
+            } else if (BRANCHES.contains(line.op) && i + 1 < code.size() && code.get(i + 1).label == null
+                    && "j".equals(code.get(i + 1).op) && isNext(code, i + 1, line.operands[last])) {
+                line.op = INVERSE.get(line.op);
+                line.operands[last] = code.get(i + 1).operands[0];
+                code.get(i + 1).op = null;
+                changed = true;
+            }
+        }
+        code.removeIf(line -> line.label == null && line.op == null);
+        return changed;
+    }
+
+    // =====================
+    // Within blocks.
+    // =====================
+
+    /**
+     * Propagates copies, forwards stores to loads, reduces multiplications and merges adjustments
+     * of SP within the blocks of CODE. Returns true if anything changed.
+     */
+    private static boolean propagate(List<Line> code) {
+        boolean changed = false;
+        Map<String, String> copies = new HashMap<>();
+        Map<String, Integer> constants = new HashMap<>();
+        Map<String, String> stored = new HashMap<>();
+        Line lastAdjustment = null;
+        for (Line line : code) {
+            if (line.label != null || isBarrier(line)) {
+                copies.clear();
+                constants.clear();
+                stored.clear();
+                lastAdjustment = null;
+                continue;
+            }
+
+            for (int i : readOperands(line)) {
+                String source = copies.get(line.operands[i]);
+                if (source != null) {
+                    line.operands[i] = source;
+                    changed = true;
+                }
+            }
+            for (int i = 0; i < line.operands.length; i++) {
+                Matcher m = memory(line.operands[i]);
+                if (m != null && copies.containsKey(m.group(2))) {
+                    line.operands[i] = m.group(1) + "(" + copies.get(m.group(2)) + ")";
+                    changed = true;
+                }
+            }
+
+            String[] ops = line.operands;
+            if (line.op.equals("mv") && ops[0].equals(ops[1])) {
+                line.op = null;
+                changed = true;
+                continue;
+            }
+            if (line.op.equals("mul")) {
+                int shift = -1;
+                String other = null;
+                if (constants.containsKey(ops[2]) && Integer.bitCount(constants.get(ops[2])) == 1) {
+                    shift = Integer.numberOfTrailingZeros(constants.get(ops[2]));
+                    other = ops[1];
+                } else if (constants.containsKey(ops[1]) && Integer.bitCount(constants.get(ops[1])) == 1) {
+                    shift = Integer.numberOfTrailingZeros(constants.get(ops[1]));
+                    other = ops[2];
+                }
+                if (shift == 0) {
+                    line.set("mv", ops[0], other);
+                    changed = true;
+                } else if (shift > 0 && shift < 31) {
+                    line.set("slli", ops[0], other, Integer.toString(shift));
+                    changed = true;
+                }
+            } else if (line.op.equals("lw") && memory(ops[1]) != null && stored.containsKey(ops[1])) {
+                line.set("mv", ops[0], stored.get(ops[1]));
+                changed = true;
+                if (line.operands[0].equals(line.operands[1])) {
+                    line.op = null;
+                    continue;
+                }
+            }
+
+            ops = line.operands;
+
+            if (isSpAdjustment(line)) {
+                if (lastAdjustment != null) {
+                    int sum = Integer.parseInt(lastAdjustment.operands[2]) + Integer.parseInt(line.operands[2]);
+                    if (sum >= -2048 && sum < 2048) {
+                        line.op = null;
+                        changed = true;
+                        if (sum == 0) {
+                            lastAdjustment.op = null;
+                            lastAdjustment = null;
+                        } else {
+                            lastAdjustment.operands[2] = Integer.toString(sum);
+                        }
+                        continue;
+                    }
+                }
+            } else if (reads(line).contains("sp") || "sp".equals(write(line))) {
+                lastAdjustment = null;
+            }
+
+            String written = write(line);
+            if (written != null) {
+                copies.remove(written);
+                copies.values().removeIf(written::equals);
+                constants.remove(written);
+                Iterator<Map.Entry<String, String>> slots = stored.entrySet().iterator();
+                while (slots.hasNext()) {
+                    Map.Entry<String, String> slot = slots.next();
+                    if (slot.getValue().equals(written) || memory(slot.getKey()).group(2).equals(written)) {
+                        slots.remove();
+                    }
+                }
+            }
+            if (STORES.contains(line.op)) {
+                Matcher m = memory(ops[1]);
+                if (!line.op.equals("sw") || m == null) {
+                    stored.clear();
+                } else {
+                    // a store may overwrite any slot but those at other offsets from the same base
+                    stored.keySet().removeIf(slot -> mayAlias(slot, m));
+                    stored.put(ops[1], ops[0]);
+                }
+            } else if (line.op.equals("mv")) {
+                copies.put(ops[0], ops[1]);
+                if (constants.containsKey(ops[1])) {
+                    constants.put(ops[0], constants.get(ops[1]));
+                }
+            } else if (line.op.equals("li") && ops[1].matches("-?\\d+")) {
+                constants.put(ops[0], Integer.parseInt(ops[1]));
+                if (ops[1].equals("0")) {
+                    copies.put(ops[0], "zero");
+                }
+            }
+            if (isSpAdjustment(line)) {
+                lastAdjustment = line;
+            }
+
+            if (isJump(line)) {
+                copies.clear();
+                constants.clear();
+                stored.clear();
+                lastAdjustment = null;
+            }
+        }
+        code.removeIf(line -> line.label == null && line.op == null);
+        return changed;
+    }
+
+    /** True if memory operand SLOT may overlap the word at memory operand M. */
+    private static boolean mayAlias(String slot, Matcher m) {
+        Matcher s = memory(slot);
+        if (!s.group(2).equals(m.group(2))) {
+            return true;
+        }
+        String a = s.group(1);
+        String b = m.group(1);
+        return a.equals(b) || !a.matches("-?\\d+") || !b.matches("-?\\d+")
+                || Math.abs(Integer.parseInt(a) - Integer.parseInt(b)) < 4;
+    }
+
+    /**
+     * Removes the instructions of CODE that only write a register written again later in their
+     * block before being read. Returns true if any was.
+     */
+    private static boolean removeDeadWrites(List<Line> code) {
+        boolean changed = false;
+        Set<String> dead = new HashSet<>();
+        for (int i = code.size() - 1; i >= 0; i--) {
+            Line line = code.get(i);
+            if (line.label != null || isBarrier(line) || isJump(line)) {
+                dead.clear();
+                continue;
+            }
+            String written = write(line);
+            if (PURE.contains(line.op) && dead.contains(written) && !RESERVED.contains(written)) {
+                line.op = null;
+                changed = true;
+                continue;
+            }
+            if (written != null) {
+                dead.add(written);
+            }
+            dead.removeAll(reads(line));
+        }
+        code.removeIf(line -> line.label == null && line.op == null);
+        return changed;
+    }
+}
@@ -0,0 +1,314 @@
+package chocopy.pa3;
+
+import chocopy.common.codegen.RiscVBackend;
+import chocopy.common.codegen.RiscVBackend.Register;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static chocopy.common.codegen.RiscVBackend.Register.*;
+
+/**
+ * Register assignment for the temporaries of one function body (or of the top level).
+ *
+ * <p>The body is generated twice. In the planning pass the StmtAnalyzer emits into the
+ * PlanningBackend of this class, which throws the code away and only watches how temporaries
+ * are used: a temporary lives from getFreeReg() to FreeReg(), and crosses a call if it is read
+ * after a SaveBusyReg() that follows its last write. A jump back to an earlier label counts as a
+ * read of every live temporary, since the loop it closes may read them again. Because
+ * temporaries are released in LIFO order, the intervals are properly nested.
+ *
+ * <p>allocate() then assigns registers by a linear scan over the intervals in order of their
+ * start. Intervals crossing a call prefer the callee-saved S1-S9, which are saved once by the
+ * prologue instead of around every call; the others prefer the caller-saved T0-T6. When every
+ * register is taken, the oldest live interval gives up its register and is spilled to the stack
+ * until the new interval ends.
+ *
+ * <p>In the emission pass, the same sequence of requests is replayed and open() returns the
+ * planned assignment of each temporary in turn.
+ */
+public class RegisterAllocator {
+
+    /** Caller-saved registers available for temporaries. */
+    public static final Register[] CALLER_SAVED = {T0, T1, T2, T3, T4, T5, T6};
+    /** Callee-saved registers available for temporaries. S10 and S11 hold the heap bounds. */
+    public static final Register[] CALLEE_SAVED = {S1, S2, S3, S4, S5, S6, S7, S8, S9};
+    /** Registers standing in for temporaries during planning, by nesting depth. */
+    private static final Register[] PLACEHOLDERS = {
+        T0, T1, T2, T3, T4, T5, T6, S1, S2, S3, S4, S5, S6, S7, S8, S9
+    };
+
+    /** The live interval of one temporary. */
+    public static class Interval {
+        /** Position of the request that opened this interval. */
+        final int start;
+        /** True if the value of this temporary has to survive a call. */
+        boolean crossesCall = false;
+        /** True once the temporary has been written during planning. */
+        boolean written = false;
+        /** Number of calls seen when the temporary was last written during planning. */
+        int callsAtWrite;
+        /** The planning placeholder, then the register assigned by allocate(). */
+        Register reg;
+        /** The interval whose register was taken over (and must be spilled), or null. */
+        Interval displaced;
+
+        Interval(int start, Register reg) {
+            this.start = start;
+            this.reg = reg;
+        }
+
+        /** The register holding this temporary. */
+        public Register getRegister() {
+            return reg;
+        }
+
+        /** True if the value of this temporary has to survive a call. */
+        public boolean crossesCall() {
+            return crossesCall;
+        }
+
+        /** The interval whose value must be spilled while this one is live, or null. */
+        public Interval getDisplaced() {
+            return displaced;
+        }
+    }
+
+    /** All intervals in order of their start. */
+    private final List<Interval> intervals = new ArrayList<>();
+    /** Events in order: the interval opened, or null for a close. */
+    private final List<Interval> events = new ArrayList<>();
+    /** Intervals open during planning, innermost first. */
+    private final Deque<Interval> open = new ArrayDeque<>();
+    /** The innermost open interval standing behind each placeholder during planning. */
+    private final Map<Register, Deque<Interval>> placeholders = new EnumMap<>(Register.class);
+    /** Number of calls seen so far during planning. */
+    private int calls = 0;
+    /** Callee-saved registers used by the assignment. */
+    private final Set<Register> calleeSaved = EnumSet.noneOf(Register.class);
+    /** True once allocate() has run. */
+    private boolean allocated = false;
+    /** Index of the next interval handed out during emission. */
+    private int nextInterval = 0;
+
+    public RegisterAllocator() {
+        for (Register reg : PLACEHOLDERS) {
+            placeholders.put(reg, new ArrayDeque<>());
+        }
+    }
+
+    /** True while recording intervals, false once registers are assigned. */
+    public boolean isPlanning() {
+        return !allocated;
+    }
+
+    /**
+     * Starts a temporary. While planning, records a new interval held by a placeholder register;
+     * afterwards, returns the planned interval of the next temporary.
+     */
+    public Interval open() {
+        if (allocated) {
+            if (nextInterval >= intervals.size()) {
+                throw new IllegalStateException("Register request does not match the allocation plan");
+            }
+            return intervals.get(nextInterval++);
+        }
+
+        Register placeholder = PLACEHOLDERS[open.size() % PLACEHOLDERS.length];
+        Interval interval = new Interval(events.size(), placeholder);
+        Deque<Interval> holders = placeholders.get(placeholder);
+        if (!holders.isEmpty()) {
+            // uses of a shared placeholder cannot be told apart, so assume the worst
+            holders.peek().crossesCall = true;
+            interval.crossesCall = true;
+        }
+        holders.push(interval);
+        intervals.add(interval);
+        events.add(interval);
+        open.push(interval);
+        return interval;
+    }
+
+    /** Records the end of the innermost open temporary during planning. */
+    public void close() {
+        if (open.isEmpty()) {
+            return;
+        }
+        Interval interval = open.pop();
+        placeholders.get(interval.reg).pop();
+        events.add(null);
+    }
+
+    /** Records a call that clobbers the caller-saved registers. */
+    public void call() {
+        calls += 1;
+    }
+
+    /** Records a read of REG during planning. */
+    private void read(Register reg) {
+        Deque<Interval> holders = placeholders.get(reg);
+        if (holders != null && !holders.isEmpty()) {
+            Interval interval = holders.peek();
+            if (interval.written && interval.callsAtWrite != calls) {
+                interval.crossesCall = true;
+            }
+        }
+    }
+
+    /** Records a write of REG during planning. */
+    private void write(Register reg) {
+        Deque<Interval> holders = placeholders.get(reg);
+        if (holders != null && !holders.isEmpty()) {
+            Interval interval = holders.peek();
+            interval.written = true;
+            interval.callsAtWrite = calls;
+        }
+    }
+
+    /** Assigns a register to every recorded interval. */
+    public void allocate() {
+        Map<Register, Deque<Interval>> holders = new EnumMap<>(Register.class);
+        for (Register reg : PLACEHOLDERS) {
+            holders.put(reg, new ArrayDeque<>());
+        }
+
+        Deque<Interval> active = new ArrayDeque<>();
+        for (Interval event : events) {
+            if (event == null) {
+                Interval ended = active.pop();
+                holders.get(ended.reg).pop();
+                continue;
+            }
+
+            Register[] preferred = event.crossesCall ? CALLEE_SAVED : CALLER_SAVED;
+            Register[] fallback = event.crossesCall ? CALLER_SAVED : CALLEE_SAVED;
+            Register reg = firstFree(preferred, holders);
+            if (reg == null) {
+                reg = firstFree(fallback, holders);
+            }
+            if (reg == null) {
+                // Every register is taken: spill the one held by the oldest live interval.
+                Interval victim = null;
+                for (Deque<Interval> stack : holders.values()) {
+                    Interval holder = stack.peek();
+                    if (victim == null || holder.start < victim.start) {
+                        victim = holder;
+                    }
+                }
+                event.displaced = victim;
+                reg = victim.reg;
+            }
+
+            event.reg = reg;
+            holders.get(reg).push(event);
+            active.push(event);
+            if (isCalleeSaved(reg)) {
+                calleeSaved.add(reg);
+            }
+        }
+        allocated = true;
+    }
+
+    /** Returns the first register in CANDIDATES that no live interval holds, or null. */
+    private static Register firstFree(Register[] candidates, Map<Register, Deque<Interval>> holders) {
+        for (Register reg : candidates) {
+            if (holders.get(reg).isEmpty()) {
+                return reg;
+            }
+        }
+        return null;
+    }
+
+    /** True if REG is one of the callee-saved registers used for temporaries. */
+    public static boolean isCalleeSaved(Register reg) {
+        for (Register saved : CALLEE_SAVED) {
+            if (saved == reg) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the callee-saved registers the plan uses, in register order. */
+    public List<Register> getCalleeSaved() {
+        List<Register> result = new ArrayList<>();
+        for (Register reg : CALLEE_SAVED) {
+            if (calleeSaved.contains(reg)) {
+                result.add(reg);
+            }
+        }
+        return result;
+    }
+
+    /** Returns a backend that discards its code and reports the uses of temporaries to this plan. */
+    public RiscVBackend getPlanningBackend() {
+        return new PlanningBackend();
+    }
+
+    /** A backend that throws its code away, watching the reads and writes of temporaries. */
+    private class PlanningBackend extends RiscVBackend {
+        /** Registers by their assembly name. */
+        private final Map<String, Register> registers = new HashMap<>();
+        /** Labels emitted so far: a jump to one of them closes a loop. */
+        private final Set<String> emittedLabels = new HashSet<>();
+
+        PlanningBackend() {
+            for (Register reg : Register.values()) {
+                registers.put(reg.toString(), reg);
+            }
+        }
+
+        @Override
+        protected void emitLine(Line line) {
+            if (line.label != null) {
+                emittedLabels.add(line.label.toString());
+            }
+            if (!line.isInsn() || line.isDirective()) {
+                return;
+            }
+            String op = line.op;
+            String[] operands = line.operands;
+
+            boolean isStore = op.equals("sw") || op.equals("sb") || op.equals("sh");
+            boolean isJump = op.startsWith("b") || op.equals("j") || op.equals("jr") || op.equals("jalr");
+            int firstRead = isStore || isJump ? 0 : 1;
+            for (int i = firstRead; i < operands.length; i++) {
+                Register reg = operandRegister(operands[i]);
+                if (reg != null) {
+                    read(reg);
+                }
+            }
+            if (!isStore && !isJump && operands.length > 0 && !op.equals("jal")) {
+                Register reg = registers.get(operands[0]);
+                if (reg != null) {
+                    write(reg);
+                }
+            }
+
+            // a backward jump may run the loop body again, which may read any live temporary
+            if ((op.startsWith("b") || op.equals("j")) && operands.length > 0
+                    && emittedLabels.contains(operands[operands.length - 1])) {
+                for (Interval interval : open) {
+                    read(interval.reg);
+                }
+            }
+        }
+
+        /** Returns the register named by OPERAND, which may be OFFSET(REG), or null. */
+        private Register operandRegister(String operand) {
+            int paren = operand.indexOf('(');
+            if (paren >= 0 && operand.endsWith(")")) {
+                operand = operand.substring(paren + 1, operand.length() - 1);
+            }
+            return registers.get(operand);
+        }
+    }
+}
@@ -11,21 +11,60 @@ public class StudentCodeGen {
      * assembly code. DEBUG iff --debug was on the command line.
      */
     public static String process(Program program, boolean debug) {
+        return process(program, debug,
+                CodeGenBase.DEFAULT_HEAP_SIZE_BYTES, CodeGenBase.DEFAULT_HEAP_MAX_BYTES);
+    }
+
+    /**
+     * Performs code generation from PROGRAM as above, for a heap starting at HEAPSIZE bytes and
+     * growing up to HEAPMAX bytes, as given by --heap-size and --heap-max.
+     */
+    public static String process(Program program, boolean debug, int heapSize, int heapMax) {
         /* Emit code into a ByteOutputStream, and convert to a string.
          * If you need instructions not provided by RiscVBackend, feel
          * free to extend it. */
         try {
-            RiscVBackend backend = new RiscVBackend();
-            CodeGenBase codegen = new CodeGenImpl(backend);
-            codegen.generate(program);
+            RiscVBackend backend = new PeepholeBackend();
+            generate(program, backend, heapSize, heapMax);
             return backend.toString();
         } catch (IllegalStateException | IllegalArgumentException e) {
-            System.err.println(
-                    "Error performing code generation. Re-run with --debug to see stack trace.");
-            if (debug) {
-                e.printStackTrace();
-            }
+            reportError(e, debug);
             return null;
         }
     }
+
+    /**
+     * Performs code generation from PROGRAM as above, returning a static RV32IM ELF executable
+     * instead of assembly code (see ElfBackend).
+     */
+    public static byte[] processToElf(Program program, boolean debug, int heapSize, int heapMax) {
+        try {
+            ElfBackend backend = new ElfBackend();
+            generate(program, backend, heapSize, heapMax);
+            return backend.toElf();
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            reportError(e, debug);
+            return null;
+        }
+    }
+
+    /**
+     * Generates the code of PROGRAM into BACKEND, for a heap of HEAPSIZE to HEAPMAX bytes. Throws
+     * IllegalStateException or IllegalArgumentException if code generation fails.
+     */
+    static void generate(Program program, RiscVBackend backend, int heapSize, int heapMax) {
+        ConstantFolder.fold(program);
+        CodeGenBase codegen = new CodeGenImpl(backend);
+        codegen.setHeapSize(heapSize, heapMax);
+        codegen.generate(program);
+    }
+
+    /** Reports error E of code generation, with its stack trace if DEBUG. */
+    private static void reportError(RuntimeException e, boolean debug) {
+        System.err.println(
+                "Error performing code generation. Re-run with --debug to see stack trace.");
+        if (debug) {
+            e.printStackTrace();
+        }
+    }
 }
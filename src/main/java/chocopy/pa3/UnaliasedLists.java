@@ -0,0 +1,379 @@
+package chocopy.pa3;
+
+import chocopy.common.analysis.AbstractNodeAnalyzer;
+import chocopy.common.analysis.SymbolTable;
+import chocopy.common.analysis.types.ListValueType;
+import chocopy.common.analysis.types.Type;
+import chocopy.common.astnodes.*;
+import chocopy.common.codegen.FuncInfo;
+import chocopy.common.codegen.GlobalVarInfo;
+import chocopy.common.codegen.StackVarInfo;
+import chocopy.common.codegen.SymbolInfo;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the statements `x = x + [e]` and `x = x + y` that may grow the list in `x` in place,
+ * because no other reference to it can exist.
+ *
+ * <p>`x` is a local variable (not a parameter, and not used by a nested function), a global
+ * variable, or an attribute, all attributes of the same name being taken for one. It qualifies if
+ * it only ever holds new lists (those of list displays and concatenations) or None, and its value
+ * is only ever indexed, passed to len(), compared with `is`, or concatenated. A list never
+ * observed elsewhere can then be grown in place, by listappend and listextend, which leave room
+ * for as many elements again when they have to move it.
+ *
+ * <p>A call may grow a list held in a global or attribute while the caller holds it, to index or
+ * concatenate it: such a use, with a call in what is evaluated after the list, disqualifies the
+ * global or attribute. For the same reason, `e` and `y` must not contain calls then.
+ */
+public class UnaliasedLists extends AbstractNodeAnalyzer<Void> {
+    /** The code generator, for the conversions of list elements. */
+    private final CodeGenImpl codegen;
+    /** The statements growing a list in place, with the variable or attribute name they grow. */
+    private final Map<AssignStmt, Object> candidates = new HashMap<>();
+    /** The variables and attribute names whose lists may be referenced from elsewhere. */
+    private final Set<Object> escaped = new HashSet<>();
+    /** The symbol table of the body being analyzed. */
+    private SymbolTable<SymbolInfo> sym;
+    /** The function being analyzed, or null for the top level. */
+    private FuncInfo funcInfo;
+
+    private UnaliasedLists(CodeGenImpl codegen) {
+        this.codegen = codegen;
+    }
+
+    /**
+     * Returns the assignments of the program, whose top level is TOPLEVEL and functions
+     * FUNCTIONS, that may grow a list in place, as generated by CODEGEN.
+     */
+    public static Set<AssignStmt> find(CodeGenImpl codegen, List<Stmt> topLevel, List<FuncInfo> functions) {
+        UnaliasedLists analysis = new UnaliasedLists(codegen);
+        analysis.sym = codegen.getGlobalSymbols();
+        analysis.visit(topLevel);
+        for (FuncInfo func : functions) {
+            analysis.sym = func.getSymbolTable();
+            analysis.funcInfo = func;
+            analysis.visit(func.getStatements());
+        }
+        Set<AssignStmt> found = new HashSet<>();
+        for (Map.Entry<AssignStmt, Object> entry : analysis.candidates.entrySet()) {
+            if (!analysis.escaped.contains(entry.getValue())) {
+                found.add(entry.getKey());
+            }
+        }
+        return found;
+    }
+
+    /** Analyzes STMTS. */
+    private void visit(List<Stmt> stmts) {
+        for (Stmt stmt : stmts) {
+            stmt.dispatch(this);
+        }
+    }
+
+    // =====================
+    // References to lists.
+    // =====================
+
+    /**
+     * Returns what EXPR, an identifier or attribute access, refers to: the descriptor of a local
+     * or global variable, or an attribute name; null if it is neither, or a parameter. A local used
+     * by a nested function escapes.
+     */
+    private Object keyOf(Expr expr) {
+        if (expr instanceof MemberExpr) {
+            return ((MemberExpr) expr).member.name;
+        }
+        if (!(expr instanceof Identifier)) {
+            return null;
+        }
+        String name = ((Identifier) expr).name;
+        SymbolInfo info = sym.get(name);
+        if (info instanceof GlobalVarInfo) {
+            return info;
+        }
+        if (!(info instanceof StackVarInfo)) {
+            return null;
+        }
+        if (((StackVarInfo) info).getFuncInfo() != funcInfo) {
+            escaped.add(info);
+            return null;
+        }
+        return funcInfo.getParams().contains(name) ? null : info;
+    }
+
+    /** Notes that the list EXPR evaluates to may be referenced from elsewhere. */
+    private void escape(Expr expr) {
+        Object key = keyOf(expr);
+        if (key != null) {
+            escaped.add(key);
+        }
+    }
+
+    /** Analyzes EXPR, whose value is only used without being referenced from elsewhere. */
+    private void use(Expr expr) {
+        if (expr instanceof MemberExpr) {
+            ((MemberExpr) expr).object.dispatch(this);
+        } else if (expr instanceof Identifier) {
+            keyOf(expr);
+        } else {
+            expr.dispatch(this);
+        }
+    }
+
+    /** Analyzes EXPR as in use(), LATER being evaluated while its value is held. */
+    private void useAcross(Expr expr, Expr later) {
+        use(expr);
+        if (!(keyOf(expr) instanceof StackVarInfo) && !isCallFree(later)) {
+            escape(expr);
+        }
+    }
+
+    /** True if A and B are the same variable, or the same attribute of the same variable. */
+    private static boolean isSameReference(Expr a, Expr b) {
+        if (a instanceof Identifier && b instanceof Identifier) {
+            return ((Identifier) a).name.equals(((Identifier) b).name);
+        }
+        if (a instanceof MemberExpr && b instanceof MemberExpr) {
+            MemberExpr ma = (MemberExpr) a;
+            MemberExpr mb = (MemberExpr) b;
+            return ma.member.name.equals(mb.member.name) && isSameReference(ma.object, mb.object)
+                    && ma.object instanceof Identifier;
+        }
+        return false;
+    }
+
+    /** True if EXPR calls no function or method, but len(). */
+    private static boolean isCallFree(Expr expr) {
+        if (expr instanceof CallExpr) {
+            CallExpr call = (CallExpr) expr;
+            return call.function.name.equals("len") && isCallFree(call.args.get(0));
+        } else if (expr instanceof MethodCallExpr) {
+            return false;
+        } else if (expr instanceof BinaryExpr) {
+            return isCallFree(((BinaryExpr) expr).left) && isCallFree(((BinaryExpr) expr).right);
+        } else if (expr instanceof UnaryExpr) {
+            return isCallFree(((UnaryExpr) expr).operand);
+        } else if (expr instanceof IfExpr) {
+            IfExpr ifExpr = (IfExpr) expr;
+            return isCallFree(ifExpr.condition) && isCallFree(ifExpr.thenExpr) && isCallFree(ifExpr.elseExpr);
+        } else if (expr instanceof MemberExpr) {
+            return isCallFree(((MemberExpr) expr).object);
+        } else if (expr instanceof IndexExpr) {
+            return isCallFree(((IndexExpr) expr).list) && isCallFree(((IndexExpr) expr).index);
+        } else if (expr instanceof ListExpr) {
+            for (Expr element : ((ListExpr) expr).elements) {
+                if (!isCallFree(element)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (expr instanceof ForListExpr) {
+            ForListExpr forList = (ForListExpr) expr;
+            return isCallFree(forList.element) && isCallFree(forList.iterable);
+        }
+        return true;
+    }
+
+    /** True if EXPR always evaluates to a new list, or to None. */
+    private static boolean isNewList(Expr expr) {
+        return expr instanceof ListExpr || expr instanceof ForListExpr || expr instanceof NoneLiteral
+                || (expr instanceof BinaryExpr && ((BinaryExpr) expr).operator.equals("+")
+                    && ((BinaryExpr) expr).left.getInferredType() instanceof ListValueType);
+    }
+
+    /**
+     * Returns the variable or attribute name STMT grows the list of in place if it has the form
+     * `x = x + [e]` or `x = x + y`, with y needing no conversion, else null.
+     */
+    private Object growthOf(AssignStmt stmt) {
+        if (stmt.targets.size() != 1 || !(stmt.value instanceof BinaryExpr)) {
+            return null;
+        }
+        Expr target = stmt.targets.get(0);
+        BinaryExpr value = (BinaryExpr) stmt.value;
+        Type type = target.getInferredType();
+        if (!value.operator.equals("+") || !(type instanceof ListValueType)
+                || !isSameReference(target, value.left)) {
+            return null;
+        }
+        boolean isAppend = value.right instanceof ListExpr && ((ListExpr) value.right).elements.size() == 1;
+        if (!isAppend && codegen.listConversion(value.right.getInferredType(), type) != codegen.noconv) {
+            return null;
+        }
+        Object key = keyOf(target);
+        if (key == null || (!(key instanceof StackVarInfo) && !isCallFree(value.right))) {
+            return null;
+        }
+        return key;
+    }
+
+    // =====================
+    // Statements.
+    // =====================
+
+    @Override
+    public Void analyze(ExprStmt stmt) {
+        stmt.expr.dispatch(this);
+        return null;
+    }
+
+    @Override
+    public Void analyze(AssignStmt stmt) {
+        Object growth = growthOf(stmt);
+        if (growth != null) {
+            candidates.put(stmt, growth);
+            BinaryExpr value = (BinaryExpr) stmt.value;
+            use(value.left);
+            if (value.right instanceof ListExpr && ((ListExpr) value.right).elements.size() == 1) {
+                ((ListExpr) value.right).elements.get(0).dispatch(this);
+            } else {
+                use(value.right);
+            }
+            return null;
+        }
+
+        stmt.value.dispatch(this);
+        boolean isNew = stmt.targets.size() == 1 && isNewList(stmt.value);
+        for (Expr target : stmt.targets) {
+            if (target instanceof IndexExpr) {
+                useAcross(((IndexExpr) target).list, ((IndexExpr) target).index);
+                ((IndexExpr) target).index.dispatch(this);
+                continue;
+            }
+            use(target);
+            if (!isNew) {
+                escape(target);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void analyze(IfStmt stmt) {
+        stmt.condition.dispatch(this);
+        visit(stmt.thenBody);
+        visit(stmt.elseBody);
+        return null;
+    }
+
+    @Override
+    public Void analyze(WhileStmt stmt) {
+        stmt.condition.dispatch(this);
+        visit(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void analyze(ForStmt stmt) {
+        // the variable is assigned the elements of the iterable, lists it still references
+        escape(stmt.identifier);
+        stmt.iterable.dispatch(this);
+        visit(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void analyze(ReturnStmt stmt) {
+        if (stmt.value != null) {
+            stmt.value.dispatch(this);
+        }
+        return null;
+    }
+
+    // =====================
+    // Expressions.
+    // =====================
+
+    @Override
+    public Void analyze(Identifier id) {
+        escape(id);
+        return null;
+    }
+
+    @Override
+    public Void analyze(MemberExpr expr) {
+        escape(expr);
+        expr.object.dispatch(this);
+        return null;
+    }
+
+    @Override
+    public Void analyze(IndexExpr expr) {
+        useAcross(expr.list, expr.index);
+        expr.index.dispatch(this);
+        return null;
+    }
+
+    @Override
+    public Void analyze(BinaryExpr expr) {
+        if (expr.operator.equals("+") && expr.left.getInferredType() instanceof ListValueType) {
+            // concatenation copies the elements
+            useAcross(expr.left, expr.right);
+            use(expr.right);
+        } else if (expr.operator.equals("is")) {
+            use(expr.left);
+            use(expr.right);
+        } else {
+            expr.left.dispatch(this);
+            expr.right.dispatch(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void analyze(UnaryExpr expr) {
+        expr.operand.dispatch(this);
+        return null;
+    }
+
+    @Override
+    public Void analyze(IfExpr expr) {
+        expr.condition.dispatch(this);
+        expr.thenExpr.dispatch(this);
+        expr.elseExpr.dispatch(this);
+        return null;
+    }
+
+    @Override
+    public Void analyze(CallExpr expr) {
+        if (expr.function.name.equals("len") && expr.args.size() == 1) {
+            use(expr.args.get(0));
+            return null;
+        }
+        for (Expr arg : expr.args) {
+            arg.dispatch(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void analyze(MethodCallExpr expr) {
+        expr.method.object.dispatch(this);
+        for (Expr arg : expr.args) {
+            arg.dispatch(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void analyze(ListExpr expr) {
+        for (Expr element : expr.elements) {
+            element.dispatch(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void analyze(ForListExpr expr) {
+        escape(expr.identifier);
+        expr.element.dispatch(this);
+        expr.iterable.dispatch(this);
+        return null;
+    }
+}
@@ -0,0 +1,54 @@
+package chocopy.pa3.ir;
+
+import chocopy.common.codegen.Label;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A basic block: a straight-line sequence of instructions entered only at the top, and ended by a
+ * single terminator (JUMP, BRANCH, RETURN or a tail call).
+ */
+public class BasicBlock {
+    /** The label of the block in the emitted code. */
+    public final Label label;
+    /** The instructions, the terminator last. */
+    public final List<Insn> insns = new ArrayList<>();
+
+    /** An empty block labeled LABEL. */
+    BasicBlock(Label label) {
+        this.label = label;
+    }
+
+    /** True if the block already ends with a terminator. */
+    public boolean isTerminated() {
+        return !insns.isEmpty() && insns.get(insns.size() - 1).op.isTerminator();
+    }
+
+    /** Returns the terminator of the block. */
+    public Insn getTerminator() {
+        return insns.get(insns.size() - 1);
+    }
+
+    /** Returns the blocks control may pass to from this one. */
+    public List<BasicBlock> getSuccessors() {
+        List<BasicBlock> succs = new ArrayList<>();
+        if (!isTerminated()) {
+            return succs;
+        }
+        Insn term = getTerminator();
+        if (term.target != null) {
+            succs.add(term.target);
+        }
+        if (term.elseTarget != null && term.elseTarget != term.target) {
+            succs.add(term.elseTarget);
+        }
+        return succs;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return label.toString();
+    }
+}
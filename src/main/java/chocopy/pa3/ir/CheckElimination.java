@@ -0,0 +1,380 @@
+package chocopy.pa3.ir;
+
+import chocopy.common.analysis.types.ListValueType;
+import chocopy.common.analysis.types.Type;
+import chocopy.common.codegen.Label;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes the None and bounds checks a function in SSA form provably passes.
+ *
+ * <p>Facts are collected along the dominator tree, and hold in the blocks dominated by where they
+ * are established:
+ * <ul>
+ *   <li>a value is non-zero after a CHECK_NONZERO of it, and on the edge of a branch comparing it
+ *       with 0 (e.g. `x is None`) where it is not 0;
+ *   <li>an index is below the length of a list or string after a CHECK_BOUNDS against it, and on
+ *       the edge of a branch comparing the two (e.g. `while i < len(x)`) where it is below; it is
+ *       also non-negative after the CHECK_BOUNDS.
+ * </ul>
+ * Besides, some values are non-zero or non-negative wherever they are defined: new objects,
+ * addresses, the results of the runtime routines returning new objects, lengths, and copies and
+ * phis of such values, found by an optimistic fixpoint. An increment by 1 of an index known to be
+ * below a length cannot overflow, so it keeps the index non-negative.
+ *
+ * <p>Lists never shrink, growing in place at most (see UnaliasedLists), so an index found below
+ * the length of the list an SSA value points to stays below it.
+ */
+public class CheckElimination {
+    /** The function being optimized. */
+    private final IrFunction func;
+    /** The runtime routines returning a new object, never None. */
+    private final Set<Label> nonNullRoutines;
+    /** The definition of each register. */
+    private final Map<VReg, Insn> defs = new HashMap<>();
+    /** The predecessors of each block. */
+    private final Map<BasicBlock, List<BasicBlock>> preds;
+    /** The dominator tree. */
+    private final Dominators doms;
+
+    /** The values non-zero wherever they are defined. */
+    private Set<VReg> nonZero = new HashSet<>();
+    /** The values non-negative wherever they are defined. */
+    private Set<VReg> nonNegative = new HashSet<>();
+    /** The increments of an index known to be below a length at that point. */
+    private final Set<VReg> boundedIncrements = new HashSet<>();
+
+    /** The values known non-zero at the current point. */
+    private final Set<VReg> nonZeroFacts = new HashSet<>();
+    /** The values known non-negative at the current point. */
+    private final Set<VReg> nonNegativeFacts = new HashSet<>();
+    /** The indices known below the lengths of lists or strings at the current point, by index. */
+    private final Map<VReg, Set<VReg>> belowFacts = new HashMap<>();
+
+    private CheckElimination(IrFunction func, Set<Label> nonNullRoutines) {
+        this.func = func;
+        this.nonNullRoutines = nonNullRoutines;
+        for (BasicBlock block : func.blocks) {
+            for (Insn insn : block.insns) {
+                if (insn.dst != null) {
+                    defs.put(insn.dst, insn);
+                }
+            }
+        }
+        this.preds = func.getPredecessors();
+        this.doms = new Dominators(func);
+    }
+
+    /**
+     * Removes the checks FUNC, which must be in SSA form, provably passes. The calls of
+     * NONNULLROUTINES never return None.
+     */
+    public static void run(IrFunction func, Set<Label> nonNullRoutines) {
+        CheckElimination pass = new CheckElimination(func, nonNullRoutines);
+        // the first walk only finds the increments that cannot overflow
+        pass.walk(func.getEntry(), false);
+        pass.nonZero = pass.findNonZero();
+        pass.nonNegative = pass.findNonNegative();
+        pass.walk(func.getEntry(), true);
+    }
+
+    /** Returns the value REG is a copy of, following moves. */
+    private VReg root(VReg reg) {
+        Insn def = defs.get(reg);
+        while (def != null && def.op == Op.MOVE) {
+            reg = def.src(0);
+            def = defs.get(reg);
+        }
+        return reg;
+    }
+
+    /** True if REG is the constant VALUE. */
+    private boolean isConstant(VReg reg, int value) {
+        Insn def = defs.get(root(reg));
+        return def != null && def.op == Op.CONST && def.imm == value;
+    }
+
+    /** Returns the list or string REG is the length of, or null if it is not a length. */
+    private VReg lengthOf(VReg reg) {
+        Insn def = defs.get(root(reg));
+        if (def == null || def.op != Op.LOAD || def.imm != 12) {
+            return null;
+        }
+        Type type = def.src(0).type;
+        if (type instanceof ListValueType || Type.STR_TYPE.equals(type) || Type.EMPTY_TYPE.equals(type)) {
+            return root(def.src(0));
+        }
+        return null;
+    }
+
+    // =====================
+    // Values known everywhere.
+    // =====================
+
+    /** Returns the values non-zero wherever they are defined. */
+    private Set<VReg> findNonZero() {
+        Set<VReg> found = new HashSet<>();
+        for (Insn def : defs.values()) {
+            switch (def.op) {
+                case NEW:
+                case ADDR:
+                case BOX_INT:
+                case BOX_BOOL:
+                case MOVE:
+                case PHI:
+                    found.add(def.dst);
+                    break;
+                case CONST:
+                    if (def.imm != 0) {
+                        found.add(def.dst);
+                    }
+                    break;
+                case CALL:
+                    if (nonNullRoutines.contains(def.label)) {
+                        found.add(def.dst);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return refine(found);
+    }
+
+    /** Returns the values non-negative wherever they are defined. */
+    private Set<VReg> findNonNegative() {
+        Set<VReg> found = new HashSet<>();
+        for (Insn def : defs.values()) {
+            switch (def.op) {
+                case LOAD_BYTE:
+                case NOT:
+                case EQ:
+                case NE:
+                case LT:
+                case LE:
+                case GT:
+                case GE:
+                case MOVE:
+                case PHI:
+                    found.add(def.dst);
+                    break;
+                case CONST:
+                    if (def.imm >= 0) {
+                        found.add(def.dst);
+                    }
+                    break;
+                case LOAD:
+                    if (lengthOf(def.dst) != null) {
+                        found.add(def.dst);
+                    }
+                    break;
+                case ADDI:
+                    if (boundedIncrements.contains(def.dst)) {
+                        found.add(def.dst);
+                    }
+                    break;
+                case DIV:
+                case MOD:
+                    // rounding towards negative infinity, by a positive divisor
+                    Insn divisor = defs.get(root(def.src(1)));
+                    if (divisor != null && divisor.op == Op.CONST && divisor.imm > 0) {
+                        found.add(def.dst);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return refine(found);
+    }
+
+    /**
+     * Removes from FOUND, an optimistic guess, the copies, phis, increments and quotients with an
+     * operand not in FOUND, until none is left, and returns FOUND.
+     */
+    private Set<VReg> refine(Set<VReg> found) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Insn def : defs.values()) {
+                if (!found.contains(def.dst)) {
+                    continue;
+                }
+                boolean holds = true;
+                switch (def.op) {
+                    case MOVE:
+                    case PHI:
+                        for (VReg src : def.srcs) {
+                            holds &= found.contains(src);
+                        }
+                        break;
+                    case ADDI:
+                    case DIV:
+                        holds = found.contains(def.src(0));
+                        break;
+                    default:
+                        break;
+                }
+                if (!holds) {
+                    found.remove(def.dst);
+                    changed = true;
+                }
+            }
+        }
+        return found;
+    }
+
+    // =====================
+    // Facts along the dominator tree.
+    // =====================
+
+    /** A fact established at some point, to be retracted when leaving its scope. */
+    private static class Fact {
+        /** The set the fact was added to. */
+        final Set<VReg> set;
+        /** The value added. */
+        final VReg value;
+
+        Fact(Set<VReg> set, VReg value) {
+            this.set = set;
+            this.value = value;
+        }
+    }
+
+    /** Adds VALUE to SET, recording the addition in ADDED if it is new. */
+    private void learn(Set<VReg> set, VReg value, List<Fact> added) {
+        if (set.add(value)) {
+            added.add(new Fact(set, value));
+        }
+    }
+
+    /** Records that INDEX is below the length of BASE, noting the addition in ADDED. */
+    private void learnBelow(VReg index, VReg base, List<Fact> added) {
+        learn(belowFacts.computeIfAbsent(index, r -> new HashSet<>()), base, added);
+    }
+
+    /** True if REG is known non-zero at the current point. */
+    private boolean isNonZero(VReg reg) {
+        return nonZero.contains(reg) || nonZeroFacts.contains(reg);
+    }
+
+    /** True if REG is known non-negative at the current point. */
+    private boolean isNonNegative(VReg reg) {
+        return nonNegative.contains(reg) || nonNegativeFacts.contains(reg);
+    }
+
+    /** True if INDEX is known below the length of BASE at the current point. */
+    private boolean isBelow(VReg index, VReg base) {
+        Set<VReg> bases = belowFacts.get(index);
+        return bases != null && bases.contains(base);
+    }
+
+    /**
+     * Walks BLOCK and the blocks it dominates, collecting facts, and removing the checks that
+     * always pass if ELIMINATE, else noting the increments that cannot overflow.
+     */
+    private void walk(BasicBlock block, boolean eliminate) {
+        List<Fact> added = new ArrayList<>();
+        List<BasicBlock> blockPreds = preds.get(block);
+        if (blockPreds.size() == 1) {
+            Insn term = blockPreds.get(0).getTerminator();
+            if (term.op == Op.BRANCH && term.target != term.elseTarget) {
+                assume(term.src(0), term.target == block, added);
+            }
+        }
+
+        for (int i = 0; i < block.insns.size(); i++) {
+            Insn insn = block.insns.get(i);
+            switch (insn.op) {
+                case CHECK_NONZERO: {
+                    VReg value = root(insn.src(0));
+                    if (eliminate && isNonZero(value)) {
+                        block.insns.remove(i--);
+                    } else {
+                        learn(nonZeroFacts, value, added);
+                    }
+                    break;
+                }
+                case CHECK_BOUNDS: {
+                    VReg index = root(insn.src(0));
+                    VReg base = lengthOf(insn.src(1));
+                    if (eliminate && base != null && isBelow(index, base) && isNonNegative(index)) {
+                        block.insns.remove(i--);
+                    } else {
+                        if (base != null) {
+                            learnBelow(index, base, added);
+                        }
+                        learn(nonNegativeFacts, index, added);
+                    }
+                    break;
+                }
+                case ADDI:
+                    if (!eliminate && (insn.imm == 0 || insn.imm == 1)
+                            && belowFacts.containsKey(root(insn.src(0)))
+                            && !belowFacts.get(root(insn.src(0))).isEmpty()) {
+                        boundedIncrements.add(insn.dst);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        for (BasicBlock child : doms.getChildren(block)) {
+            walk(child, eliminate);
+        }
+        for (Fact fact : added) {
+            fact.set.remove(fact.value);
+        }
+    }
+
+    /** Records the facts implied by COND being TRUTH (non-zero if true), noting them in ADDED. */
+    private void assume(VReg cond, boolean truth, List<Fact> added) {
+        Insn def = defs.get(root(cond));
+        if (def == null) {
+            return;
+        }
+        VReg left = def.srcs.size() > 0 ? def.src(0) : null;
+        VReg right = def.srcs.size() > 1 ? def.src(1) : null;
+        switch (def.op) {
+            case NOT:
+                assume(left, !truth, added);
+                break;
+            case EQ:
+            case NE:
+                if ((def.op == Op.NE) == truth) {
+                    if (isConstant(right, 0)) {
+                        learn(nonZeroFacts, root(left), added);
+                    } else if (isConstant(left, 0)) {
+                        learn(nonZeroFacts, root(right), added);
+                    }
+                }
+                break;
+            case LT:
+            case GE:
+                // left < right
+                if ((def.op == Op.LT) == truth && lengthOf(right) != null) {
+                    learnBelow(root(left), lengthOf(right), added);
+                }
+                break;
+            case GT:
+            case LE:
+                // right < left
+                if ((def.op == Op.GT) == truth && lengthOf(left) != null) {
+                    learnBelow(root(right), lengthOf(left), added);
+                }
+                break;
+            default:
+                if (truth) {
+                    learn(nonZeroFacts, root(cond), added);
+                }
+                break;
+        }
+    }
+}
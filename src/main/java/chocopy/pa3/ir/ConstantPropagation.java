@@ -0,0 +1,325 @@
+package chocopy.pa3.ir;
+
+import chocopy.pa3.ConstantFolder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sparse conditional constant propagation, after Wegman and Zadeck, over a function in SSA form.
+ *
+ * <p>Every register gets a lattice value: unknown so far, a known constant, or varying. Only the
+ * blocks reached along edges found executable so far are evaluated, so a branch on a constant
+ * makes only one of its arms executable, and phis ignore the values flowing in from the other.
+ *
+ * <p>The function is then rewritten: the definitions of constants become CONST, additions of
+ * small constants ADDI, branches on constants jumps, and checks of non-zero constants are
+ * dropped. The blocks never reached are removed, and the definitions left without uses deleted.
+ */
+public class ConstantPropagation {
+    /** The lattice value of a register no executable definition reached yet. */
+    private static final int UNKNOWN = 0;
+    /** The lattice value of a register that always holds the same constant. */
+    private static final int CONSTANT = 1;
+    /** The lattice value of a register that may hold different values. */
+    private static final int VARYING = 2;
+
+    /** The function being optimized. */
+    private final IrFunction func;
+    /** The lattice value of each register, by id. */
+    private final int[] state;
+    /** The constant of each register whose lattice value is CONSTANT, by id. */
+    private final int[] value;
+    /** The instructions reading each register, by id. */
+    private final List<List<Insn>> uses = new ArrayList<>();
+    /** The block of each instruction. */
+    private final Map<Insn, BasicBlock> blockOf = new HashMap<>();
+    /** The blocks found executable. */
+    private final Set<BasicBlock> executable = new HashSet<>();
+    /** The successors of each block along the edges found executable. */
+    private final Map<BasicBlock, Set<BasicBlock>> executableEdges = new HashMap<>();
+    /** The edges found executable but not yet followed, as pairs of blocks (null for entry). */
+    private final Deque<BasicBlock[]> edgeWork = new ArrayDeque<>();
+    /** The registers whose lattice value changed but whose uses were not yet revisited. */
+    private final Deque<VReg> regWork = new ArrayDeque<>();
+
+    private ConstantPropagation(IrFunction func) {
+        this.func = func;
+        this.state = new int[func.getRegCount()];
+        this.value = new int[func.getRegCount()];
+    }
+
+    /** Propagates constants through FUNC, which must be in SSA form, and rewrites it. */
+    public static void run(IrFunction func) {
+        ConstantPropagation pass = new ConstantPropagation(func);
+        pass.propagate();
+        pass.rewrite();
+        func.removeDeadCode();
+    }
+
+    // =====================
+    // Propagation.
+    // =====================
+
+    /** Finds the executable blocks and the lattice value of every register. */
+    private void propagate() {
+        boolean[] defined = new boolean[func.getRegCount()];
+        for (int id = 0; id < func.getRegCount(); id++) {
+            uses.add(new ArrayList<>());
+        }
+        for (BasicBlock block : func.blocks) {
+            executableEdges.put(block, new HashSet<>());
+            for (Insn insn : block.insns) {
+                blockOf.put(insn, block);
+                for (VReg src : insn.srcs) {
+                    uses.get(src.id).add(insn);
+                }
+                if (insn.dst != null) {
+                    defined[insn.dst.id] = true;
+                }
+            }
+        }
+        // parameters, and registers read before any definition, may hold anything
+        for (int id = 0; id < func.getRegCount(); id++) {
+            if (!defined[id]) {
+                state[id] = VARYING;
+            }
+        }
+
+        edgeWork.add(new BasicBlock[] {null, func.getEntry()});
+        while (!edgeWork.isEmpty() || !regWork.isEmpty()) {
+            if (!edgeWork.isEmpty()) {
+                BasicBlock[] edge = edgeWork.poll();
+                if (edge[0] != null && !executableEdges.get(edge[0]).add(edge[1])) {
+                    continue;
+                }
+                boolean isNew = executable.add(edge[1]);
+                for (Insn insn : edge[1].insns) {
+                    if (isNew || insn.op == Op.PHI) {
+                        visit(insn);
+                    }
+                }
+            } else {
+                VReg reg = regWork.poll();
+                for (Insn insn : uses.get(reg.id)) {
+                    if (executable.contains(blockOf.get(insn))) {
+                        visit(insn);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Evaluates INSN with the current lattice values. */
+    private void visit(Insn insn) {
+        BasicBlock block = blockOf.get(insn);
+        switch (insn.op) {
+            case JUMP:
+                edgeWork.add(new BasicBlock[] {block, insn.target});
+                return;
+            case BRANCH:
+                VReg cond = insn.src(0);
+                if (state[cond.id] == CONSTANT) {
+                    edgeWork.add(new BasicBlock[] {block, value[cond.id] != 0 ? insn.target : insn.elseTarget});
+                } else if (state[cond.id] == VARYING) {
+                    edgeWork.add(new BasicBlock[] {block, insn.target});
+                    edgeWork.add(new BasicBlock[] {block, insn.elseTarget});
+                }
+                return;
+            case PHI:
+                for (int i = 0; i < insn.srcs.size(); i++) {
+                    if (executableEdges.get(insn.phiBlocks.get(i)).contains(block)) {
+                        VReg src = insn.src(i);
+                        lower(insn.dst, state[src.id], value[src.id]);
+                    }
+                }
+                return;
+            default:
+                break;
+        }
+        if (insn.dst == null) {
+            return;
+        }
+        if (insn.op.hasSideEffect()) {
+            lower(insn.dst, VARYING, 0);
+            return;
+        }
+        int[] operands = new int[insn.srcs.size()];
+        for (int i = 0; i < operands.length; i++) {
+            VReg src = insn.src(i);
+            if (state[src.id] != CONSTANT) {
+                lower(insn.dst, state[src.id], 0);
+                return;
+            }
+            operands[i] = value[src.id];
+        }
+        Integer result = fold(insn.op, operands, insn.imm);
+        if (result == null) {
+            lower(insn.dst, VARYING, 0);
+        } else {
+            lower(insn.dst, CONSTANT, result);
+        }
+    }
+
+    /** Meets the lattice value of REG with NEWSTATE (holding NEWVALUE if CONSTANT). */
+    private void lower(VReg reg, int newState, int newValue) {
+        int id = reg.id;
+        if (newState == UNKNOWN || state[id] == VARYING
+                || (newState == CONSTANT && state[id] == CONSTANT && value[id] == newValue)) {
+            return;
+        }
+        if (state[id] == CONSTANT) {
+            newState = VARYING;
+        }
+        state[id] = newState;
+        value[id] = newValue;
+        regWork.add(reg);
+    }
+
+    /**
+     * Returns the result of OP on the constant OPERANDS and IMM, or null if OP cannot be
+     * evaluated at compile time.
+     */
+    private static Integer fold(Op op, int[] operands, int imm) {
+        switch (op) {
+            case CONST:
+                return imm;
+            case MOVE:
+                return operands[0];
+            case ADD:
+                return operands[0] + operands[1];
+            case SUB:
+                return operands[0] - operands[1];
+            case MUL:
+                return operands[0] * operands[1];
+            case DIV:
+                return operands[1] == 0 ? null : ConstantFolder.intDiv(operands[0], operands[1]);
+            case MOD:
+                return operands[1] == 0 ? null : Math.floorMod(operands[0], operands[1]);
+            case ADDI:
+                return operands[0] + imm;
+            case SLLI:
+                return operands[0] << imm;
+            case NEG:
+                return -operands[0];
+            case NOT:
+                return operands[0] == 0 ? 1 : 0;
+            case EQ:
+                return operands[0] == operands[1] ? 1 : 0;
+            case NE:
+                return operands[0] != operands[1] ? 1 : 0;
+            case LT:
+                return operands[0] < operands[1] ? 1 : 0;
+            case LE:
+                return operands[0] <= operands[1] ? 1 : 0;
+            case GT:
+                return operands[0] > operands[1] ? 1 : 0;
+            case GE:
+                return operands[0] >= operands[1] ? 1 : 0;
+            default:
+                return null;
+        }
+    }
+
+    // =====================
+    // Rewriting.
+    // =====================
+
+    /** True if REG is known to hold a constant. */
+    private boolean isConstant(VReg reg) {
+        return state[reg.id] == CONSTANT;
+    }
+
+    /** True if VALUE fits the 12-bit immediate of ADDI. */
+    private static boolean isSmallImmediate(long value) {
+        return -2048 <= value && value <= 2047;
+    }
+
+    /** Rewrites the function with the lattice values found. */
+    private void rewrite() {
+        func.blocks.retainAll(executable);
+        for (BasicBlock block : func.blocks) {
+            Iterator<Insn> iter = block.insns.iterator();
+            while (iter.hasNext()) {
+                Insn insn = iter.next();
+                if (insn.op == Op.PHI) {
+                    // drop the values flowing in along edges never taken
+                    for (int i = insn.srcs.size() - 1; i >= 0; i--) {
+                        if (!executableEdges.get(insn.phiBlocks.get(i)).contains(block)) {
+                            insn.srcs.remove(i);
+                            insn.phiBlocks.remove(i);
+                        }
+                    }
+                    if (insn.srcs.size() == 1) {
+                        insn.op = Op.MOVE;
+                        insn.phiBlocks.clear();
+                    }
+                }
+                if (insn.dst != null && isConstant(insn.dst) && insn.op != Op.CONST
+                        && !insn.op.hasSideEffect()) {
+                    insn.op = Op.CONST;
+                    insn.imm = value[insn.dst.id];
+                    insn.srcs.clear();
+                    insn.phiBlocks.clear();
+                    insn.label = null;
+                    continue;
+                }
+                switch (insn.op) {
+                    case ADD:
+                    case SUB:
+                        if (isConstant(insn.src(1)) && value[insn.src(1).id] == 0) {
+                            insn.op = Op.MOVE;
+                            insn.srcs.remove(1);
+                            break;
+                        }
+                        if (insn.op == Op.SUB) {
+                            if (isConstant(insn.src(1)) && isSmallImmediate(-(long) value[insn.src(1).id])) {
+                                toAddImmediate(insn, insn.src(0), -value[insn.src(1).id]);
+                            }
+                            break;
+                        }
+                        if (isConstant(insn.src(1)) && isSmallImmediate(value[insn.src(1).id])) {
+                            toAddImmediate(insn, insn.src(0), value[insn.src(1).id]);
+                        } else if (isConstant(insn.src(0)) && isSmallImmediate(value[insn.src(0).id])) {
+                            toAddImmediate(insn, insn.src(1), value[insn.src(0).id]);
+                        }
+                        break;
+                    case CHECK_NONZERO:
+                        if (isConstant(insn.src(0)) && value[insn.src(0).id] != 0) {
+                            iter.remove();
+                        }
+                        break;
+                    case BRANCH:
+                        if (isConstant(insn.src(0))) {
+                            insn.op = Op.JUMP;
+                            if (value[insn.src(0).id] == 0) {
+                                insn.target = insn.elseTarget;
+                            }
+                            insn.elseTarget = null;
+                            insn.srcs.clear();
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            // phis turned into copies or constants go after the remaining ones
+            block.insns.sort((a, b) -> Boolean.compare(a.op != Op.PHI, b.op != Op.PHI));
+        }
+    }
+
+    /** Turns INSN into dst := SRC + IMM. */
+    private static void toAddImmediate(Insn insn, VReg src, int imm) {
+        insn.op = Op.ADDI;
+        insn.srcs.clear();
+        insn.srcs.add(src);
+        insn.imm = imm;
+    }
+}
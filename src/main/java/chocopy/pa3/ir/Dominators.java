@@ -0,0 +1,133 @@
+package chocopy.pa3.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The dominator tree and dominance frontiers of a function, computed by the iterative algorithm
+ * of Cooper, Harvey and Kennedy. All blocks of the function must be reachable from its entry.
+ */
+public class Dominators {
+    /** The blocks in reverse postorder, the entry first. */
+    private final List<BasicBlock> reversePostorder = new ArrayList<>();
+    /** The immediate dominator of each block; the entry is its own. */
+    private final Map<BasicBlock, BasicBlock> idom = new HashMap<>();
+    /** The blocks each block immediately dominates, in reverse postorder. */
+    private final Map<BasicBlock, List<BasicBlock>> children = new HashMap<>();
+    /** The dominance frontier of each block. */
+    private final Map<BasicBlock, Set<BasicBlock>> frontier = new HashMap<>();
+
+    /** Computes the dominators of FUNC. */
+    public Dominators(IrFunction func) {
+        BasicBlock entry = func.getEntry();
+        postorder(entry, new HashSet<>());
+        Collections.reverse(reversePostorder);
+        Map<BasicBlock, Integer> index = new HashMap<>();
+        for (int i = 0; i < reversePostorder.size(); i++) {
+            index.put(reversePostorder.get(i), i);
+        }
+        Map<BasicBlock, List<BasicBlock>> preds = func.getPredecessors();
+
+        idom.put(entry, entry);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : reversePostorder) {
+                if (block == entry) {
+                    continue;
+                }
+                BasicBlock newIdom = null;
+                for (BasicBlock pred : preds.get(block)) {
+                    if (!idom.containsKey(pred)) {
+                        continue;
+                    }
+                    newIdom = newIdom == null ? pred : intersect(pred, newIdom, index);
+                }
+                if (idom.get(block) != newIdom) {
+                    idom.put(block, newIdom);
+                    changed = true;
+                }
+            }
+        }
+
+        for (BasicBlock block : reversePostorder) {
+            children.put(block, new ArrayList<>());
+            frontier.put(block, new LinkedHashSet<>());
+        }
+        for (BasicBlock block : reversePostorder) {
+            if (block != entry) {
+                children.get(idom.get(block)).add(block);
+            }
+            if (preds.get(block).size() < 2) {
+                continue;
+            }
+            for (BasicBlock pred : preds.get(block)) {
+                for (BasicBlock runner = pred; runner != idom.get(block); runner = idom.get(runner)) {
+                    frontier.get(runner).add(block);
+                }
+            }
+        }
+    }
+
+    /** Appends the blocks reachable from BLOCK and not in VISITED to the postorder. */
+    private void postorder(BasicBlock block, Set<BasicBlock> visited) {
+        visited.add(block);
+        for (BasicBlock succ : block.getSuccessors()) {
+            if (!visited.contains(succ)) {
+                postorder(succ, visited);
+            }
+        }
+        reversePostorder.add(block);
+    }
+
+    /** Returns the closest common dominator of A and B, given the reverse postorder INDEX. */
+    private BasicBlock intersect(BasicBlock a, BasicBlock b, Map<BasicBlock, Integer> index) {
+        while (a != b) {
+            while (index.get(a) > index.get(b)) {
+                a = idom.get(a);
+            }
+            while (index.get(b) > index.get(a)) {
+                b = idom.get(b);
+            }
+        }
+        return a;
+    }
+
+    /** Returns the blocks in reverse postorder, the entry first. */
+    public List<BasicBlock> getReversePostorder() {
+        return reversePostorder;
+    }
+
+    /** Returns the immediate dominator of BLOCK, or BLOCK itself for the entry. */
+    public BasicBlock getIdom(BasicBlock block) {
+        return idom.get(block);
+    }
+
+    /** Returns the blocks BLOCK immediately dominates. */
+    public List<BasicBlock> getChildren(BasicBlock block) {
+        return children.get(block);
+    }
+
+    /** Returns the dominance frontier of BLOCK. */
+    public Set<BasicBlock> getFrontier(BasicBlock block) {
+        return frontier.get(block);
+    }
+
+    /** True if A dominates B. */
+    public boolean dominates(BasicBlock a, BasicBlock b) {
+        while (b != a) {
+            BasicBlock up = idom.get(b);
+            if (up == b) {
+                return false;
+            }
+            b = up;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,96 @@
+package chocopy.pa3.ir;
+
+import chocopy.common.codegen.Label;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One IR instruction: an operation OP writing at most one register DST and reading the registers
+ * SRCS. Depending on OP, IMM, LABEL and the branch targets give the remaining operands.
+ *
+ * <p>The fields are mutable so that passes can rewrite instructions in place.
+ */
+public class Insn {
+    /** The operation. */
+    public Op op;
+    /** The register written, or null. */
+    public VReg dst;
+    /** The registers read, in operand order. */
+    public final List<VReg> srcs;
+    /** The immediate operand (CONST, ADDI, SLLI, LOAD, LOAD_BYTE, STORE). */
+    public int imm;
+    /** The label operand (ADDR, LOAD_GLOBAL, STORE_GLOBAL, CHECK_*, NEW, CALL). */
+    public Label label;
+    /** The target of JUMP, and of BRANCH if its condition holds. */
+    public BasicBlock target;
+    /** The target of BRANCH if its condition does not hold. */
+    public BasicBlock elseTarget;
+    /** The predecessors the sources of PHI come from, in the same order. */
+    public final List<BasicBlock> phiBlocks = new ArrayList<>();
+    /** A note carried into the comment of the emitted code, or null. */
+    public String comment;
+
+    /** An instruction OP writing DST and reading SRCS. */
+    public Insn(Op op, VReg dst, VReg... srcs) {
+        this.op = op;
+        this.dst = dst;
+        this.srcs = new ArrayList<>(Arrays.asList(srcs));
+    }
+
+    /** An instruction OP writing DST and reading SRCS. */
+    public Insn(Op op, VReg dst, List<VReg> srcs) {
+        this.op = op;
+        this.dst = dst;
+        this.srcs = new ArrayList<>(srcs);
+    }
+
+    /** Returns source operand I. */
+    public VReg src(int i) {
+        return srcs.get(i);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (dst != null) {
+            sb.append(dst).append(" = ");
+        }
+        sb.append(op.name().toLowerCase());
+        List<String> operands = new ArrayList<>();
+        for (int i = 0; i < srcs.size(); i++) {
+            if (op == Op.PHI) {
+                operands.add(String.format("%s [%s]", srcs.get(i), phiBlocks.get(i).label));
+            } else {
+                operands.add(srcs.get(i).toString());
+            }
+        }
+        switch (op) {
+            case CONST:
+            case ADDI:
+            case SLLI:
+            case LOAD:
+            case LOAD_BYTE:
+            case STORE:
+                operands.add(Integer.toString(imm));
+                break;
+            default:
+                break;
+        }
+        if (label != null) {
+            operands.add(label.toString());
+        }
+        if (target != null) {
+            operands.add(target.label.toString());
+        }
+        if (elseTarget != null) {
+            operands.add(elseTarget.label.toString());
+        }
+        if (!operands.isEmpty()) {
+            sb.append(" ").append(String.join(", ", operands));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,868 @@
+package chocopy.pa3.ir;
+
+import chocopy.common.codegen.Label;
+import chocopy.common.codegen.RiscVBackend;
+import chocopy.common.codegen.RiscVBackend.Register;
+import chocopy.pa3.CodeGenImpl;
+import chocopy.pa3.RegisterAllocator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static chocopy.common.codegen.RiscVBackend.Register.*;
+
+/**
+ * Emits the RISC-V code of a function from its IR.
+ *
+ * <p>Virtual registers are assigned machine registers by a linear scan over their live intervals.
+ * An interval spans the first to the last position where the register is defined, used or live
+ * across a block boundary. Intervals crossing a call only get the callee-saved S1-S9, which the
+ * prologue saves; the others prefer the caller-saved T0-T6. When no register is left, the interval
+ * ending last is spilled to a slot of the frame (a parameter is spilled to its argument slot).
+ *
+ * <p>A0-A7 are never assigned: A0 carries arguments and results of runtime routines, and the others
+ * are scratch registers for spilled operands and multi-instruction operations.
+ *
+ * <p>The frame has the same layout as the frames of the AST code generator down to the saved RA,
+ * followed by the saved S registers and the spill slots.
+ *
+ * <p>Only the code making calls, or using S registers or stack slots, needs the frame. A function
+ * without such code has none: its parameters are read relative to SP, and it returns with a jump
+ * to RA. Otherwise the frame is set up in the block dominating all such code, if no loop leads
+ * back to it and nothing but it leads into the blocks it reaches, so that the paths avoiding it
+ * (e.g. the base case of a recursion) run without a frame; else in the entry block. A tail call
+ * stores its arguments over those of the function, tears the frame down and jumps to the callee,
+ * which returns to the caller of the function.
+ */
+public class IrEmitter {
+
+    /** The code generator whose labels and runtime routines are used. */
+    private final CodeGenImpl codegen;
+    /** The backend to emit to. */
+    private final RiscVBackend backend;
+    /** The function being emitted. */
+    private final IrFunction func;
+    /** The word size in bytes. */
+    private final int wordSize;
+
+    /** The machine register of each virtual register, by id, or null if spilled. */
+    private final Register[] regOf;
+    /** The FP offset of the slot of each spilled virtual register, by id. */
+    private final int[] slotOf;
+    /** The number of uses of each virtual register, by id. */
+    private final int[] useCount;
+    /** The callee-saved registers used, in order of their save slots. */
+    private final List<Register> calleeSaved = new ArrayList<>();
+    /** The number of spill slots, excluding those of parameters. */
+    private int spillSlots = 0;
+    /** The label of the epilogue. */
+    private final Label epilogue;
+    /** The block setting up the frame, or null if the function has none. */
+    private BasicBlock prologueBlock;
+    /** The blocks running with the frame set up. */
+    private final Set<BasicBlock> framed = new HashSet<>();
+    /** True while emitting a block running with the frame set up. */
+    private boolean inFrame;
+
+    /** An emitter of FUNC to BACKEND, using the labels and routines of CODEGEN. */
+    public IrEmitter(CodeGenImpl codegen, RiscVBackend backend, IrFunction func) {
+        this.codegen = codegen;
+        this.backend = backend;
+        this.func = func;
+        this.wordSize = backend.getWordSize();
+        this.regOf = new Register[func.getRegCount()];
+        this.slotOf = new int[func.getRegCount()];
+        this.useCount = new int[func.getRegCount()];
+        this.epilogue = codegen.generateLocalLabel();
+    }
+
+    // =====================
+    // Register allocation.
+    // =====================
+
+    /** Assigns a machine register or a stack slot to every virtual register. */
+    private void allocate() {
+        int n = func.getRegCount();
+        int[] start = new int[n];
+        int[] end = new int[n];
+        Arrays.fill(start, Integer.MAX_VALUE);
+        Arrays.fill(end, -1);
+        VReg[] regs = new VReg[n];
+        Map<VReg, VReg> hints = new HashMap<>();
+        List<Integer> calls = new ArrayList<>();
+
+        Liveness liveness = new Liveness(func);
+        int pos = 1;
+        for (BasicBlock block : func.blocks) {
+            int blockStart = pos;
+            for (Insn insn : block.insns) {
+                for (VReg src : insn.srcs) {
+                    regs[src.id] = src;
+                    useCount[src.id] += 1;
+                    start[src.id] = Math.min(start[src.id], pos);
+                    end[src.id] = Math.max(end[src.id], pos);
+                }
+                if (insn.dst != null) {
+                    regs[insn.dst.id] = insn.dst;
+                    start[insn.dst.id] = Math.min(start[insn.dst.id], pos);
+                    end[insn.dst.id] = Math.max(end[insn.dst.id], pos);
+                }
+                if (insn.op == Op.MOVE) {
+                    hints.put(insn.dst, insn.src(0));
+                }
+                if (insn.op.isCall()) {
+                    calls.add(pos);
+                }
+                pos += 1;
+            }
+            int blockEnd = pos - 1;
+            BitSet in = liveness.getLiveIn(block);
+            for (int id = in.nextSetBit(0); id >= 0; id = in.nextSetBit(id + 1)) {
+                start[id] = Math.min(start[id], blockStart);
+                end[id] = Math.max(end[id], blockStart);
+            }
+            BitSet out = liveness.getLiveOut(block);
+            for (int id = out.nextSetBit(0); id >= 0; id = out.nextSetBit(id + 1)) {
+                start[id] = Math.min(start[id], blockEnd);
+                end[id] = Math.max(end[id], blockEnd);
+            }
+        }
+        // the parameters live on entry are defined before the first instruction
+        BitSet entryIn = liveness.getLiveIn(func.getEntry());
+        for (VReg param : func.params) {
+            regs[param.id] = param;
+            if (entryIn.get(param.id)) {
+                start[param.id] = 0;
+            }
+        }
+
+        List<VReg> order = new ArrayList<>();
+        for (VReg reg : regs) {
+            if (reg != null && end[reg.id] >= 0) {
+                order.add(reg);
+            }
+        }
+        order.sort((a, b) -> start[a.id] != start[b.id] ? start[a.id] - start[b.id] : a.id - b.id);
+
+        List<VReg> active = new ArrayList<>();
+        for (VReg current : order) {
+            active.removeIf(other -> end[other.id] <= start[current.id] && end[other.id] < end[current.id]);
+            boolean crossesCall = false;
+            for (int call : calls) {
+                if (start[current.id] < call && call < end[current.id]) {
+                    crossesCall = true;
+                    break;
+                }
+            }
+
+            Register reg = null;
+            VReg hint = hints.get(current);
+            if (hint != null && regOf[hint.id] != null && isFree(regOf[hint.id], active)
+                    && (!crossesCall || RegisterAllocator.isCalleeSaved(regOf[hint.id]))) {
+                reg = regOf[hint.id];
+            }
+            if (reg == null && !crossesCall) {
+                reg = firstFree(RegisterAllocator.CALLER_SAVED, active);
+            }
+            if (reg == null) {
+                reg = firstFree(RegisterAllocator.CALLEE_SAVED, active);
+            }
+            if (reg == null) {
+                // spill the interval ending last, taking its register if it suits
+                VReg victim = null;
+                for (VReg other : active) {
+                    if ((!crossesCall || RegisterAllocator.isCalleeSaved(regOf[other.id]))
+                            && (victim == null || end[other.id] > end[victim.id])) {
+                        victim = other;
+                    }
+                }
+                if (victim != null && end[victim.id] > end[current.id]) {
+                    reg = regOf[victim.id];
+                    spill(victim);
+                    active.remove(victim);
+                }
+            }
+            if (reg == null) {
+                spill(current);
+                continue;
+            }
+            regOf[current.id] = reg;
+            active.add(current);
+            if (RegisterAllocator.isCalleeSaved(reg) && !calleeSaved.contains(reg)) {
+                calleeSaved.add(reg);
+            }
+        }
+        calleeSaved.sort(null);
+
+        // slots below the saved registers
+        for (int id = 0; id < n; id++) {
+            if (slotOf[id] < 0) {
+                slotOf[id] = -(2 + calleeSaved.size() - slotOf[id]) * wordSize;
+            }
+        }
+    }
+
+    /** Moves REG to the stack: parameters to their argument slot, others to a fresh slot. */
+    private void spill(VReg reg) {
+        regOf[reg.id] = null;
+        int param = func.params.indexOf(reg);
+        if (param >= 0) {
+            slotOf[reg.id] = param * wordSize;
+        } else {
+            // numbered for now, turned into an offset once the saved registers are known
+            spillSlots += 1;
+            slotOf[reg.id] = -spillSlots;
+        }
+    }
+
+    /** True if no interval in ACTIVE holds REG. */
+    private boolean isFree(Register reg, List<VReg> active) {
+        for (VReg other : active) {
+            if (regOf[other.id] == reg) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the first register of CANDIDATES no interval in ACTIVE holds, or null. */
+    private Register firstFree(Register[] candidates, List<VReg> active) {
+        for (Register reg : candidates) {
+            if (isFree(reg, active)) {
+                return reg;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the size of the frame below FP in words. */
+    private int getFrameSize() {
+        return 2 + calleeSaved.size() + spillSlots;
+    }
+
+    // =====================
+    // Frame placement.
+    // =====================
+
+    /**
+     * Returns the block to set up the frame in, noting the blocks running with it in FRAMED, or
+     * null if no code needs a frame.
+     */
+    private BasicBlock placeFrame() {
+        Dominators doms = new Dominators(func);
+        BasicBlock place = null;
+        for (BasicBlock block : doms.getReversePostorder()) {
+            if (needsFrame(block)) {
+                while (place != null && !doms.dominates(place, block)) {
+                    place = doms.getIdom(place);
+                }
+                if (place == null) {
+                    place = block;
+                }
+            }
+        }
+        if (place == null) {
+            return null;
+        }
+        Set<BasicBlock> reached = reachedFrom(place);
+        if (splitReturns(place, reached, doms)) {
+            doms = new Dominators(func);
+            reached = reachedFrom(place);
+        }
+        for (BasicBlock block : reached) {
+            if (!doms.dominates(place, block) || block == place) {
+                // entered again, or from elsewhere: set the frame up on entry
+                place = func.getEntry();
+                reached.addAll(func.blocks);
+                break;
+            }
+        }
+        framed.add(place);
+        framed.addAll(reached);
+        return place;
+    }
+
+    /** Returns the blocks reached from the successors of START. */
+    private static Set<BasicBlock> reachedFrom(BasicBlock start) {
+        Set<BasicBlock> reached = new HashSet<>();
+        List<BasicBlock> work = new ArrayList<>(start.getSuccessors());
+        while (!work.isEmpty()) {
+            BasicBlock block = work.remove(work.size() - 1);
+            if (reached.add(block)) {
+                work.addAll(block.getSuccessors());
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * Gives the blocks PLACE dominates a copy of their own of each block that only returns, and is
+     * among the blocks REACHED from PLACE without being dominated by it, so that their returns go
+     * through the epilogue and the others do not. Returns true if any block was copied.
+     */
+    private boolean splitReturns(BasicBlock place, Set<BasicBlock> reached, Dominators doms) {
+        boolean split = false;
+        List<BasicBlock> framedBlocks = new ArrayList<>();
+        for (BasicBlock block : doms.getReversePostorder()) {
+            if (doms.dominates(place, block)) {
+                framedBlocks.add(block);
+            }
+        }
+        for (BasicBlock block : reached) {
+            if (doms.dominates(place, block) || block.insns.size() != 1
+                    || block.getTerminator().op != Op.RETURN) {
+                continue;
+            }
+            BasicBlock copy = func.newBlock();
+            copy.insns.add(new Insn(Op.RETURN, null, new ArrayList<>(block.getTerminator().srcs)));
+            for (BasicBlock pred : framedBlocks) {
+                Insn term = pred.getTerminator();
+                if (term.target == block) {
+                    term.target = copy;
+                }
+                if (term.elseTarget == block) {
+                    term.elseTarget = copy;
+                }
+            }
+            func.blocks.add(copy);
+            split = true;
+        }
+        return split;
+    }
+
+    /**
+     * True if BLOCK needs the frame: if it makes a call, which overwrites RA, or uses a register
+     * held in an S register or in a stack slot.
+     */
+    private boolean needsFrame(BasicBlock block) {
+        for (Insn insn : block.insns) {
+            if (insn.op.isCall() || (insn.dst != null && isInFrame(insn.dst))) {
+                return true;
+            }
+            for (VReg src : insn.srcs) {
+                if (isInFrame(src)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** True if REG is held in an S register or a stack slot, both of which need the frame. */
+    private boolean isInFrame(VReg reg) {
+        return regOf[reg.id] == null || RegisterAllocator.isCalleeSaved(regOf[reg.id]);
+    }
+
+    // =====================
+    // Emission.
+    // =====================
+
+    /** Emits the code of the function. */
+    public void emit() {
+        allocate();
+        prologueBlock = placeFrame();
+
+        backend.emitGlobalLabel(func.funcInfo.getCodeLabel());
+        if (prologueBlock == func.getEntry()) {
+            emitPrologue();
+        } else {
+            // the parameters in S registers are only loaded once the frame is set up
+            emitParamLoads(SP, false, true);
+        }
+
+        List<BasicBlock> blocks = func.blocks;
+        for (int b = 0; b < blocks.size(); b++) {
+            BasicBlock block = blocks.get(b);
+            BasicBlock next = b + 1 < blocks.size() ? blocks.get(b + 1) : null;
+            if (b > 0) {
+                backend.emitLocalLabel(block.label, null);
+                if (block == prologueBlock) {
+                    emitPrologue();
+                }
+            }
+            inFrame = framed.contains(block);
+            List<Insn> insns = block.insns;
+            for (int i = 0; i < insns.size(); i++) {
+                Insn insn = insns.get(i);
+                if (i + 1 < insns.size() && isFusedCompare(insn, insns.get(i + 1))) {
+                    continue;
+                }
+                Insn prev = i > 0 ? insns.get(i - 1) : null;
+                emitInsn(insn, prev, next);
+            }
+        }
+
+        if (prologueBlock == null) {
+            return;
+        }
+        backend.emitLocalLabel(epilogue, "Epilogue");
+        emitTeardown();
+        backend.emitJR(RA, "Return to caller");
+    }
+
+    /** Emits the restoring of the S registers, RA, SP and FP saved by the prologue. */
+    private void emitTeardown() {
+        for (int i = 0; i < calleeSaved.size(); i++) {
+            backend.emitLW(calleeSaved.get(i), FP, -(3 + i) * wordSize, "Restore " + calleeSaved.get(i));
+        }
+        backend.emitLW(RA, FP, -2 * wordSize, "Get return address");
+        backend.emitMV(SP, FP, "Recover SP.");
+        backend.emitLW(FP, SP, -wordSize, "Use control link to restore caller's fp");
+    }
+
+    /**
+     * Emits the setup of the frame, saving the S registers, and the loads of the parameters not
+     * loaded yet.
+     */
+    private void emitPrologue() {
+        backend.emitADDI(SP, SP, -2 * wordSize, "Saved FP and saved RA.");
+        backend.emitSW(RA, SP, 0, "return address");
+        backend.emitSW(FP, SP, wordSize, "control link");
+        backend.emitADDI(FP, SP, 2 * wordSize, "Set FP to previous SP.");
+        if (getFrameSize() > 2) {
+            backend.emitADDI(SP, SP, -(getFrameSize() - 2) * wordSize,
+                    "Move $sp for saved registers and spills.");
+        }
+        for (int i = 0; i < calleeSaved.size(); i++) {
+            backend.emitSW(calleeSaved.get(i), FP, -(3 + i) * wordSize, "Save " + calleeSaved.get(i));
+        }
+        emitParamLoads(FP, true, prologueBlock == func.getEntry());
+    }
+
+    /**
+     * Loads the parameters live on entry from their slots above BASE into their registers, if
+     * S registers and SAVED, or other registers and OTHERS.
+     */
+    private void emitParamLoads(Register base, boolean saved, boolean others) {
+        BitSet entryIn = new Liveness(func).getLiveIn(func.getEntry());
+        for (int i = 0; i < func.params.size(); i++) {
+            VReg param = func.params.get(i);
+            Register reg = regOf[param.id];
+            if (reg != null && entryIn.get(param.id)
+                    && (RegisterAllocator.isCalleeSaved(reg) ? saved : others)) {
+                backend.emitLW(reg, base, i * wordSize, "Load parameter " + param.name);
+            }
+        }
+    }
+
+    /** True if INSN is a comparison only read by the branch NEXT, which tests it directly. */
+    private boolean isFusedCompare(Insn insn, Insn next) {
+        return next.op == Op.BRANCH && insn.dst != null && next.src(0) == insn.dst
+                && useCount[insn.dst.id] == 1 && isComparison(insn.op);
+    }
+
+    /** True if OP is a comparison a branch can test directly. */
+    private static boolean isComparison(Op op) {
+        switch (op) {
+            case EQ:
+            case NE:
+            case LT:
+            case GE:
+            case GT:
+            case LE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** Returns the comparison that holds iff OP does not. */
+    private static Op negate(Op op) {
+        switch (op) {
+            case EQ:
+                return Op.NE;
+            case NE:
+                return Op.EQ;
+            case LT:
+                return Op.GE;
+            case GE:
+                return Op.LT;
+            case GT:
+                return Op.LE;
+            default:
+                return Op.GT;
+        }
+    }
+
+    /** Returns the register holding REG, loading it into SCRATCH if it is spilled. */
+    private Register use(VReg reg, Register scratch) {
+        if (regOf[reg.id] != null) {
+            return regOf[reg.id];
+        }
+        backend.emitLW(scratch, FP, slotOf[reg.id], "Load spilled " + reg);
+        return scratch;
+    }
+
+    /** Returns the register to compute REG into: its own, or SCRATCH if it is spilled. */
+    private Register target(VReg reg, Register scratch) {
+        return regOf[reg.id] != null ? regOf[reg.id] : scratch;
+    }
+
+    /** Stores VALUE, computed for REG, to its slot if REG is spilled. */
+    private void finish(VReg reg, Register value) {
+        if (regOf[reg.id] == null) {
+            backend.emitSW(value, FP, slotOf[reg.id], "Spill " + reg);
+        }
+    }
+
+    /** Sets REG to the value of register VALUE. */
+    private void moveTo(VReg reg, Register value, String comment) {
+        Register dst = target(reg, value);
+        if (dst != value) {
+            backend.emitMV(dst, value, comment);
+        }
+        finish(reg, value);
+    }
+
+    /** Emits INSN, preceded by PREV in its block (or null), and followed by block NEXT (or null). */
+    private void emitInsn(Insn insn, Insn prev, BasicBlock next) {
+        String comment = insn.toString();
+        Register d;
+        Register a;
+        Register b;
+        Label done;
+        switch (insn.op) {
+            case CONST:
+                d = target(insn.dst, A3);
+                backend.emitLI(d, insn.imm, comment);
+                finish(insn.dst, d);
+                break;
+            case ADDR:
+                d = target(insn.dst, A3);
+                backend.emitLA(d, insn.label, comment);
+                finish(insn.dst, d);
+                break;
+            case MOVE:
+                a = use(insn.src(0), A1);
+                moveTo(insn.dst, a, comment);
+                break;
+            case ADD:
+            case SUB:
+            case MUL:
+            case EQ:
+            case NE:
+            case LT:
+            case LE:
+            case GT:
+            case GE:
+                a = use(insn.src(0), A1);
+                b = use(insn.src(1), A2);
+                d = target(insn.dst, A3);
+                emitBinary(insn.op, d, a, b, comment);
+                finish(insn.dst, d);
+                break;
+            case DIV:
+                // as CodeGenImpl: RISC-V rounds towards zero, so when the signs differ (0 counting
+                // as positive) move the dividend by one away from the divisor, divide and subtract 1
+                a = use(insn.src(0), A1);
+                b = use(insn.src(1), A2);
+                done = codegen.generateLocalLabel();
+                backend.emitDIV(A5, a, b, comment);
+                backend.emitXOR(A4, a, b, "Check for differing signs");
+                backend.emitBGEZ(A4, done, "Signs equal");
+                backend.emitSLT(A4, ZERO, b, "1 if the divisor is positive, else 0");
+                backend.emitADD(A4, A4, A4, null);
+                backend.emitADDI(A4, A4, -1, "1 if the divisor is positive, else -1");
+                backend.emitADD(A4, a, A4, "Adjust the dividend");
+                backend.emitDIV(A5, A4, b, null);
+                backend.emitADDI(A5, A5, -1, "Round towards negative infinity");
+                backend.emitLocalLabel(done, null);
+                moveTo(insn.dst, A5, comment);
+                break;
+            case MOD:
+                // RISC-V rounds towards zero: adjust when the remainder has the divisor's opposite sign
+                a = use(insn.src(0), A1);
+                b = use(insn.src(1), A2);
+                done = codegen.generateLocalLabel();
+                backend.emitREM(A4, a, b, comment);
+                backend.emitBEQZ(A4, done, "No remainder");
+                backend.emitXOR(A5, A4, b, "Check for differing signs");
+                backend.emitBGEZ(A5, done, "Signs equal");
+                backend.emitADD(A4, A4, b, "Take the sign of the divisor");
+                backend.emitLocalLabel(done, null);
+                moveTo(insn.dst, A4, comment);
+                break;
+            case ADDI:
+                a = use(insn.src(0), A1);
+                d = target(insn.dst, A3);
+                backend.emitADDI(d, a, insn.imm, comment);
+                finish(insn.dst, d);
+                break;
+            case SLLI:
+                a = use(insn.src(0), A1);
+                d = target(insn.dst, A3);
+                backend.emitSLLI(d, a, insn.imm, comment);
+                finish(insn.dst, d);
+                break;
+            case NEG:
+                a = use(insn.src(0), A1);
+                d = target(insn.dst, A3);
+                backend.emitSUB(d, ZERO, a, comment);
+                finish(insn.dst, d);
+                break;
+            case NOT:
+                a = use(insn.src(0), A1);
+                d = target(insn.dst, A3);
+                backend.emitSEQZ(d, a, comment);
+                finish(insn.dst, d);
+                break;
+            case LOAD:
+                a = use(insn.src(0), A1);
+                d = target(insn.dst, A3);
+                backend.emitLW(d, a, insn.imm, comment);
+                finish(insn.dst, d);
+                break;
+            case LOAD_BYTE:
+                a = use(insn.src(0), A1);
+                d = target(insn.dst, A3);
+                backend.emitLBU(d, a, insn.imm, comment);
+                finish(insn.dst, d);
+                break;
+            case STORE:
+                a = use(insn.src(0), A1);
+                b = use(insn.src(1), A2);
+                backend.emitSW(a, b, insn.imm, comment);
+                break;
+            case LOAD_GLOBAL:
+                d = target(insn.dst, A3);
+                backend.emitLW(d, insn.label, comment);
+                finish(insn.dst, d);
+                break;
+            case STORE_GLOBAL:
+                a = use(insn.src(0), A1);
+                backend.emitSW(a, insn.label, A6, comment);
+                break;
+            case CHECK_NONZERO:
+                a = use(insn.src(0), A1);
+                done = codegen.generateLocalLabel();
+                backend.emitBNEZ(a, done, comment);
+                backend.emitJ(insn.label, "Go to error handler");
+                backend.emitLocalLabel(done, null);
+                break;
+            case CHECK_BOUNDS:
+                a = use(insn.src(0), A1);
+                b = use(insn.src(1), A2);
+                done = codegen.generateLocalLabel();
+                backend.emitBLTU(a, b, done, comment);
+                backend.emitJ(insn.label, "Go to error handler");
+                backend.emitLocalLabel(done, null);
+                break;
+            case BOX_INT:
+                a = use(insn.src(0), A3);
+                codegen.emitBoxInt(backend, a, comment);
+                moveTo(insn.dst, A0, "Move boxed integer");
+                break;
+            case BOX_BOOL:
+                a = use(insn.src(0), A1);
+                d = target(insn.dst, A3);
+                codegen.emitBoxBool(backend, d, a, A4, comment);
+                finish(insn.dst, d);
+                break;
+            case NEW:
+                backend.emitLA(A0, insn.label, comment);
+                backend.emitJAL(new Label("alloc"), "Allocate new object in A0");
+                moveTo(insn.dst, A0, "Move new object");
+                break;
+            case CALL:
+                pushArgs(insn.srcs, 0);
+                backend.emitJAL(insn.label, comment);
+                popArgs(insn.srcs.size());
+                moveTo(insn.dst, A0, "Move returned value");
+                break;
+            case CALL_INDIRECT:
+                pushArgs(insn.srcs, 1);
+                a = use(insn.src(0), A7);
+                backend.emitJALR(a, comment);
+                popArgs(insn.srcs.size() - 1);
+                moveTo(insn.dst, A0, "Move returned value");
+                break;
+            case JUMP:
+                if (insn.target != next) {
+                    backend.emitJ(insn.target.label, comment);
+                }
+                break;
+            case BRANCH:
+                emitBranch(insn, prev, next, comment);
+                break;
+            case RETURN:
+                if (insn.srcs.isEmpty()) {
+                    backend.emitMV(A0, ZERO, "Return None");
+                } else if (regOf[insn.src(0).id] != null) {
+                    backend.emitMV(A0, regOf[insn.src(0).id], comment);
+                } else {
+                    use(insn.src(0), A0);
+                }
+                if (!inFrame) {
+                    backend.emitJR(RA, "Return to caller, without a frame");
+                } else if (next != null) {
+                    backend.emitJ(epilogue, "Jump to function epilogue");
+                }
+                break;
+            case TAIL_CALL:
+            case TAIL_CALL_INDIRECT:
+                emitTailCall(insn, comment);
+                break;
+            default:
+                throw new IllegalStateException("Cannot emit " + insn);
+        }
+    }
+
+    /** Emits D := A OP B for an arithmetic or comparison OP. */
+    private void emitBinary(Op op, Register d, Register a, Register b, String comment) {
+        switch (op) {
+            case ADD:
+                backend.emitADD(d, a, b, comment);
+                break;
+            case SUB:
+                backend.emitSUB(d, a, b, comment);
+                break;
+            case MUL:
+                backend.emitMUL(d, a, b, comment);
+                break;
+            case EQ:
+                backend.emitXOR(d, a, b, comment);
+                backend.emitSEQZ(d, d, comment);
+                break;
+            case NE:
+                backend.emitXOR(d, a, b, comment);
+                backend.emitSNEZ(d, d, comment);
+                break;
+            case LT:
+                backend.emitSLT(d, a, b, comment);
+                break;
+            case GT:
+                backend.emitSLT(d, b, a, comment);
+                break;
+            case LE:
+                backend.emitSLT(d, b, a, comment);
+                backend.emitXORI(d, d, 1, comment);
+                break;
+            case GE:
+                backend.emitSLT(d, a, b, comment);
+                backend.emitXORI(d, d, 1, comment);
+                break;
+            default:
+                throw new IllegalStateException("Not a binary operation: " + op);
+        }
+    }
+
+    /** Emits the branch INSN, testing the comparison PREV directly if they are fused. */
+    private void emitBranch(Insn insn, Insn prev, BasicBlock next, String comment) {
+        BasicBlock ifTrue = insn.target;
+        BasicBlock ifFalse = insn.elseTarget;
+        if (prev != null && isFusedCompare(prev, insn)) {
+            Register a = use(prev.src(0), A1);
+            Register b = use(prev.src(1), A2);
+            Op test = prev.op;
+            if (ifTrue == next) {
+                test = negate(test);
+                ifTrue = ifFalse;
+                ifFalse = next;
+            }
+            emitCompareBranch(test, a, b, ifTrue.label, prev + "; " + comment);
+        } else {
+            Register cond = use(insn.src(0), A1);
+            if (ifTrue == next) {
+                backend.emitBEQZ(cond, ifFalse.label, comment);
+                return;
+            }
+            backend.emitBNEZ(cond, ifTrue.label, comment);
+        }
+        if (ifFalse != next) {
+            backend.emitJ(ifFalse.label, comment);
+        }
+    }
+
+    /** Emits a branch to TARGET taken if A TEST B holds. */
+    private void emitCompareBranch(Op test, Register a, Register b, Label target, String comment) {
+        switch (test) {
+            case EQ:
+                backend.emitBEQ(a, b, target, comment);
+                break;
+            case NE:
+                backend.emitBNE(a, b, target, comment);
+                break;
+            case LT:
+                backend.emitBLT(a, b, target, comment);
+                break;
+            case GE:
+                backend.emitBGE(a, b, target, comment);
+                break;
+            case GT:
+                backend.emitBLT(b, a, target, comment);
+                break;
+            case LE:
+                backend.emitBGE(b, a, target, comment);
+                break;
+            default:
+                throw new IllegalStateException("Not a comparison: " + test);
+        }
+    }
+
+    /**
+     * Emits the tail call INSN: passes the arguments in the slots of the parameters, tears the
+     * frame down if there is one, and jumps to the callee, which returns to the caller directly.
+     */
+    private void emitTailCall(Insn insn, String comment) {
+        int first = insn.op == Op.TAIL_CALL ? 0 : 1;
+        Register base = inFrame ? FP : SP;
+        if (first == 1) {
+            Register fn = use(insn.src(0), A7);
+            if (fn != A7) {
+                backend.emitMV(A7, fn, "Address of the callee");
+            }
+        }
+        List<VReg> args = insn.srcs.subList(first, insn.srcs.size());
+        boolean readsParamSlots = false;
+        for (VReg arg : args) {
+            readsParamSlots |= regOf[arg.id] == null && slotOf[arg.id] >= 0;
+        }
+        if (readsParamSlots) {
+            // an argument may be read from a slot another one overwrites: go through the stack
+            pushArgs(insn.srcs, first);
+            for (int i = 0; i < args.size(); i++) {
+                backend.emitLW(A1, SP, i * wordSize, "Get argument " + i);
+                backend.emitSW(A1, base, i * wordSize, "Pass argument " + i);
+            }
+        } else {
+            for (int i = 0; i < args.size(); i++) {
+                Register arg = use(args.get(i), A1);
+                backend.emitSW(arg, base, i * wordSize, "Pass argument " + i);
+            }
+        }
+        if (inFrame) {
+            emitTeardown();
+        }
+        if (first == 0) {
+            backend.emitJ(insn.label, comment);
+        } else {
+            backend.emitJR(A7, comment);
+        }
+    }
+
+    /** Pushes SRCS from index FIRST on as the arguments of a call, the first on top. */
+    private void pushArgs(List<VReg> srcs, int first) {
+        int count = srcs.size() - first;
+        if (count == 0) {
+            return;
+        }
+        backend.emitADDI(SP, SP, -count * wordSize, "Push arguments");
+        for (int i = 0; i < count; i++) {
+            Register arg = use(srcs.get(first + i), A1);
+            backend.emitSW(arg, SP, i * wordSize, "Push argument " + i);
+        }
+    }
+
+    /** Pops the COUNT arguments of a call. */
+    private void popArgs(int count) {
+        if (count > 0) {
+            backend.emitADDI(SP, SP, count * wordSize, "Pop arguments");
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package chocopy.pa3.ir;
+
+import chocopy.common.analysis.types.ValueType;
+import chocopy.common.codegen.FuncInfo;
+import chocopy.common.codegen.Label;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * The IR of one function or method body: a control-flow graph of basic blocks over virtual
+ * registers.
+ *
+ * <p>The blocks are kept in layout order, the order IrEmitter places them in; the first one is the
+ * entry. On entry, the parameters hold the arguments and the locals their initial values.
+ */
+public class IrFunction {
+    /** The function this is the body of. */
+    public final FuncInfo funcInfo;
+    /** The registers holding the parameters, in order. */
+    public final List<VReg> params = new ArrayList<>();
+    /** The registers holding the locals, by name. */
+    public final Map<String, VReg> locals = new LinkedHashMap<>();
+    /** The blocks, in layout order. */
+    public final List<BasicBlock> blocks = new ArrayList<>();
+
+    /** Number of registers created so far. */
+    private int nextRegId = 0;
+    /** Source of fresh labels for new blocks. */
+    private final Supplier<Label> labels;
+
+    /** An empty body for FUNCINFO, labeling its blocks with labels from LABELS. */
+    public IrFunction(FuncInfo funcInfo, Supplier<Label> labels) {
+        this.funcInfo = funcInfo;
+        this.labels = labels;
+    }
+
+    /** Returns a fresh register holding values of TYPE, for variable NAME (or null). */
+    public VReg newReg(ValueType type, String name) {
+        return new VReg(nextRegId++, type, name);
+    }
+
+    /** Returns a fresh temporary holding values of TYPE. */
+    public VReg newReg(ValueType type) {
+        return newReg(type, null);
+    }
+
+    /** Returns the number of registers created so far; all ids are below it. */
+    public int getRegCount() {
+        return nextRegId;
+    }
+
+    /** Returns a fresh block that is not yet placed in the layout. */
+    public BasicBlock newBlock() {
+        return new BasicBlock(labels.get());
+    }
+
+    /** Returns the entry block. */
+    public BasicBlock getEntry() {
+        return blocks.get(0);
+    }
+
+    /** Returns the predecessors of every block. */
+    public Map<BasicBlock, List<BasicBlock>> getPredecessors() {
+        Map<BasicBlock, List<BasicBlock>> preds = new HashMap<>();
+        for (BasicBlock block : blocks) {
+            preds.put(block, new ArrayList<>());
+        }
+        for (BasicBlock block : blocks) {
+            for (BasicBlock succ : block.getSuccessors()) {
+                preds.get(succ).add(block);
+            }
+        }
+        return preds;
+    }
+
+    /** Drops the blocks that cannot be reached from the entry. */
+    public void removeUnreachableBlocks() {
+        Set<BasicBlock> reached = new HashSet<>();
+        List<BasicBlock> work = new ArrayList<>();
+        work.add(getEntry());
+        reached.add(getEntry());
+        while (!work.isEmpty()) {
+            BasicBlock block = work.remove(work.size() - 1);
+            for (BasicBlock succ : block.getSuccessors()) {
+                if (reached.add(succ)) {
+                    work.add(succ);
+                }
+            }
+        }
+        blocks.retainAll(reached);
+    }
+
+    /**
+     * Deletes the instructions that have no effect besides defining a register nothing reads, until
+     * none is left.
+     */
+    public void removeDeadCode() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] useCount = new int[nextRegId];
+            for (BasicBlock block : blocks) {
+                for (Insn insn : block.insns) {
+                    for (VReg src : insn.srcs) {
+                        useCount[src.id] += 1;
+                    }
+                }
+            }
+            for (BasicBlock block : blocks) {
+                changed |= block.insns.removeIf(insn -> insn.dst != null && !insn.op.hasSideEffect()
+                        && useCount[insn.dst.id] == 0);
+            }
+        }
+    }
+
+    /**
+     * Redirects the branches to blocks holding nothing but a jump to the target of that jump, and
+     * drops the blocks no longer reached. Branches left with a single target become jumps. The
+     * function must not be in SSA form.
+     */
+    public void bypassEmptyBlocks() {
+        Map<BasicBlock, BasicBlock> forward = new HashMap<>();
+        for (BasicBlock block : blocks) {
+            if (block != getEntry() && block.insns.size() == 1 && block.getTerminator().op == Op.JUMP) {
+                forward.put(block, block.getTerminator().target);
+            }
+        }
+        for (BasicBlock block : blocks) {
+            if (block.isTerminated()) {
+                Insn term = block.getTerminator();
+                term.target = resolve(term.target, forward);
+                term.elseTarget = resolve(term.elseTarget, forward);
+                if (term.op == Op.BRANCH && term.target == term.elseTarget) {
+                    term.op = Op.JUMP;
+                    term.elseTarget = null;
+                    term.srcs.clear();
+                }
+            }
+        }
+        removeUnreachableBlocks();
+    }
+
+    /** Returns the block BLOCK eventually jumps to through the empty blocks in FORWARD. */
+    private static BasicBlock resolve(BasicBlock block, Map<BasicBlock, BasicBlock> forward) {
+        Set<BasicBlock> seen = new HashSet<>();
+        while (block != null && forward.containsKey(block) && seen.add(block)) {
+            block = forward.get(block);
+        }
+        return block;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("function ").append(funcInfo.getFuncName()).append(params).append("\n");
+        for (BasicBlock block : blocks) {
+            sb.append(block.label).append(":\n");
+            for (Insn insn : block.insns) {
+                sb.append("    ").append(insn).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,1129 @@
+package chocopy.pa3.ir;
+
+import chocopy.common.analysis.AbstractNodeAnalyzer;
+import chocopy.common.analysis.SymbolTable;
+import chocopy.common.analysis.types.ClassValueType;
+import chocopy.common.analysis.types.ListValueType;
+import chocopy.common.analysis.types.Type;
+import chocopy.common.analysis.types.ValueType;
+import chocopy.common.astnodes.*;
+import chocopy.common.codegen.*;
+import chocopy.pa3.CodeGenImpl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lowers the body of a function or method from the AST to the IR.
+ *
+ * <p>Locals and parameters become virtual registers, so a body can only be lowered if no nested
+ * function may access its variables through a static link, and if it reads and writes no
+ * variables of enclosing functions. Bodies using any other construct the IR does not cover yet are
+ * rejected by throwing Unsupported; lower() then returns null, and the function is generated
+ * from the AST directly.
+ *
+ * <p>A return of the result of a call is lowered to a tail call, unless the function calls itself
+ * (it then jumps back to its start instead) or passes more arguments than its caller passed.
+ *
+ * <p>Calls of small functions and of methods no subclass overrides are inlined: the body of the
+ * callee is lowered in place of the call, its parameters and locals becoming registers of the
+ * caller, and its returns jumps past it. A callee that defines nested functions, or that is being
+ * inlined already, is called instead, and so is one whose body turns out to be too large, to
+ * contain a construct the IR does not cover, or to call itself: what was lowered of it is then
+ * discarded.
+ *
+ * <p>The generated code follows the same conventions as the AST code generator: the same object
+ * layout, calling convention, runtime routines and error handlers.
+ */
+public class IrLowering extends AbstractNodeAnalyzer<VReg> {
+
+    /** Thrown when a body uses a construct that cannot be lowered. */
+    public static class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        /** Rejects the construct described by WHAT. */
+        public Unsupported(String what) {
+            super(what);
+        }
+    }
+
+    /** The code generator whose labels, constants and runtime routines are used. */
+    private final CodeGenImpl codegen;
+    /** The most IR instructions the body of an inlined function may add. */
+    private static final int INLINE_BUDGET = 40;
+    /** The most calls inlined into each other. */
+    private static final int INLINE_DEPTH = 3;
+
+    /** The function whose body is being lowered: the function lowered, or one inlined into it. */
+    private FuncInfo funcInfo;
+    /** The symbol table of that function. */
+    private SymbolTable<SymbolInfo> sym;
+    /** The registers of the parameters and locals of that function, by name. */
+    private Map<String, VReg> vars = new HashMap<>();
+    /** The call being inlined, or null outside of inlined bodies. */
+    private Inline inline;
+    /** The IR being built. */
+    private final IrFunction func;
+    /** The block instructions are appended to. */
+    private BasicBlock current;
+    /** The block following the initialization of parameters and locals. */
+    private BasicBlock body;
+    /** True if `self` of a method is never assigned, so it cannot be None. */
+    private boolean isSelfConstant;
+
+    /** A call whose callee is being inlined. */
+    private static class Inline {
+        /** The function inlined. */
+        final FuncInfo callee;
+        /** The register receiving the value returned. */
+        final VReg result;
+        /** The block following the inlined body, where its returns jump. */
+        final BasicBlock end;
+        /** The call this one is inlined into, or null. */
+        final Inline outer;
+
+        Inline(FuncInfo callee, VReg result, BasicBlock end, Inline outer) {
+            this.callee = callee;
+            this.result = result;
+            this.end = end;
+            this.outer = outer;
+        }
+    }
+
+    private IrLowering(CodeGenImpl codegen, FuncInfo funcInfo) {
+        this.codegen = codegen;
+        this.funcInfo = funcInfo;
+        this.sym = funcInfo.getSymbolTable();
+        this.func = new IrFunction(funcInfo, codegen::generateLocalLabel);
+    }
+
+    /**
+     * Returns the IR of the body of FUNCINFO, generated with the help of CODEGEN, or null if the
+     * body uses constructs the IR does not cover.
+     */
+    public static IrFunction lower(CodeGenImpl codegen, FuncInfo funcInfo) {
+        try {
+            return new IrLowering(codegen, funcInfo).lowerBody();
+        } catch (Unsupported e) {
+            return null;
+        }
+    }
+
+    /** Builds the IR of the body of the function. */
+    private IrFunction lowerBody() {
+        FuncInfo nested = nestedFunctionOf(funcInfo);
+        if (nested != null) {
+            throw new Unsupported("nested function " + nested.getFuncName());
+        }
+        isSelfConstant = funcInfo.isMethod && !assignsSelf(funcInfo.getStatements());
+
+        startBlock(func.newBlock());
+        for (String name : funcInfo.getParams()) {
+            StackVarInfo info = (StackVarInfo) sym.get(name);
+            func.params.add(func.newReg(info.getVarType(), name));
+            vars.put(name, func.params.get(func.params.size() - 1));
+        }
+        for (StackVarInfo local : funcInfo.getLocals()) {
+            func.locals.put(local.getVarName(), func.newReg(local.getVarType(), local.getVarName()));
+        }
+        vars.putAll(func.locals);
+        body = func.newBlock();
+        initLocals();
+        jump(body);
+
+        startBlock(body);
+        lowerStmts(funcInfo.getStatements());
+        if (!current.isTerminated()) {
+            add(new Insn(Op.RETURN, null));
+        }
+        func.removeUnreachableBlocks();
+        return func;
+    }
+
+    /** Returns the values bound in the innermost region of TABLE. */
+    private static List<SymbolInfo> symbolsOf(SymbolTable<SymbolInfo> table) {
+        List<SymbolInfo> infos = new ArrayList<>();
+        for (String name : table.getDeclaredSymbols()) {
+            infos.add(table.get(name));
+        }
+        return infos;
+    }
+
+    /** True if STMTS assign to the first parameter (`self`) of the method. */
+    private boolean assignsSelf(List<Stmt> stmts) {
+        String self = funcInfo.getParams().get(0);
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof AssignStmt) {
+                for (Expr target : ((AssignStmt) stmt).targets) {
+                    if (target instanceof Identifier && ((Identifier) target).name.equals(self)) {
+                        return true;
+                    }
+                }
+            } else if (stmt instanceof IfStmt) {
+                IfStmt ifStmt = (IfStmt) stmt;
+                if (assignsSelf(ifStmt.thenBody) || assignsSelf(ifStmt.elseBody)) {
+                    return true;
+                }
+            } else if (stmt instanceof WhileStmt) {
+                if (assignsSelf(((WhileStmt) stmt).body)) {
+                    return true;
+                }
+            } else if (stmt instanceof ForStmt) {
+                ForStmt forStmt = (ForStmt) stmt;
+                if (forStmt.identifier.name.equals(self) || assignsSelf(forStmt.body)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Returns a function nested in FUNCINFO, or null if it defines none. */
+    private static FuncInfo nestedFunctionOf(FuncInfo funcInfo) {
+        for (SymbolInfo info : symbolsOf(funcInfo.getSymbolTable())) {
+            if (info instanceof FuncInfo && ((FuncInfo) info).getParentFuncInfo() == funcInfo) {
+                return (FuncInfo) info;
+            }
+        }
+        return null;
+    }
+
+    /** Sets the locals to their initial values. */
+    private void initLocals() {
+        for (StackVarInfo local : funcInfo.getLocals()) {
+            VReg reg = vars.get(local.getVarName());
+            Literal value = local.getInitialValue();
+            if (value instanceof IntegerLiteral) {
+                add(constant(reg, ((IntegerLiteral) value).value));
+            } else if (value instanceof BooleanLiteral) {
+                add(constant(reg, ((BooleanLiteral) value).value ? 1 : 0));
+            } else if (value instanceof StringLiteral) {
+                add(address(reg, codegen.getConstants().getStrConstant(((StringLiteral) value).value)));
+            } else {
+                add(constant(reg, 0));
+            }
+        }
+    }
+
+    // =====================
+    // Building blocks.
+    // =====================
+
+    /** Places BLOCK next in the layout and appends to it from now on. */
+    private void startBlock(BasicBlock block) {
+        func.blocks.add(block);
+        current = block;
+    }
+
+    /** Appends INSN to the current block, returning its destination. */
+    private VReg add(Insn insn) {
+        if (current.isTerminated()) {
+            // code after a return is unreachable, but still needs a block
+            startBlock(func.newBlock());
+        }
+        current.insns.add(insn);
+        return insn.dst;
+    }
+
+    /** Ends the current block with a jump to TARGET. */
+    private void jump(BasicBlock target) {
+        Insn insn = new Insn(Op.JUMP, null);
+        insn.target = target;
+        add(insn);
+    }
+
+    /** Ends the current block with a branch on COND to IFTRUE or IFFALSE. */
+    private void branch(VReg cond, BasicBlock ifTrue, BasicBlock ifFalse) {
+        Insn insn = new Insn(Op.BRANCH, null, cond);
+        insn.target = ifTrue;
+        insn.elseTarget = ifFalse;
+        add(insn);
+    }
+
+    /** Returns DST := VALUE. */
+    private static Insn constant(VReg dst, int value) {
+        Insn insn = new Insn(Op.CONST, dst);
+        insn.imm = value;
+        return insn;
+    }
+
+    /** Returns DST := address of LABEL. */
+    private static Insn address(VReg dst, Label label) {
+        Insn insn = new Insn(Op.ADDR, dst);
+        insn.label = label;
+        return insn;
+    }
+
+    /** Appends a fresh temporary of TYPE := VALUE. */
+    private VReg constant(ValueType type, int value) {
+        return add(constant(func.newReg(type), value));
+    }
+
+    /** Appends a fresh temporary of TYPE := OP SRCS. */
+    private VReg op(Op op, ValueType type, VReg... srcs) {
+        return add(new Insn(op, func.newReg(type), srcs));
+    }
+
+    /** Appends a fresh temporary of TYPE := OP SRC, IMM. */
+    private VReg opImm(Op op, ValueType type, VReg src, int imm) {
+        Insn insn = new Insn(op, func.newReg(type), src);
+        insn.imm = imm;
+        return add(insn);
+    }
+
+    /** Appends a fresh temporary of TYPE := word at BASE + OFFSET. */
+    private VReg load(ValueType type, VReg base, int offset) {
+        return opImm(Op.LOAD, type, base, offset);
+    }
+
+    /** Appends word at BASE + OFFSET := VALUE. */
+    private void store(VReg value, VReg base, int offset) {
+        Insn insn = new Insn(Op.STORE, null, value, base);
+        insn.imm = offset;
+        add(insn);
+    }
+
+    /** Appends a jump to ERROR unless VALUE is non-zero. */
+    private void checkNonZero(VReg value, Label error) {
+        Insn insn = new Insn(Op.CHECK_NONZERO, null, value);
+        insn.label = error;
+        add(insn);
+    }
+
+    /** Appends a jump to the OOB error handler unless 0 <= INDEX < LENGTH. */
+    private void checkBounds(VReg index, VReg length) {
+        Insn insn = new Insn(Op.CHECK_BOUNDS, null, index, length);
+        insn.label = codegen.errorOob;
+        add(insn);
+    }
+
+    /** Appends a call of TARGET with ARGS, returning a fresh temporary of TYPE with the result. */
+    private VReg call(Label target, ValueType type, List<VReg> args) {
+        Insn insn = new Insn(Op.CALL, func.newReg(type), args);
+        insn.label = target;
+        return add(insn);
+    }
+
+    /** Appends a call of the address FN with ARGS, returning a fresh temporary of TYPE. */
+    private VReg callIndirect(VReg fn, ValueType type, List<VReg> args) {
+        List<VReg> srcs = new ArrayList<>();
+        srcs.add(fn);
+        srcs.addAll(args);
+        return add(new Insn(Op.CALL_INDIRECT, func.newReg(type), srcs));
+    }
+
+    /**
+     * Returns VALUE, of static type FROM, converted for a location of static type TO: ints and
+     * bools are boxed when stored where an object is expected.
+     */
+    private VReg coerce(VReg value, Type from, Type to) {
+        if (!Type.OBJECT_TYPE.equals(to)) {
+            return value;
+        }
+        if (Type.INT_TYPE.equals(from)) {
+            return op(Op.BOX_INT, Type.OBJECT_TYPE, value);
+        } else if (Type.BOOL_TYPE.equals(from)) {
+            return op(Op.BOX_BOOL, Type.OBJECT_TYPE, value);
+        }
+        return value;
+    }
+
+    /** Returns the static type of EXPR as a value type. */
+    private static ValueType typeOf(Expr expr) {
+        Type type = expr.getInferredType();
+        return type instanceof ValueType ? (ValueType) type : Type.OBJECT_TYPE;
+    }
+
+    /** True if TYPE is a list type, or the type of the empty list. */
+    private static boolean isList(Type type) {
+        return type instanceof ListValueType || Type.EMPTY_TYPE.equals(type);
+    }
+
+    /** Returns the descriptor of the class of the object EXPR evaluates to. */
+    private ClassInfo classOf(Expr expr) {
+        ClassValueType type = (ClassValueType) expr.getInferredType();
+        return (ClassInfo) sym.get(type.className());
+    }
+
+    /** Returns the register of local or parameter NAME, or null if NAME is a global. */
+    private VReg variable(String name) {
+        SymbolInfo info = sym.get(name);
+        if (info instanceof GlobalVarInfo) {
+            return null;
+        }
+        if (!(info instanceof StackVarInfo) || ((StackVarInfo) info).getFuncInfo() != funcInfo) {
+            throw new Unsupported("nonlocal variable " + name);
+        }
+        return vars.get(name);
+    }
+
+    /** Returns the label of global variable NAME. */
+    private static Label globalLabel(String name) {
+        return new Label("$" + name);
+    }
+
+    // =====================
+    // Statements.
+    // =====================
+
+    /** Lowers STMTS in order. */
+    private void lowerStmts(List<Stmt> stmts) {
+        for (Stmt stmt : stmts) {
+            stmt.dispatch(this);
+        }
+    }
+
+    @Override
+    public VReg defaultAction(Node node) {
+        throw new Unsupported(node.getClass().getSimpleName());
+    }
+
+    @Override
+    public VReg analyze(ExprStmt stmt) {
+        stmt.expr.dispatch(this);
+        return null;
+    }
+
+    @Override
+    public VReg analyze(AssignStmt stmt) {
+        if (codegen.growsInPlace(stmt)) {
+            lowerGrowInPlace(stmt);
+            return null;
+        }
+        VReg value = stmt.value.dispatch(this);
+        Type valueType = stmt.value.getInferredType();
+        for (Expr target : stmt.targets) {
+            Type targetType = target.getInferredType();
+            if (target instanceof Identifier) {
+                String name = ((Identifier) target).name;
+                VReg var = variable(name);
+                VReg converted = coerce(value, valueType, targetType);
+                if (var != null) {
+                    add(new Insn(Op.MOVE, var, converted));
+                } else {
+                    Insn insn = new Insn(Op.STORE_GLOBAL, null, converted);
+                    insn.label = globalLabel(name);
+                    add(insn);
+                }
+            } else if (target instanceof MemberExpr) {
+                MemberExpr member = (MemberExpr) target;
+                VReg object = lowerObject(member.object);
+                VReg converted = coerce(value, valueType, targetType);
+                store(converted, object, attrOffset(member));
+            } else if (target instanceof IndexExpr) {
+                IndexExpr index = (IndexExpr) target;
+                VReg address = lowerElementAddr(index);
+                VReg converted = coerce(value, valueType, targetType);
+                store(converted, address, 16);
+            } else {
+                throw new Unsupported("assignment target " + target.getClass().getSimpleName());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lowers `x = x + [e]` or `x = x + y` growing the list in `x` in place: listappend and
+     * listextend take the list on top, and return it, moved if it had no room left.
+     */
+    private void lowerGrowInPlace(AssignStmt stmt) {
+        Expr target = stmt.targets.get(0);
+        BinaryExpr value = (BinaryExpr) stmt.value;
+        ValueType type = typeOf(target);
+        VReg object = null;
+        List<VReg> args = new ArrayList<>();
+        if (target instanceof MemberExpr) {
+            // the object is evaluated once, for both the load and the store
+            object = lowerObject(((MemberExpr) target).object);
+            args.add(load(type, object, attrOffset((MemberExpr) target)));
+        } else {
+            args.add(value.left.dispatch(this));
+        }
+        Label routine;
+        if (value.right instanceof ListExpr && ((ListExpr) value.right).elements.size() == 1) {
+            Expr element = ((ListExpr) value.right).elements.get(0);
+            args.add(coerce(element.dispatch(this), element.getInferredType(), ((ListValueType) type).elementType));
+            routine = codegen.listappend;
+        } else {
+            args.add(value.right.dispatch(this));
+            routine = codegen.listextend;
+        }
+        VReg list = call(routine, type, args);
+
+        if (object != null) {
+            store(list, object, attrOffset((MemberExpr) target));
+            return;
+        }
+        String name = ((Identifier) target).name;
+        VReg var = variable(name);
+        if (var != null) {
+            add(new Insn(Op.MOVE, var, list));
+        } else {
+            Insn insn = new Insn(Op.STORE_GLOBAL, null, list);
+            insn.label = globalLabel(name);
+            add(insn);
+        }
+    }
+
+    @Override
+    public VReg analyze(IfStmt stmt) {
+        BasicBlock thenBlock = func.newBlock();
+        BasicBlock elseBlock = func.newBlock();
+        BasicBlock end = func.newBlock();
+        branch(stmt.condition.dispatch(this), thenBlock, elseBlock);
+
+        startBlock(thenBlock);
+        lowerStmts(stmt.thenBody);
+        jump(end);
+
+        startBlock(elseBlock);
+        lowerStmts(stmt.elseBody);
+        jump(end);
+
+        startBlock(end);
+        return null;
+    }
+
+    @Override
+    public VReg analyze(WhileStmt stmt) {
+        BasicBlock loop = func.newBlock();
+        BasicBlock test = func.newBlock();
+        BasicBlock end = func.newBlock();
+        jump(test);
+
+        startBlock(loop);
+        lowerStmts(stmt.body);
+        jump(test);
+
+        startBlock(test);
+        branch(stmt.condition.dispatch(this), loop, end);
+
+        startBlock(end);
+        return null;
+    }
+
+    @Override
+    public VReg analyze(ForStmt stmt) {
+        Type iterableType = stmt.iterable.getInferredType();
+        boolean isStr = Type.STR_TYPE.equals(iterableType);
+        if (!isStr && !(iterableType instanceof ListValueType)) {
+            throw new Unsupported("for over " + iterableType);
+        }
+        VReg var = variable(stmt.identifier.name);
+        VReg iterable = stmt.iterable.dispatch(this);
+        if (vars.containsValue(iterable)) {
+            // the body may assign the variable: go over the value it had before the loop
+            VReg copy = func.newReg(iterable.type);
+            add(new Insn(Op.MOVE, copy, iterable));
+            iterable = copy;
+        }
+        checkNonZero(iterable, codegen.errorNone);
+        VReg index = constant(Type.INT_TYPE, 0);
+
+        BasicBlock loop = func.newBlock();
+        BasicBlock test = func.newBlock();
+        BasicBlock end = func.newBlock();
+        jump(test);
+
+        startBlock(loop);
+        VReg element;
+        Type elementType;
+        if (isStr) {
+            element = lowerChar(iterable, index);
+            elementType = Type.STR_TYPE;
+        } else {
+            VReg offset = opImm(Op.SLLI, Type.INT_TYPE, index, 2);
+            VReg address = op(Op.ADD, Type.INT_TYPE, iterable, offset);
+            elementType = ((ListValueType) iterableType).elementType;
+            element = load((ValueType) elementType, address, 16);
+        }
+        add(new Insn(Op.MOVE, index, opImm(Op.ADDI, Type.INT_TYPE, index, 1)));
+        element = coerce(element, elementType, stmt.identifier.getInferredType());
+        if (var != null) {
+            add(new Insn(Op.MOVE, var, element));
+        } else {
+            Insn insn = new Insn(Op.STORE_GLOBAL, null, element);
+            insn.label = globalLabel(stmt.identifier.name);
+            add(insn);
+        }
+        lowerStmts(stmt.body);
+        jump(test);
+
+        startBlock(test);
+        VReg length = load(Type.INT_TYPE, iterable, 12);
+        branch(op(Op.LT, Type.BOOL_TYPE, index, length), loop, end);
+
+        startBlock(end);
+        return null;
+    }
+
+    @Override
+    public VReg analyze(ReturnStmt stmt) {
+        if (inline != null) {
+            // return from an inlined body: set the result and go past it
+            VReg value = stmt.value == null ? constant(Type.NONE_TYPE, 0)
+                    : coerce(stmt.value.dispatch(this), stmt.value.getInferredType(), funcInfo.getReturnType());
+            add(new Insn(Op.MOVE, inline.result, value));
+            jump(inline.end);
+            return null;
+        }
+        if (stmt.value == null) {
+            add(new Insn(Op.RETURN, null));
+            return null;
+        }
+        if (isSelfCall(stmt.value)) {
+            // tail call of itself: rebind the parameters and start over
+            CallExpr call = (CallExpr) stmt.value;
+            rebindParams(lowerArgs(call.args, funcInfo, 0));
+            initLocals();
+            jump(body);
+            return null;
+        }
+        if (isSelfMethodCall(stmt.value)) {
+            // the same, with the receiver as the first parameter
+            MethodCallExpr call = (MethodCallExpr) stmt.value;
+            List<VReg> args = new ArrayList<>();
+            args.add(lowerObject(call.method.object));
+            args.addAll(lowerArgs(call.args, funcInfo, 1));
+            rebindParams(args);
+            initLocals();
+            jump(body);
+            return null;
+        }
+        VReg value = coerce(stmt.value.dispatch(this), stmt.value.getInferredType(), funcInfo.getReturnType());
+        boolean isCall = stmt.value instanceof CallExpr || stmt.value instanceof MethodCallExpr;
+        if (!isCall || !makeTailCall(value)) {
+            add(new Insn(Op.RETURN, null, value));
+        }
+        return null;
+    }
+
+    /**
+     * Assigns ARGS to the parameters all at once. An argument may be a parameter itself, as in
+     * f(b, a), so such arguments are copied out to fresh registers before any parameter is
+     * overwritten. The other arguments are fresh registers already.
+     */
+    private void rebindParams(List<VReg> args) {
+        List<VReg> sources = new ArrayList<>();
+        for (int i = 0; i < args.size(); i++) {
+            VReg arg = args.get(i);
+            if (arg != func.params.get(i) && func.params.contains(arg)) {
+                VReg copy = func.newReg(func.params.get(i).type);
+                add(new Insn(Op.MOVE, copy, arg));
+                arg = copy;
+            }
+            sources.add(arg);
+        }
+        for (int i = 0; i < sources.size(); i++) {
+            if (sources.get(i) != func.params.get(i)) {
+                add(new Insn(Op.MOVE, func.params.get(i), sources.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Turns the call just appended into a tail call, and returns true, if it computes VALUE
+     * (needing no conversion) and passes no more arguments than the function lowered has
+     * parameters: the callee then takes over the slots of the arguments, and returns to the
+     * caller of the function directly. Returns false otherwise.
+     */
+    private boolean makeTailCall(VReg value) {
+        if (current.insns.isEmpty()) {
+            return false;
+        }
+        Insn last = current.insns.get(current.insns.size() - 1);
+        if (last.dst != value || (last.op != Op.CALL && last.op != Op.CALL_INDIRECT)) {
+            return false;
+        }
+        int argCount = last.op == Op.CALL ? last.srcs.size() : last.srcs.size() - 1;
+        if (argCount > func.params.size()) {
+            return false;
+        }
+        Insn tail = new Insn(last.op == Op.CALL ? Op.TAIL_CALL : Op.TAIL_CALL_INDIRECT, null, last.srcs);
+        tail.label = last.label;
+        current.insns.set(current.insns.size() - 1, tail);
+        return true;
+    }
+
+    /** True if EXPR is a direct call of the function being lowered. */
+    private boolean isSelfCall(Expr expr) {
+        return expr instanceof CallExpr && sym.get(((CallExpr) expr).function.name) == funcInfo;
+    }
+
+    /**
+     * True if EXPR is a call of the method being lowered that always dispatches to it, because no
+     * subclass of the class of the receiver overrides it.
+     */
+    private boolean isSelfMethodCall(Expr expr) {
+        if (!(expr instanceof MethodCallExpr)) {
+            return false;
+        }
+        MethodCallExpr call = (MethodCallExpr) expr;
+        return codegen.getClassHierarchy().getTarget(classOf(call.method.object), call.method.member.name) == funcInfo;
+    }
+
+    // =====================
+    // Expressions.
+    // =====================
+
+    @Override
+    public VReg analyze(IntegerLiteral literal) {
+        return constant(Type.INT_TYPE, literal.value);
+    }
+
+    @Override
+    public VReg analyze(BooleanLiteral literal) {
+        return constant(Type.BOOL_TYPE, literal.value ? 1 : 0);
+    }
+
+    @Override
+    public VReg analyze(NoneLiteral literal) {
+        return constant(Type.NONE_TYPE, 0);
+    }
+
+    @Override
+    public VReg analyze(StringLiteral literal) {
+        return add(address(func.newReg(Type.STR_TYPE), codegen.getConstants().getStrConstant(literal.value)));
+    }
+
+    @Override
+    public VReg analyze(Identifier id) {
+        VReg var = variable(id.name);
+        if (var != null) {
+            return var;
+        }
+        SymbolInfo info = sym.get(id.name);
+        if (codegen.getGlobalSymbols().isConst(id.name) && Type.INT_TYPE.equals(id.getInferredType())) {
+            IntegerLiteral value = (IntegerLiteral) ((VarInfo) info).getInitialValue();
+            return constant(Type.INT_TYPE, value.value);
+        }
+        Insn insn = new Insn(Op.LOAD_GLOBAL, func.newReg(typeOf(id)));
+        insn.label = globalLabel(id.name);
+        return add(insn);
+    }
+
+    @Override
+    public VReg analyze(UnaryExpr expr) {
+        VReg operand = expr.operand.dispatch(this);
+        switch (expr.operator) {
+            case "-":
+                return op(Op.NEG, Type.INT_TYPE, operand);
+            case "not":
+                return op(Op.NOT, Type.BOOL_TYPE, operand);
+            default:
+                throw new Unsupported("unary " + expr.operator);
+        }
+    }
+
+    @Override
+    public VReg analyze(BinaryExpr expr) {
+        if (expr.operator.equals("and") || expr.operator.equals("or")) {
+            return lowerShortCircuit(expr);
+        }
+        Type leftType = expr.left.getInferredType();
+        if (Type.STR_TYPE.equals(leftType) && (expr.operator.equals("==") || expr.operator.equals("!="))
+                && expr.right instanceof StringLiteral && ((StringLiteral) expr.right).value.length() == 1) {
+            return lowerCharCompare(expr);
+        }
+        VReg left = expr.left.dispatch(this);
+        VReg right = expr.right.dispatch(this);
+        List<VReg> args = new ArrayList<>();
+
+        if (Type.STR_TYPE.equals(leftType)) {
+            switch (expr.operator) {
+                case "+":
+                    // strcat takes the right operand on top
+                    args.add(right);
+                    args.add(left);
+                    return call(codegen.strcat, Type.STR_TYPE, args);
+                case "==":
+                case "!=":
+                    args.add(left);
+                    args.add(right);
+                    return call(expr.operator.equals("==") ? codegen.streql : codegen.strneql,
+                            Type.BOOL_TYPE, args);
+                default:
+                    break;
+            }
+        }
+        if (isList(leftType) && expr.operator.equals("+")) {
+            // concat takes the lists on top of their element conversions
+            Label rightConversion = codegen.listConversion(expr.right.getInferredType(), expr.getInferredType());
+            Label leftConversion = codegen.listConversion(leftType, expr.getInferredType());
+            args.add(right);
+            args.add(left);
+            args.add(add(address(func.newReg(Type.OBJECT_TYPE), rightConversion)));
+            args.add(leftConversion == rightConversion
+                    ? args.get(2) : add(address(func.newReg(Type.OBJECT_TYPE), leftConversion)));
+            return call(codegen.concat, typeOf(expr), args);
+        }
+
+        switch (expr.operator) {
+            case "+":
+                return op(Op.ADD, Type.INT_TYPE, left, right);
+            case "-":
+                return op(Op.SUB, Type.INT_TYPE, left, right);
+            case "*":
+                return op(Op.MUL, Type.INT_TYPE, left, right);
+            case "//":
+                checkNonZero(right, codegen.errorDiv);
+                return op(Op.DIV, Type.INT_TYPE, left, right);
+            case "%":
+                checkNonZero(right, codegen.errorDiv);
+                return op(Op.MOD, Type.INT_TYPE, left, right);
+            case "==":
+            case "is":
+                return op(Op.EQ, Type.BOOL_TYPE, left, right);
+            case "!=":
+                return op(Op.NE, Type.BOOL_TYPE, left, right);
+            case "<":
+                return op(Op.LT, Type.BOOL_TYPE, left, right);
+            case "<=":
+                return op(Op.LE, Type.BOOL_TYPE, left, right);
+            case ">":
+                return op(Op.GT, Type.BOOL_TYPE, left, right);
+            case ">=":
+                return op(Op.GE, Type.BOOL_TYPE, left, right);
+            default:
+                throw new Unsupported("binary " + expr.operator);
+        }
+    }
+
+    /**
+     * Lowers a comparison of a string with a one-character literal in place: the string must have
+     * length 1 and its only character must be the literal's.
+     */
+    private VReg lowerCharCompare(BinaryExpr expr) {
+        boolean isEq = expr.operator.equals("==");
+        VReg str = expr.left.dispatch(this);
+        VReg result = func.newReg(Type.BOOL_TYPE);
+        BasicBlock sameLength = func.newBlock();
+        BasicBlock end = func.newBlock();
+        add(constant(result, isEq ? 0 : 1));
+        VReg length = load(Type.INT_TYPE, str, 12);
+        branch(op(Op.EQ, Type.BOOL_TYPE, length, constant(Type.INT_TYPE, 1)), sameLength, end);
+
+        startBlock(sameLength);
+        VReg ch = opImm(Op.LOAD_BYTE, Type.INT_TYPE, str, 20);
+        VReg literal = constant(Type.INT_TYPE, ((StringLiteral) expr.right).value.charAt(0));
+        add(new Insn(Op.MOVE, result, op(isEq ? Op.EQ : Op.NE, Type.BOOL_TYPE, ch, literal)));
+        jump(end);
+
+        startBlock(end);
+        return result;
+    }
+
+    /** Lowers `and` and `or`, which only evaluate their right operand if needed. */
+    private VReg lowerShortCircuit(BinaryExpr expr) {
+        VReg result = func.newReg(Type.BOOL_TYPE);
+        BasicBlock right = func.newBlock();
+        BasicBlock end = func.newBlock();
+        add(new Insn(Op.MOVE, result, expr.left.dispatch(this)));
+        if (expr.operator.equals("and")) {
+            branch(result, right, end);
+        } else {
+            branch(result, end, right);
+        }
+
+        startBlock(right);
+        add(new Insn(Op.MOVE, result, expr.right.dispatch(this)));
+        jump(end);
+
+        startBlock(end);
+        return result;
+    }
+
+    @Override
+    public VReg analyze(IfExpr expr) {
+        VReg result = func.newReg(typeOf(expr));
+        BasicBlock thenBlock = func.newBlock();
+        BasicBlock elseBlock = func.newBlock();
+        BasicBlock end = func.newBlock();
+        branch(expr.condition.dispatch(this), thenBlock, elseBlock);
+
+        startBlock(thenBlock);
+        add(new Insn(Op.MOVE, result,
+                coerce(expr.thenExpr.dispatch(this), expr.thenExpr.getInferredType(), expr.getInferredType())));
+        jump(end);
+
+        startBlock(elseBlock);
+        add(new Insn(Op.MOVE, result,
+                coerce(expr.elseExpr.dispatch(this), expr.elseExpr.getInferredType(), expr.getInferredType())));
+        jump(end);
+
+        startBlock(end);
+        return result;
+    }
+
+    @Override
+    public VReg analyze(ListExpr expr) {
+        ValueType type = typeOf(expr);
+        Type elementType = type instanceof ListValueType ? ((ListValueType) type).elementType : Type.OBJECT_TYPE;
+        List<VReg> args = new ArrayList<>();
+        args.add(null);
+        for (Expr element : expr.elements) {
+            args.add(coerce(element.dispatch(this), element.getInferredType(), elementType));
+        }
+        // conslist takes the length on top of the elements
+        args.set(0, constant(Type.INT_TYPE, expr.elements.size()));
+        return call(codegen.conslist, type, args);
+    }
+
+    @Override
+    public VReg analyze(MemberExpr expr) {
+        VReg object = lowerObject(expr.object);
+        return load(typeOf(expr), object, attrOffset(expr));
+    }
+
+    /** Returns the byte offset of the attribute selected by EXPR in its object. */
+    private int attrOffset(MemberExpr expr) {
+        return 12 + classOf(expr.object).getAttributeIndex(expr.member.name) * 4;
+    }
+
+    /** Lowers EXPR, the object of an attribute access or method call, checking it is not None. */
+    private VReg lowerObject(Expr expr) {
+        VReg object = expr.dispatch(this);
+        boolean isSelf = funcInfo.isMethod && expr instanceof Identifier
+                && funcInfo.getParams().indexOf(((Identifier) expr).name) == 0;
+        if (!(isSelf && isSelfConstant)) {
+            checkNonZero(object, codegen.errorNone);
+        }
+        return object;
+    }
+
+    @Override
+    public VReg analyze(IndexExpr expr) {
+        if (Type.STR_TYPE.equals(expr.list.getInferredType())) {
+            VReg str = expr.list.dispatch(this);
+            VReg index = expr.index.dispatch(this);
+            checkNonZero(str, codegen.errorNone);
+            checkBounds(index, load(Type.INT_TYPE, str, 12));
+            return lowerChar(str, index);
+        }
+        return load(typeOf(expr), lowerElementAddr(expr), 16);
+    }
+
+    /**
+     * Lowers the list and index of EXPR, checking the list is not None and the index in bounds,
+     * and returns the address of the element less the offset of the first one.
+     */
+    private VReg lowerElementAddr(IndexExpr expr) {
+        if (!(expr.list.getInferredType() instanceof ListValueType)) {
+            throw new Unsupported("index into " + expr.list.getInferredType());
+        }
+        VReg list = expr.list.dispatch(this);
+        VReg index = expr.index.dispatch(this);
+        checkNonZero(list, codegen.errorNone);
+        checkBounds(index, load(Type.INT_TYPE, list, 12));
+        VReg offset = opImm(Op.SLLI, Type.INT_TYPE, index, 2);
+        return op(Op.ADD, Type.INT_TYPE, list, offset);
+    }
+
+    /** Returns the one-character string at INDEX of STR, which is in bounds. */
+    private VReg lowerChar(VReg str, VReg index) {
+        codegen.requireInitChar = true;
+        VReg address = op(Op.ADD, Type.INT_TYPE, str, index);
+        VReg ch = opImm(Op.LOAD_BYTE, Type.INT_TYPE, address, 20);
+        // the interned one-character strings are 6 words each
+        VReg offset = op(Op.MUL, Type.INT_TYPE, ch, constant(Type.INT_TYPE, 24));
+        VReg table = add(address(func.newReg(Type.STR_TYPE), codegen.allChars));
+        return op(Op.ADD, Type.STR_TYPE, table, offset);
+    }
+
+    @Override
+    public VReg analyze(CallExpr expr) {
+        String name = expr.function.name;
+        SymbolInfo info = sym.get(name);
+        List<VReg> args = new ArrayList<>();
+        switch (name) {
+            case "print":
+                return lowerPrint(expr.args.get(0));
+            case "len":
+                return lowerLen(expr.args.get(0));
+            case "input":
+                codegen.getConstants().allowAnyChar();
+                return call(new Label("$input"), Type.STR_TYPE, args);
+            case "int":
+                return constant(Type.INT_TYPE, 0);
+            case "bool":
+                return constant(Type.BOOL_TYPE, 0);
+            case "str":
+                return add(address(func.newReg(Type.STR_TYPE), codegen.getConstants().getStrConstant("")));
+            default:
+                break;
+        }
+
+        if (info instanceof ClassInfo) {
+            ClassInfo classInfo = (ClassInfo) info;
+            Insn alloc = new Insn(Op.NEW, func.newReg(typeOf(expr)));
+            alloc.label = classInfo.getPrototypeLabel();
+            VReg object = add(alloc);
+            VReg table = load(Type.OBJECT_TYPE, object, 8);
+            VReg init = load(Type.OBJECT_TYPE, table, 0);
+            args.add(object);
+            callIndirect(init, Type.NONE_TYPE, args);
+            return object;
+        }
+
+        FuncInfo callee = (FuncInfo) info;
+        if (callee.getDepth() > 0) {
+            throw new Unsupported("call of nested function " + callee.getFuncName());
+        }
+        return callDirect(callee, typeOf(expr), lowerArgs(expr.args, callee, 0));
+    }
+
+    /**
+     * Appends a call of CALLEE with ARGS, or its body inlined, returning a fresh temporary of TYPE
+     * with the result.
+     */
+    private VReg callDirect(FuncInfo callee, ValueType type, List<VReg> args) {
+        VReg result = inline(callee, type, args);
+        return result != null ? result : call(callee.getCodeLabel(), type, args);
+    }
+
+    /**
+     * Lowers the body of CALLEE in place of a call with ARGS, returning a fresh temporary of TYPE
+     * with the result; or returns null, having lowered nothing, if it is not to be inlined.
+     */
+    private VReg inline(FuncInfo callee, ValueType type, List<VReg> args) {
+        int depth = 0;
+        for (Inline outer = inline; outer != null; outer = outer.outer) {
+            if (outer.callee == callee) {
+                return null;
+            }
+            depth++;
+        }
+        if (callee == func.funcInfo || depth >= INLINE_DEPTH || nestedFunctionOf(callee) != null) {
+            return null;
+        }
+
+        FuncInfo callerInfo = funcInfo;
+        SymbolTable<SymbolInfo> callerSym = sym;
+        Map<String, VReg> callerVars = vars;
+        boolean callerSelfConstant = isSelfConstant;
+        Inline callerInline = inline;
+        BasicBlock start = current;
+        int startSize = start.insns.size();
+        int blockCount = func.blocks.size();
+
+        funcInfo = callee;
+        sym = callee.getSymbolTable();
+        vars = new HashMap<>();
+        isSelfConstant = callee.isMethod && !assignsSelf(callee.getStatements());
+        inline = new Inline(callee, func.newReg(type), func.newBlock(), callerInline);
+        boolean inlined;
+        try {
+            for (int i = 0; i < args.size(); i++) {
+                String name = callee.getParams().get(i);
+                VReg param = func.newReg(((StackVarInfo) sym.get(name)).getVarType(), name);
+                vars.put(name, param);
+                add(new Insn(Op.MOVE, param, args.get(i)));
+            }
+            for (StackVarInfo local : callee.getLocals()) {
+                vars.put(local.getVarName(), func.newReg(local.getVarType(), local.getVarName()));
+            }
+            initLocals();
+            lowerStmts(callee.getStatements());
+            if (!current.isTerminated()) {
+                add(new Insn(Op.MOVE, inline.result, constant(Type.NONE_TYPE, 0)));
+                jump(inline.end);
+            }
+            inlined = isInlinable(callee, start, startSize, blockCount);
+        } catch (Unsupported e) {
+            inlined = false;
+        }
+
+        VReg result = inline.result;
+        if (inlined) {
+            startBlock(inline.end);
+        } else {
+            func.blocks.subList(blockCount, func.blocks.size()).clear();
+            start.insns.subList(startSize, start.insns.size()).clear();
+            current = start;
+        }
+        funcInfo = callerInfo;
+        sym = callerSym;
+        vars = callerVars;
+        isSelfConstant = callerSelfConstant;
+        inline = callerInline;
+        return inlined ? result : null;
+    }
+
+    /**
+     * True if the code of the body of CALLEE, added from instruction STARTSIZE of START and from
+     * block BLOCKCOUNT on, is within the budget and calls no CALLEE.
+     */
+    private boolean isInlinable(FuncInfo callee, BasicBlock start, int startSize, int blockCount) {
+        List<Insn> added = new ArrayList<>(start.insns.subList(startSize, start.insns.size()));
+        for (BasicBlock block : func.blocks.subList(blockCount, func.blocks.size())) {
+            added.addAll(block.insns);
+        }
+        for (Insn insn : added) {
+            if (insn.op == Op.CALL && insn.label.equals(callee.getCodeLabel())) {
+                return false;
+            }
+        }
+        return added.size() <= INLINE_BUDGET;
+    }
+
+    /** Lowers ARGS, passed to the parameters of CALLEE from FIRST on. */
+    private List<VReg> lowerArgs(List<Expr> args, FuncInfo callee, int first) {
+        List<VReg> values = new ArrayList<>();
+        for (int i = 0; i < args.size(); i++) {
+            Expr arg = args.get(i);
+            StackVarInfo param = (StackVarInfo) callee.getSymbolTable().get(callee.getParams().get(first + i));
+            values.add(coerce(arg.dispatch(this), arg.getInferredType(), param.getVarType()));
+        }
+        return values;
+    }
+
+    /** Lowers print(ARG). */
+    private VReg lowerPrint(Expr arg) {
+        Type type = arg.getInferredType();
+        VReg value = arg.dispatch(this);
+        if (Type.NONE_TYPE.equals(type)) {
+            checkNonZero(value, codegen.errorArg);
+        }
+        List<VReg> args = new ArrayList<>();
+        args.add(coerce(value, type, Type.OBJECT_TYPE));
+        return call(new Label("$print"), Type.NONE_TYPE, args);
+    }
+
+    /** Lowers len(ARG), reading the length of a str or list in place. */
+    private VReg lowerLen(Expr arg) {
+        Type type = arg.getInferredType();
+        VReg value = arg.dispatch(this);
+        if (!Type.STR_TYPE.equals(type) && !isList(type)) {
+            // None, int and bool are invalid arguments
+            checkNonZero(constant(Type.INT_TYPE, 0), codegen.errorArg);
+            return constant(Type.INT_TYPE, 0);
+        }
+        checkNonZero(value, codegen.errorArg);
+        return load(Type.INT_TYPE, value, 12);
+    }
+
+    @Override
+    public VReg analyze(MethodCallExpr expr) {
+        ClassInfo classInfo = classOf(expr.method.object);
+        int methodIndex = classInfo.getMethodIndex(expr.method.member.name);
+        FuncInfo callee = classInfo.methods.get(methodIndex);
+        // no subclass overriding the method, it is called directly
+        boolean isDirect = codegen.getClassHierarchy().getTarget(classInfo, expr.method.member.name) != null;
+
+        VReg object = lowerObject(expr.method.object);
+        VReg method = null;
+        if (!isDirect) {
+            VReg table = load(Type.OBJECT_TYPE, object, 8);
+            method = load(Type.OBJECT_TYPE, table, methodIndex * 4);
+        }
+        List<VReg> args = new ArrayList<>();
+        args.add(object);
+        args.addAll(lowerArgs(expr.args, callee, 1));
+        if (isDirect) {
+            return callDirect(callee, typeOf(expr), args);
+        }
+        return callIndirect(method, typeOf(expr), args);
+    }
+}
@@ -0,0 +1,72 @@
+package chocopy.pa3.ir;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The registers live on entry to and exit from each block of a function, found by the usual
+ * backward dataflow iteration. Register sets are bit sets indexed by register id.
+ */
+public class Liveness {
+    /** The registers live on entry to each block. */
+    private final Map<BasicBlock, BitSet> liveIn = new HashMap<>();
+    /** The registers live on exit from each block. */
+    private final Map<BasicBlock, BitSet> liveOut = new HashMap<>();
+
+    /** Computes the live registers of FUNC. */
+    public Liveness(IrFunction func) {
+        Map<BasicBlock, BitSet> uses = new HashMap<>();
+        Map<BasicBlock, BitSet> defs = new HashMap<>();
+        for (BasicBlock block : func.blocks) {
+            BitSet use = new BitSet();
+            BitSet def = new BitSet();
+            for (Insn insn : block.insns) {
+                for (VReg src : insn.srcs) {
+                    if (!def.get(src.id)) {
+                        use.set(src.id);
+                    }
+                }
+                if (insn.dst != null) {
+                    def.set(insn.dst.id);
+                }
+            }
+            uses.put(block, use);
+            defs.put(block, def);
+            liveIn.put(block, new BitSet());
+            liveOut.put(block, new BitSet());
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            List<BasicBlock> blocks = func.blocks;
+            for (int i = blocks.size() - 1; i >= 0; i--) {
+                BasicBlock block = blocks.get(i);
+                BitSet out = new BitSet();
+                for (BasicBlock succ : block.getSuccessors()) {
+                    out.or(liveIn.get(succ));
+                }
+                BitSet in = (BitSet) out.clone();
+                in.andNot(defs.get(block));
+                in.or(uses.get(block));
+                if (!in.equals(liveIn.get(block)) || !out.equals(liveOut.get(block))) {
+                    liveIn.put(block, in);
+                    liveOut.put(block, out);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /** Returns the registers live on entry to BLOCK. */
+    public BitSet getLiveIn(BasicBlock block) {
+        return liveIn.get(block);
+    }
+
+    /** Returns the registers live on exit from BLOCK. */
+    public BitSet getLiveOut(BasicBlock block) {
+        return liveOut.get(block);
+    }
+}
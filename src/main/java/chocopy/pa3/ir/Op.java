@@ -0,0 +1,99 @@
+package chocopy.pa3.ir;
+
+/** The operations of the IR. */
+public enum Op {
+    /** dst := imm */
+    CONST,
+    /** dst := address of label */
+    ADDR,
+    /** dst := src0 */
+    MOVE,
+    /** dst := srcs[i], where phiBlocks[i] is the predecessor control came from (SSA form only) */
+    PHI,
+
+    /** dst := src0 + src1 */
+    ADD,
+    /** dst := src0 - src1 */
+    SUB,
+    /** dst := src0 * src1 */
+    MUL,
+    /** dst := src0 // src1, rounded towards negative infinity; src1 is non-zero */
+    DIV,
+    /** dst := src0 % src1, with the sign of src1; src1 is non-zero */
+    MOD,
+    /** dst := src0 + imm, with imm a 12-bit immediate */
+    ADDI,
+    /** dst := src0 << imm */
+    SLLI,
+    /** dst := -src0 */
+    NEG,
+    /** dst := 1 if src0 is 0, else 0 */
+    NOT,
+    /** dst := src0 == src1 */
+    EQ,
+    /** dst := src0 != src1 */
+    NE,
+    /** dst := src0 < src1 */
+    LT,
+    /** dst := src0 <= src1 */
+    LE,
+    /** dst := src0 > src1 */
+    GT,
+    /** dst := src0 >= src1 */
+    GE,
+
+    /** dst := word at src0 + imm */
+    LOAD,
+    /** dst := unsigned byte at src0 + imm */
+    LOAD_BYTE,
+    /** word at src1 + imm := src0 */
+    STORE,
+    /** dst := global word at label */
+    LOAD_GLOBAL,
+    /** global word at label := src0 */
+    STORE_GLOBAL,
+
+    /** Jumps to label, an error routine, unless src0 is non-zero. */
+    CHECK_NONZERO,
+    /** Jumps to label, an error routine, unless 0 <= src0 < src1. */
+    CHECK_BOUNDS,
+
+    /** dst := boxed int src0 */
+    BOX_INT,
+    /** dst := boxed bool src0, one of the two preallocated bools */
+    BOX_BOOL,
+    /** dst := new object, a copy of the prototype at label */
+    NEW,
+    /** dst := result of calling label with srcs pushed on the stack, the first on top */
+    CALL,
+    /** dst := result of calling the address src0 with srcs[1..] pushed on the stack */
+    CALL_INDIRECT,
+
+    /** Jumps to target. */
+    JUMP,
+    /** Jumps to target if src0 is non-zero, else to elseTarget. */
+    BRANCH,
+    /** Returns src0, or None without sources. */
+    RETURN,
+    /** Returns the result of calling label with srcs, passed in the slots of the arguments. */
+    TAIL_CALL,
+    /** Returns the result of calling the address src0 with srcs[1..], passed likewise. */
+    TAIL_CALL_INDIRECT;
+
+    /** True if this operation ends a basic block. */
+    public boolean isTerminator() {
+        return this == JUMP || this == BRANCH || this == RETURN || this == TAIL_CALL
+                || this == TAIL_CALL_INDIRECT;
+    }
+
+    /** True if this operation calls code that may clobber the caller-saved registers. */
+    public boolean isCall() {
+        return this == BOX_INT || this == NEW || this == CALL || this == CALL_INDIRECT;
+    }
+
+    /** True if this operation has an effect besides defining dst. */
+    public boolean hasSideEffect() {
+        return isCall() || isTerminator() || this == STORE || this == STORE_GLOBAL
+                || this == CHECK_NONZERO || this == CHECK_BOUNDS;
+    }
+}
@@ -0,0 +1,201 @@
+package chocopy.pa3.ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Conversion of a function into static single assignment form, and back.
+ *
+ * <p>construct() places phis for every register assigned more than once at the iterated dominance
+ * frontier of its definitions, where it is live, and renames each definition to a fresh version
+ * of the register along the dominator tree. The parameters are their own first version.
+ *
+ * <p>destruct() renames every version back to its register, drops the phis and folds copies of
+ * temporaries into their definitions. The renaming is only correct while no two versions of a
+ * register are live at the same point, which holds right after construction; passes running in
+ * between must keep it so, e.g. by never propagating copies. Folding definitions into constants
+ * and deleting dead code do.
+ */
+public class Ssa {
+    /** The function being converted. */
+    private final IrFunction func;
+    /** The register each version stands for. */
+    private final Map<VReg, VReg> original = new HashMap<>();
+    /** The register each phi merges the versions of. */
+    private final Map<Insn, VReg> phiRegs = new HashMap<>();
+    /** The versions in scope during renaming, innermost on top, by register. */
+    private final Map<VReg, Deque<VReg>> versions = new HashMap<>();
+
+    /** A converter of FUNC. */
+    public Ssa(IrFunction func) {
+        this.func = func;
+    }
+
+    /** Converts the function to SSA form. */
+    public void construct() {
+        Map<VReg, Set<BasicBlock>> defBlocks = new LinkedHashMap<>();
+        Map<VReg, Integer> defCount = new HashMap<>();
+        for (VReg param : func.params) {
+            defBlocks.computeIfAbsent(param, r -> new LinkedHashSet<>()).add(func.getEntry());
+            defCount.put(param, 1);
+        }
+        for (BasicBlock block : func.blocks) {
+            for (Insn insn : block.insns) {
+                if (insn.dst != null) {
+                    defBlocks.computeIfAbsent(insn.dst, r -> new LinkedHashSet<>()).add(block);
+                    defCount.merge(insn.dst, 1, Integer::sum);
+                }
+            }
+        }
+
+        Dominators doms = new Dominators(func);
+        Liveness liveness = new Liveness(func);
+        Map<BasicBlock, List<BasicBlock>> preds = func.getPredecessors();
+        for (Map.Entry<VReg, Set<BasicBlock>> entry : defBlocks.entrySet()) {
+            VReg reg = entry.getKey();
+            if (defCount.get(reg) < 2) {
+                continue;
+            }
+            versions.put(reg, new ArrayDeque<>());
+            Deque<BasicBlock> work = new ArrayDeque<>(entry.getValue());
+            Set<BasicBlock> placed = new HashSet<>();
+            while (!work.isEmpty()) {
+                BasicBlock block = work.pop();
+                for (BasicBlock join : doms.getFrontier(block)) {
+                    if (placed.contains(join) || !liveness.getLiveIn(join).get(reg.id)) {
+                        continue;
+                    }
+                    placed.add(join);
+                    Insn phi = new Insn(Op.PHI, reg);
+                    for (BasicBlock pred : preds.get(join)) {
+                        phi.srcs.add(reg);
+                        phi.phiBlocks.add(pred);
+                    }
+                    join.insns.add(0, phi);
+                    phiRegs.put(phi, reg);
+                    if (!entry.getValue().contains(join)) {
+                        work.push(join);
+                    }
+                }
+            }
+        }
+
+        for (VReg param : func.params) {
+            if (versions.containsKey(param)) {
+                versions.get(param).push(param);
+            }
+        }
+        rename(func.getEntry(), doms);
+    }
+
+    /** Renames the definitions and uses in BLOCK and the blocks it dominates to versions. */
+    private void rename(BasicBlock block, Dominators doms) {
+        List<VReg> pushed = new ArrayList<>();
+        for (Insn insn : block.insns) {
+            if (insn.op != Op.PHI) {
+                for (int i = 0; i < insn.srcs.size(); i++) {
+                    insn.srcs.set(i, current(insn.src(i)));
+                }
+            }
+            if (insn.dst != null && versions.containsKey(insn.dst)) {
+                VReg reg = insn.dst;
+                VReg version = func.newReg(reg.type, reg.name);
+                original.put(version, reg);
+                versions.get(reg).push(version);
+                pushed.add(reg);
+                insn.dst = version;
+            }
+        }
+        for (BasicBlock succ : block.getSuccessors()) {
+            for (Insn insn : succ.insns) {
+                if (insn.op != Op.PHI) {
+                    break;
+                }
+                for (int i = 0; i < insn.srcs.size(); i++) {
+                    if (insn.phiBlocks.get(i) == block) {
+                        insn.srcs.set(i, current(phiRegs.get(insn)));
+                    }
+                }
+            }
+        }
+        for (BasicBlock child : doms.getChildren(block)) {
+            rename(child, doms);
+        }
+        for (VReg reg : pushed) {
+            versions.get(reg).pop();
+        }
+    }
+
+    /** Returns the version of REG in scope, or REG itself if it has none. */
+    private VReg current(VReg reg) {
+        Deque<VReg> stack = versions.get(reg);
+        return stack == null || stack.isEmpty() ? reg : stack.peek();
+    }
+
+    /** Converts the function back from SSA form. */
+    public void destruct() {
+        for (BasicBlock block : func.blocks) {
+            Iterator<Insn> iter = block.insns.iterator();
+            while (iter.hasNext()) {
+                Insn insn = iter.next();
+                if (insn.op == Op.PHI) {
+                    iter.remove();
+                    continue;
+                }
+                if (insn.dst != null) {
+                    insn.dst = original.getOrDefault(insn.dst, insn.dst);
+                }
+                for (int i = 0; i < insn.srcs.size(); i++) {
+                    insn.srcs.set(i, original.getOrDefault(insn.src(i), insn.src(i)));
+                }
+                if (insn.op == Op.MOVE && insn.dst == insn.src(0)) {
+                    iter.remove();
+                }
+            }
+        }
+        coalesceCopies();
+    }
+
+    /**
+     * Removes the copies of a temporary into a register right after its only definition, which
+     * then defines the register directly.
+     */
+    private void coalesceCopies() {
+        int[] useCount = new int[func.getRegCount()];
+        int[] defCount = new int[func.getRegCount()];
+        for (VReg param : func.params) {
+            defCount[param.id] += 1;
+        }
+        for (BasicBlock block : func.blocks) {
+            for (Insn insn : block.insns) {
+                for (VReg src : insn.srcs) {
+                    useCount[src.id] += 1;
+                }
+                if (insn.dst != null) {
+                    defCount[insn.dst.id] += 1;
+                }
+            }
+        }
+        for (BasicBlock block : func.blocks) {
+            List<Insn> insns = block.insns;
+            for (int i = insns.size() - 1; i > 0; i--) {
+                Insn copy = insns.get(i);
+                Insn def = insns.get(i - 1);
+                if (copy.op == Op.MOVE && def.dst == copy.src(0)
+                        && useCount[def.dst.id] == 1 && defCount[def.dst.id] == 1) {
+                    def.dst = copy.dst;
+                    insns.remove(i);
+                }
+            }
+        }
+    }
+}
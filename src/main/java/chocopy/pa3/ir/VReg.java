@@ -0,0 +1,32 @@
+package chocopy.pa3.ir;
+
+import chocopy.common.analysis.types.ValueType;
+
+/**
+ * A virtual register of the IR.
+ *
+ * <p>A function has an unbounded number of virtual registers, each holding one word: an unboxed int
+ * or bool, or a reference (possibly None). Locals and parameters of the function are virtual
+ * registers too; IrEmitter maps them to machine registers or stack slots.
+ */
+public class VReg {
+    /** The number of this register, unique within its function. */
+    public final int id;
+    /** The static type of the value held by this register. */
+    public final ValueType type;
+    /** The name of the variable held by this register, or null for a temporary. */
+    public final String name;
+
+    /** A register numbered ID holding values of TYPE, named after variable NAME (or null). */
+    VReg(int id, ValueType type, String name) {
+        this.id = id;
+        this.type = type;
+        this.name = name;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return name == null ? "%" + id : "%" + id + "." + name;
+    }
+}
@@ -0,0 +1,60 @@
+# Self tail calls that would take megabytes of stack if each pushed a frame,
+# mutual tail calls, and tail calls through an overridden method.
+
+class Node(object):
+    next: "Node" = None
+    val: int = 0
+
+    def sum(self: "Node", acc: int) -> int:
+        if self.next is None:
+            return acc + self.val
+        return self.next.sum(acc + self.val)
+
+class Skip(Node):
+    def sum(self: "Skip", acc: int) -> int:
+        if self.next is None:
+            return acc
+        return self.next.sum(acc)
+
+def count(n: int, acc: int) -> int:
+    if n == 0:
+        return acc
+    return count(n - 1, acc + n % 7)
+
+def ev(n: int) -> bool:
+    if n == 0:
+        return True
+    return od(n - 1)
+
+def od(n: int) -> bool:
+    if n == 0:
+        return False
+    return ev(n - 1)
+
+def gcd(a: int, b: int) -> int:
+    if b == 0:
+        return a
+    return gcd(b, a % b)
+
+def widen(x: int) -> object:
+    return count(x, 0)
+
+h: Node = None
+n: Node = None
+i: int = 0
+print(count(300000, 0))
+print(ev(20000))
+print(od(2001))
+print(gcd(1071, 462))
+print(gcd(462, 1071))
+print(widen(10))
+while i < 3000:
+    if i % 3 == 0:
+        n = Skip()
+    else:
+        n = Node()
+    n.val = i
+    n.next = h
+    h = n
+    i = i + 1
+print(h.sum(0))
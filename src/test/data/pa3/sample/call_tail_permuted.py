@@ -0,0 +1,29 @@
+class Rot(object):
+    def swap(self: "Rot", a: int, b: int, n: int) -> int:
+        if n == 0:
+            return a * 100 + b
+        return self.swap(b, a, n - 1)
+
+def swap(a: int, b: int, n: int) -> int:
+    if n == 0:
+        return a * 100 + b
+    return swap(b, a, n - 1)
+
+def rot(a: int, b: int, c: int, d: int, e: int, f: int, g: int, h: int, i: int, n: int) -> int:
+    if n == 0:
+        return a + 2 * b + 3 * c + 4 * d + 5 * e + 6 * f + 7 * g + 8 * h + 9 * i
+    return rot(b, c, d, e, f, g, h, i, a, n - 1)
+
+def pick(a: int, b: int) -> int:
+    return a * 10 + b
+
+def flip(a: int, b: int) -> int:
+    return pick(b, a)
+
+print(swap(1, 2, 5))
+print(swap(1, 2, 6))
+print(rot(1, 2, 3, 4, 5, 6, 7, 8, 9, 1))
+print(rot(1, 2, 3, 4, 5, 6, 7, 8, 9, 4))
+print(Rot().swap(1, 2, 5))
+print(Rot().swap(1, 2, 6))
+print(flip(1, 2))
@@ -0,0 +1,48 @@
+# Short-lived lists, strings and objects fill the heap many times over, while
+# a long-lived tree and a local list must survive every collection.
+
+class Tree(object):
+    left: "Tree" = None
+    right: "Tree" = None
+    v: int = 0
+
+def make(d: int) -> Tree:
+    t: Tree = None
+    t = Tree()
+    t.v = d
+    if d > 0:
+        t.left = make(d - 1)
+        t.right = make(d - 1)
+    return t
+
+def count(t: Tree) -> int:
+    if t is None:
+        return 0
+    return 1 + count(t.left) + count(t.right)
+
+def churn(n: int) -> int:
+    i: int = 0
+    c: int = 0
+    kept: [object] = None
+    junk: [int] = None
+    s: str = ""
+    kept = [1000, "kept", True]
+    while i < n:
+        c = c + count(make(7))
+        junk = [i, i, i, i, i, i, i, i, i, i, i, i, i, i, i, i]
+        junk = junk + junk + junk + junk
+        s = s + "xy"
+        if len(s) > 60:
+            s = ""
+        i = i + 1
+    print(kept[0])
+    print(kept[1])
+    print(kept[2])
+    return c + len(junk) + len(s)
+
+longlived: Tree = None
+longlived = make(9)
+print(churn(150))
+print(count(longlived))
+print(churn(150))
+print(count(longlived))
@@ -0,0 +1,47 @@
+# Builds more live data than fits in the initial heap, so that the heap must
+# grow, with garbage created in between so that collections run as it grows.
+
+class Node(object):
+    next: "Node" = None
+    val: int = 0
+    name: str = ""
+
+def build(n: int) -> Node:
+    head: Node = None
+    x: Node = None
+    junk: [int] = None
+    i: int = 0
+    while i < n:
+        x = Node()
+        x.val = i * 7
+        x.name = "n" + "abcdefghij"[i % 10]
+        x.next = head
+        head = x
+        if i % 100 == 0:
+            junk = [i, i, i, i, i, i, i, i, i, i, i, i, i, i, i, i]
+            junk = junk + junk + junk + junk + junk + junk + junk + junk
+        i = i + 1
+    return head
+
+def check(h: Node, n: int) -> int:
+    total: int = 0
+    i: int = 0
+    i = n - 1
+    while not (h is None):
+        if h.val != i * 7 or h.name != "n" + "abcdefghij"[i % 10]:
+            print(i)
+            return -1
+        total = total + 1
+        h = h.next
+        i = i - 1
+    return total
+
+first: Node = None
+second: Node = None
+first = build(12000)
+second = build(12000)
+print(check(first, 12000))
+print(check(second, 12000))
+first = None
+second = build(16000)
+print(check(second, 16000))
@@ -0,0 +1,35 @@
+# Allocates a list of 524800 ints, larger than twice the initial 1 MB heap:
+# the heap must grow more than once to hold it.
+
+def build(doublings: int) -> [int]:
+    xs: [int] = None
+    i: int = 0
+    xs = []
+    while i < 1025:
+        xs = xs + [i]
+        i = i + 1
+    i = 0
+    while i < doublings:
+        xs = xs + xs
+        i = i + 1
+    return xs
+
+def sample(xs: [int], step: int) -> int:
+    total: int = 0
+    i: int = 0
+    while i < len(xs):
+        total = total + xs[i]
+        i = i + step
+    return total
+
+big: [int] = None
+bigger: [int] = None
+big = build(8)
+print(len(big))
+print(sample(big, 997))
+bigger = big + big
+print(len(bigger))
+print(bigger[262399])
+print(bigger[262400])
+print(bigger[524799])
+print(sample(bigger, 997))
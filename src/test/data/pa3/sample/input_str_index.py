@@ -0,0 +1,23 @@
+# Indexes and iterates over the lines read with input(), which keep their
+# newline; each character is taken from the one-character string table.
+
+s: str = ""
+c: str = ""
+i: int = 0
+
+s = input()
+while len(s) > 0:
+    print(len(s))
+    print(s[0])
+    print(s[len(s) - 2])
+    print(s[len(s) - 1] == "\n")
+    i = 0
+    while i < len(s):
+        if s[i] == " ":
+            print(i)
+        i = i + 1
+    for c in s:
+        if c == "!":
+            print(c + c)
+    s = input()
+print(s == "")
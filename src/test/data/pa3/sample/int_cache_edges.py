@@ -0,0 +1,22 @@
+# Ints just inside and just outside the range that is boxed from the
+# preallocated table.
+
+xs: [object] = None
+x: object = None
+i: int = 0
+
+xs = [-129, -128, -127, 0, 1022, 1023, 1024, "end"]
+for x in xs:
+    print(x)
+
+i = -130
+while i <= -127:
+    x = i
+    print(x)
+    i = i + 1
+
+i = 1022
+while i <= 1025:
+    x = i
+    print(x)
+    i = i + 1
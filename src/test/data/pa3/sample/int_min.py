@@ -0,0 +1,9 @@
+x:int = 0
+y:int = 0
+x = 2147483647
+y = -2147483647
+print(2147483647 + 1)
+print(-2147483647 - 1)
+print(x + 1)
+print(y - 1)
+print(y - 1 < x)
@@ -0,0 +1,35 @@
+# // and % with negative and zero operands, folded from literals, computed
+# at the top level and computed in a function, which must all agree.
+
+xs: [int] = None
+ys: [int] = None
+x: int = 0
+y: int = 0
+
+def divmod_(a: int, b: int) -> int:
+    return (a // b) * 100 + a % b
+
+def constants() -> int:
+    a: int = 0
+    b: int = 0
+    b = -3
+    return (a // b) * 100 + a % b
+
+xs = [-7, -6, -1, 0, 1, 6, 7]
+ys = [-3, -2, -1, 1, 2, 3]
+
+print(0 // -3)
+print(0 % -3)
+print(-7 // 2)
+print(7 // -2)
+print(-7 % 2)
+print(7 % -2)
+print(-6 // 3)
+print(6 // -3)
+print(-1 // -3)
+print(constants())
+
+for x in xs:
+    for y in ys:
+        print((x // y) * 100 + x % y)
+        print(divmod_(x, y))
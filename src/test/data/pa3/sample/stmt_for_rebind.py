@@ -0,0 +1,50 @@
+# Loops in functions over a local or parameter that the body assigns: the
+# loop goes over the value the variable had before it started.
+
+def shrink(ll: [int]) -> int:
+    v: int = 0
+    n: int = 0
+    for v in ll:
+        n = n + 1
+        ll = [7]
+    return n
+
+def grow() -> int:
+    ll: [int] = None
+    v: int = 0
+    s: int = 0
+    ll = [1, 2, 3]
+    for v in ll:
+        s = s + v
+        ll = [7, 8, 9, 10, 11]
+    return s
+
+def double(ll: [int]) -> int:
+    v: int = 0
+    n: int = 0
+    for v in ll:
+        n = n + v
+        ll = ll + ll
+    return n * 1000 + len(ll)
+
+def chars(c0: str) -> str:
+    s: str = ""
+    for c0 in c0:
+        s = s + c0 + c0
+    return s
+
+def nested(xs: [int]) -> int:
+    a: int = 0
+    b: int = 0
+    n: int = 0
+    for a in xs:
+        for b in xs:
+            n = n + 1
+            xs = [b]
+    return n
+
+print(shrink([1, 2, 3]))
+print(grow())
+print(double([1, 2, 3]))
+print(chars("ab"))
+print(nested([4, 5, 6]))
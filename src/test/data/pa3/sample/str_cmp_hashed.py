@@ -0,0 +1,42 @@
+# Equality of strings built at run time, against each other and literals.
+# Strings of equal length are told apart by their hashes, which are kept
+# after the first comparison; "Aa" and "BB" have the same hash.
+
+def build(n: int) -> str:
+    s: str = ""
+    i: int = 0
+    while i < n:
+        s = s + "ab"[i % 2]
+        i = i + 1
+    return s
+
+a: str = ""
+b: str = ""
+c: str = ""
+d: str = ""
+k: int = 0
+a = build(7)
+b = "abababa"
+c = build(7)
+print(a == b)
+print(a == c)
+print(a != b)
+print(a == "abababb")
+print(a != "abababb")
+print(a == "bababab")
+print("" == build(0))
+print(b == b)
+while k < 5:
+    print(build(k) == "abab")
+    print(a == c)
+    k = k + 1
+for c in "xyz":
+    print(c == "y")
+    print(c + c == "yy")
+print(build(3) + "zz" == "abazz")
+print(build(3) + "zz" == "abzza")
+d = "A" + "a"
+print(d == "BB")
+print(d == "Aa")
+print("B" + "B" == d)
+print(d != "BB")
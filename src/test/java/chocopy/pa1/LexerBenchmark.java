@@ -0,0 +1,116 @@
+package chocopy.pa1;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * JMH benchmark of the lexer alone: the time to turn a source into tokens through
+ * myGetNextToken, as the parser does, including its queue of pending tokens and its stack of
+ * indentation levels.
+ *
+ * <p>The input is either "samples", every .py file under src/test/data one after another, or
+ * "nested", a generated source of about 4 MB of functions nested 24 deep, whose dedents pop many
+ * levels at once.
+ *
+ * <p>Run it with
+ *
+ * <pre>
+ *   mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/test.classpath
+ *   java -cp "target/test-classes:target/classes:$(cat target/test.classpath)" \
+ *       chocopy.pa1.LexerBenchmark
+ * </pre>
+ *
+ * To compare with an earlier lexer, check out its ChocoPy.jflex over the current one and run the
+ * same commands again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class LexerBenchmark {
+
+    /** The depth of the functions of the nested input. */
+    private static final int NESTING = 24;
+
+    /** The input lexed: "samples" or "nested". */
+    @Param({"samples", "nested"})
+    public String input;
+
+    /** The source of INPUT. */
+    private String source;
+
+    @Setup
+    public void setUp() throws IOException {
+        source = input.equals("samples") ? samples() : nested(4 << 20);
+    }
+
+    /** Returns the number of tokens of the source, so that lexing it is not optimized away. */
+    @Benchmark
+    public int lex() throws IOException {
+        ChocoPyLexer lexer = new ChocoPyLexer(new StringReader(source));
+        int tokens = 0;
+        while (lexer.myGetNextToken().sym != ChocoPyTokens.EOF) {
+            tokens++;
+        }
+        return tokens;
+    }
+
+    /** Returns every .py file under src/test/data, in order of their paths. */
+    private static String samples() throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(Paths.get("src/test/data"))) {
+            files = walk.filter(p -> p.toString().endsWith(".py")).sorted()
+                    .collect(Collectors.toList());
+        }
+        StringBuilder text = new StringBuilder();
+        for (Path file : files) {
+            text.append(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).append('\n');
+        }
+        return text.toString();
+    }
+
+    /** Returns about LENGTH characters of functions nested NESTING deep. */
+    private static String nested(int length) {
+        StringBuilder text = new StringBuilder();
+        for (int n = 0; text.length() < length; n++) {
+            StringBuilder indent = new StringBuilder();
+            for (int depth = 0; depth < NESTING; depth++) {
+                text.append(indent).append("def f").append(depth).append("(x: int) -> int:\n");
+                indent.append("    ");
+                text.append(indent).append("y: int = ").append(n).append('\n');
+            }
+            text.append(indent).append("return x * y + \"abc\"[x % 3] # ").append(n).append('\n');
+            text.append("print(f0(").append(n).append("))\n");
+        }
+        return text.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LexerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
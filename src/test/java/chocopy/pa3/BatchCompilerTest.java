@@ -0,0 +1,45 @@
+package chocopy.pa3;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Tests of compiling many programs at once. */
+public class BatchCompilerTest {
+
+    /** The sample programs of the code generator. */
+    private static List<Path> samples() throws IOException {
+        List<Path> inputs = new ArrayList<>();
+        try (DirectoryStream<Path> dir =
+                     Files.newDirectoryStream(Paths.get("src/test/data/pa3/sample"), "*.py")) {
+            for (Path input : dir) {
+                inputs.add(input);
+            }
+        }
+        Collections.sort(inputs);
+        return inputs;
+    }
+
+    @Test
+    public void compilesSamples() throws Exception {
+        for (BatchCompiler.Result result : BatchCompiler.compile(samples(), 2)) {
+            assertTrue(result.getErrorReport(), result.succeeded());
+        }
+    }
+
+    /** Compilations running at once share no state: their output is the same as one at a time. */
+    @Test
+    public void concurrentOutputMatchesSerial() throws Exception {
+        assertEquals(Collections.emptySet(), BatchCompiler.stress(samples(), 8, 4));
+    }
+}
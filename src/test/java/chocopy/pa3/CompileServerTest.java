@@ -0,0 +1,43 @@
+package chocopy.pa3;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Tests of the framing of the compile server. */
+public class CompileServerTest {
+
+    /** Returns the response of a server accepting sources of at most MAXSOURCEBYTES to INPUT. */
+    private static String serve(int maxSourceBytes, String input) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new CompileServer(1, maxSourceBytes, false).serve(
+                new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), output);
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void answersBatch() throws Exception {
+        String response = serve(64, "compile 2\nok.py 9\nprint(1)\nbad.py 9\nprint(x)\nquit\n");
+        assertTrue(response, response.startsWith("ok ok.py "));
+        assertTrue(response, response.contains("\nerror bad.py "));
+        assertTrue(response, response.matches("(?s).*\ndone 2 \\d+\n"));
+    }
+
+    /** The length of a source is checked before its bytes are allocated. */
+    @Test
+    public void rejectsSourceOverLimit() throws Exception {
+        try {
+            serve(8, "compile 1\nbig.py 2000000000\nprint(1)\n");
+            fail("accepted a source over the limit");
+        } catch (IOException e) {
+            assertEquals("source big.py has 2000000000 bytes, more than 8", e.getMessage());
+        }
+    }
+}
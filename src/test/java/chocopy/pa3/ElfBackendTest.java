@@ -0,0 +1,29 @@
+package chocopy.pa3;
+
+import chocopy.common.astnodes.Program;
+import chocopy.common.codegen.CodeGenBase;
+import chocopy.pa1.StudentParser;
+import chocopy.pa2.StudentAnalysis;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+/** Tests of the ELF backend. */
+public class ElfBackendTest {
+
+    /** Returns the ELF executable for SOURCE, or null if code generation failed. */
+    private static byte[] compileToElf(String source) {
+        Program program = StudentAnalysis.process(StudentParser.process(source, false), false);
+        assertFalse(program.getErrorList().toString(), program.hasErrors());
+        return StudentCodeGen.processToElf(program, false,
+                CodeGenBase.DEFAULT_HEAP_SIZE_BYTES, CodeGenBase.DEFAULT_HEAP_MAX_BYTES);
+    }
+
+    /** The folded sum is loaded with li REG, -2147483648, whose decimal has no int negation. */
+    @Test
+    public void assemblesIntMinLiteral() {
+        assertNotNull(compileToElf("print(2147483647 + 1)\n"));
+        assertNotNull(compileToElf("x:int = 0\nx = 2147483647\nprint(x + 1)\nprint(-2147483647 - 1)\n"));
+    }
+}
@@ -0,0 +1,45 @@
+package chocopy.pa3.ir;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Tests of emitting single functions from the IR. */
+public class IrEmitterTest {
+
+    @Test
+    public void emitsLeafWithoutFrame() {
+        LoweringCodeGen codegen = LoweringCodeGen.of(
+                "def inc(x: int) -> int:\n"
+                + "    return x + 1\n"
+                + "print(inc(1))\n");
+        String code = codegen.emit("inc");
+        assertTrue(code, code.contains("\n" + codegen.function("inc").getCodeLabel() + ":\n"));
+        assertTrue(code, code.contains("jr ra"));
+        assertFalse(code, code.contains("sw ra"));
+        assertFalse(code, code.contains("jal"));
+    }
+
+    @Test
+    public void emitsSelfTailCallAsJump() {
+        LoweringCodeGen codegen = LoweringCodeGen.of(
+                "def count(n: int, acc: int) -> int:\n"
+                + "    if n == 0:\n"
+                + "        return acc\n"
+                + "    return count(n - 1, acc + n)\n"
+                + "print(count(10, 0))\n");
+        String code = codegen.emit("count");
+        assertFalse(code, code.contains("jal " + codegen.function("count").getCodeLabel()));
+    }
+
+    @Test
+    public void boxesIntFromTable() {
+        LoweringCodeGen codegen = LoweringCodeGen.of(
+                "def wrap(x: int) -> object:\n"
+                + "    return x\n"
+                + "print(wrap(1))\n");
+        String code = codegen.emit("wrap");
+        assertTrue(code, code.contains("allInts"));
+    }
+}
@@ -0,0 +1,107 @@
+package chocopy.pa3.ir;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Tests of lowering single functions to the IR. */
+public class IrLoweringTest {
+
+    /** Returns the instructions of FUNC, in layout order. */
+    private static List<Insn> insns(IrFunction func) {
+        List<Insn> insns = new ArrayList<>();
+        for (BasicBlock block : func.blocks) {
+            insns.addAll(block.insns);
+        }
+        return insns;
+    }
+
+    /** Returns the number of instructions of FUNC with operation OP. */
+    private static int count(IrFunction func, Op op) {
+        int count = 0;
+        for (Insn insn : insns(func)) {
+            if (insn.op == op) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void lowersParametersAndLocals() {
+        IrFunction func = LoweringCodeGen.of(
+                "def f(x: int, y: bool) -> int:\n"
+                + "    z: int = 3\n"
+                + "    if y:\n"
+                + "        z = z + x\n"
+                + "    return z\n"
+                + "print(f(1, True))\n").lower("f");
+        assertNotNull(func);
+        assertEquals(2, func.params.size());
+        assertEquals("x", func.params.get(0).name);
+        assertTrue(func.locals.containsKey("z"));
+        assertEquals(1, count(func, Op.ADD));
+        assertEquals(1, count(func, Op.BRANCH));
+        assertEquals(1, count(func, Op.RETURN));
+    }
+
+    @Test
+    public void leavesNestedFunctionsToTheAst() {
+        LoweringCodeGen codegen = LoweringCodeGen.of(
+                "def f(x: int) -> int:\n"
+                + "    def g() -> int:\n"
+                + "        return x\n"
+                + "    return g()\n"
+                + "print(f(1))\n");
+        assertNull(codegen.lower("f"));
+    }
+
+    /** A recursive function, which is not inlined, is called in tail position by a jump. */
+    @Test
+    public void lowersReturnOfOtherCallToTailCall() {
+        IrFunction func = LoweringCodeGen.of(
+                "def g(a: int, b: int) -> int:\n"
+                + "    if a <= 0:\n"
+                + "        return b\n"
+                + "    return g(a - 1, b) + 1\n"
+                + "def f(a: int, b: int) -> int:\n"
+                + "    return g(b, a)\n"
+                + "print(f(1, 2))\n").lower("f");
+        assertEquals(1, count(func, Op.TAIL_CALL));
+        assertEquals(0, count(func, Op.CALL));
+    }
+
+    /** The parameters of a self tail call are assigned as if at once, whatever their order. */
+    @Test
+    public void rebindsPermutedParametersInParallel() {
+        String source =
+                "def swap(a: int, b: int, n: int) -> int:\n"
+                + "    if n == 0:\n"
+                + "        return a * 100 + b\n"
+                + "    return swap(b, a, n - 1)\n"
+                + "print(swap(1, 2, 5))\n";
+        IrFunction func = LoweringCodeGen.of(source).lower("swap");
+        assertEquals(0, count(func, Op.CALL));
+        assertEquals(0, count(func, Op.TAIL_CALL));
+
+        for (BasicBlock block : func.blocks) {
+            List<VReg> assigned = new ArrayList<>();
+            for (Insn insn : block.insns) {
+                for (VReg src : insn.srcs) {
+                    assertFalse("reads " + src + " after rebinding it:\n" + func,
+                            assigned.contains(src));
+                }
+                if (insn.op == Op.MOVE && func.params.contains(insn.dst)) {
+                    assigned.add(insn.dst);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package chocopy.pa3.ir;
+
+import chocopy.common.astnodes.Program;
+import chocopy.common.codegen.FuncInfo;
+import chocopy.common.codegen.RiscVBackend;
+import chocopy.pa1.StudentParser;
+import chocopy.pa2.StudentAnalysis;
+import chocopy.pa3.CodeGenImpl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * A code generator that remembers the functions it emits, so that tests can lower and emit them
+ * again one at a time.
+ */
+class LoweringCodeGen extends CodeGenImpl {
+    /** The functions emitted, by name. */
+    private final Map<String, FuncInfo> functions = new LinkedHashMap<>();
+
+    private LoweringCodeGen() {
+        super(new RiscVBackend());
+    }
+
+    /** Returns the code generator after it generated the code of SOURCE. */
+    static LoweringCodeGen of(String source) {
+        Program program = StudentAnalysis.process(StudentParser.process(source, false), false);
+        assertFalse(program.getErrorList().toString(), program.hasErrors());
+        LoweringCodeGen codegen = new LoweringCodeGen();
+        codegen.generate(program);
+        return codegen;
+    }
+
+    @Override
+    protected void emitUserDefinedFunction(FuncInfo funcInfo) {
+        functions.put(funcInfo.getFuncName(), funcInfo);
+        super.emitUserDefinedFunction(funcInfo);
+    }
+
+    /** Returns the function NAME of the program. */
+    FuncInfo function(String name) {
+        FuncInfo funcInfo = functions.get(name);
+        assertNotNull("no function " + name + " in " + functions.keySet(), funcInfo);
+        return funcInfo;
+    }
+
+    /** Returns the IR of function NAME as lowered, or null if the IR does not cover it. */
+    IrFunction lower(String name) {
+        return IrLowering.lower(this, function(name));
+    }
+
+    /** Returns the assembly code of function NAME, optimized and emitted from the IR. */
+    String emit(String name) {
+        IrFunction ir = lower(name);
+        assertNotNull(name + " is not covered by the IR", ir);
+        Ssa ssa = new Ssa(ir);
+        ssa.construct();
+        ConstantPropagation.run(ir);
+        CheckElimination.run(ir, nonNullRoutines);
+        ssa.destruct();
+        ir.bypassEmptyBlocks();
+        ir.removeDeadCode();
+        RiscVBackend backend = new RiscVBackend();
+        new IrEmitter(this, backend, ir).emit();
+        return backend.toString();
+    }
+}